@@ -0,0 +1,37 @@
+/*
+ * Copyright 2012-2022 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.webapp.vectorizer;
+
+final class BenchmarkUtil {
+
+    private static final String[] WORDS = { "semantic", "search", "vector", "fess", "query", "document", "index", "embedding" };
+
+    private BenchmarkUtil() {
+    }
+
+    static String createText(final int length) {
+        final StringBuilder buf = new StringBuilder(length + 16);
+        int i = 0;
+        while (buf.length() < length) {
+            if (buf.length() > 0) {
+                buf.append(' ');
+            }
+            buf.append(WORDS[i++ % WORDS.length]);
+        }
+        buf.setLength(length);
+        return buf.toString();
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2012-2022 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.webapp.vectorizer;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.TermQuery;
+import org.codelibs.fess.entity.QueryContext;
+import org.codelibs.fess.mylasta.direction.FessConfig;
+import org.codelibs.fess.query.QueryProcessor.FilterChain;
+import org.codelibs.fess.util.ComponentUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opensearch.index.query.QueryBuilder;
+import org.opensearch.index.query.QueryBuilders;
+import org.opensearch.script.Script;
+
+/**
+ * Query assembly of {@link VectorisingTermQueryCommand#getScripts(String, String[], String)}
+ * and {@link VectorisingQueryFilter#execute(QueryContext, org.apache.lucene.search.Query, float, FilterChain)}.
+ * The vectorizer returns a precomputed vector, so only the plugin's own work is measured.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class VectorisingQueryBenchmark {
+
+    private static final String[] FIELDS = { "content", "title", "digest", "url" };
+
+    @Param({ "384", "768", "1024" })
+    public int dimension;
+
+    @Param({ "1", "4" })
+    public int scriptCount;
+
+    private VectorisingTermQueryCommand command;
+
+    private VectorisingQueryFilter filter;
+
+    private String[] fields;
+
+    private QueryContext queryContext;
+
+    private TermQuery query;
+
+    private FilterChain chain;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        ComponentUtil.setFessConfig(new FessConfig.SimpleImpl());
+        fields = Arrays.copyOf(FIELDS, scriptCount);
+        command = new VectorisingTermQueryCommand();
+        final MockVectorizer vectorizer = new MockVectorizer(StubVectorizerServer.createVector("aaa", dimension));
+        vectorizer.recording = false;
+        command.vectorizer = vectorizer;
+        filter = new VectorisingQueryFilter();
+        queryContext = new QueryContext("semantic:aaa", false);
+        query = new TermQuery(new Term("semantic", "aaa"));
+        final Script[] scripts = command.getScripts("en", fields, "aaa");
+        final QueryBuilder lexicalQuery = QueryBuilders.matchAllQuery();
+        chain = (context, q, boost) -> {
+            ((VectorisingQueryContext) context).setScripts(scripts);
+            return lexicalQuery;
+        };
+    }
+
+    @Benchmark
+    public Script[] getScripts() {
+        return command.getScripts("en", fields, "aaa");
+    }
+
+    @Benchmark
+    public QueryBuilder executeFilter() {
+        return filter.execute(queryContext, query, 1.0f, chain);
+    }
+}
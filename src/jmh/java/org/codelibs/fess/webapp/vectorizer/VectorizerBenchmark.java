@@ -0,0 +1,92 @@
+/*
+ * Copyright 2012-2022 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.webapp.vectorizer;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Round trip of {@link Vectorizer#vectorize(Map)} against {@link StubVectorizerServer}.
+ * The query cache is disabled, so every call builds a request and parses a response.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class VectorizerBenchmark {
+
+    @Param({ "384", "768", "1024" })
+    public int dimension;
+
+    @Param({ "32", "1024", "102400" })
+    public int contentLength;
+
+    @Param({ "pooled" })
+    public String transport;
+
+    @Param({ "base64_float32" })
+    public String vectorFormat;
+
+    private StubVectorizerServer server;
+
+    private Vectorizer vectorizer;
+
+    private Map<String, Object> input;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        server = new StubVectorizerServer(dimension);
+        vectorizer = Vectorizer.create()//
+                .url(server.start())//
+                .dimension(dimension)//
+                .transport(transport)//
+                .vectorFormat(vectorFormat)//
+                .cacheSize(0)//
+                .initTimeout(10000L)//
+                .build();
+        input = new HashMap<>();
+        input.put("lang", "en");
+        input.put("content", BenchmarkUtil.createText(contentLength));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        vectorizer.close();
+        server.close();
+    }
+
+    @Benchmark
+    public Map<String, float[]> vectorize() {
+        return vectorizer.vectorize(input);
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2012-2022 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.webapp.vectorizer;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.codelibs.fess.webapp.vectorizer.VectorizerCodec.BytesOutputStream;
+import org.codelibs.fess.webapp.vectorizer.VectorizerCodec.VectorFormat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Request building and response parsing of {@link VectorizerCodec} without network I/O.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class VectorizerCodecBenchmark {
+
+    @Param({ "384", "768", "1024" })
+    public int dimension;
+
+    @Param({ "32", "1024", "102400" })
+    public int contentLength;
+
+    @Param({ "json", "base64_float32" })
+    public String vectorFormat;
+
+    private VectorizerCodec codec;
+
+    private List<Map<String, Object>> inputs;
+
+    private List<String> langs;
+
+    private byte[] response;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        codec = new VectorizerCodec(new String[] { "content" }, dimension);
+        codec.setVectorFormat(VectorFormat.of(vectorFormat));
+        final Map<String, Object> input = new HashMap<>();
+        input.put("lang", "en");
+        input.put("content", BenchmarkUtil.createText(contentLength));
+        inputs = List.of(input);
+        langs = List.of("en");
+        final BytesOutputStream body = codec.writeRequest(inputs, langs);
+        try (StubVectorizerServer server = new StubVectorizerServer(dimension)) {
+            response = server.createResponse(Arrays.copyOf(body.getBuffer(), body.size()));
+        }
+    }
+
+    @Benchmark
+    public int writeRequest() throws IOException {
+        return codec.writeRequest(inputs, langs).size();
+    }
+
+    @Benchmark
+    public List<Map<String, float[]>> readResponse() throws IOException {
+        return codec.readResponse(new ByteArrayInputStream(response));
+    }
+}
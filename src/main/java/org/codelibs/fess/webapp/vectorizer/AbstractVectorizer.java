@@ -0,0 +1,570 @@
+/*
+ * Copyright 2012-2022 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.webapp.vectorizer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+import org.codelibs.core.lang.StringUtil;
+import org.codelibs.fess.util.DocumentUtil;
+import org.codelibs.fess.webapp.vectorizer.PassageChunker.Passage;
+import org.codelibs.fess.webapp.vectorizer.VectorizerCodec.VectorFormat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Caching, batching and overload protection shared by the vectorizer backends.
+ * A backend implements {@link #initialize()} and {@link #execute(List, List)}.
+ */
+public abstract class AbstractVectorizer implements Vectorizer {
+    private static final Logger logger = LoggerFactory.getLogger(AbstractVectorizer.class);
+
+    private static final Pattern WHITESPACE_PATTERN = Pattern.compile("\\s+");
+
+    protected volatile Metadata metadata = new Metadata(Collections.emptySet(), VectorFormat.JSON, 0);
+
+    protected String[] fields;
+
+    protected int dimension;
+
+    protected float[] emptyValue;
+
+    protected VectorCache cache;
+
+    protected EmbeddingStore store;
+
+    protected int batchSize;
+
+    protected long maxBatchBytes;
+
+    protected ExecutorService executor;
+
+    protected VectorizeBatcher batcher;
+
+    protected Semaphore bulkhead;
+
+    protected int maxConcurrentRequests;
+
+    protected CircuitBreaker circuitBreaker;
+
+    protected VectorReducer reducer;
+
+    protected PassageChunker chunker;
+
+    protected VectorizerMetrics metrics;
+
+    protected final CountDownLatch initializedLatch = new CountDownLatch(1);
+
+    /**
+     * Starts loading the backend. This method must not block on it.
+     */
+    protected abstract void initialize();
+
+    /**
+     * Vectorizes the inputs, and returns an empty list on failure.
+     */
+    protected abstract List<Map<String, float[]>> execute(List<Map<String, Object>> inputs, List<String> langs);
+
+    protected void setMetadata(final Metadata newMetadata) {
+        if (!newMetadata.languages.equals(metadata.languages)) {
+            logger.info("Supported languages: {}", newMetadata.languages);
+        }
+        if (reducer == null && newMetadata.dimension != dimension && newMetadata.dimension != metadata.dimension) {
+            logger.warn("Dimension mismatch: backend={}, configured={}", newMetadata.dimension, dimension);
+        }
+        metadata = newMetadata;
+        initializedLatch.countDown();
+    }
+
+    @Override
+    public boolean isInitialized() {
+        return initializedLatch.getCount() == 0;
+    }
+
+    /**
+     * Waits until the backend is loaded.
+     */
+    public boolean awaitInitialization(final long timeout) {
+        try {
+            return initializedLatch.await(timeout, TimeUnit.MILLISECONDS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    public Optional<String> getLanguage(final Map<String, Object> input) {
+        final String lang = DocumentUtil.getValue(input, "lang", String.class);
+        if (StringUtil.isBlank(lang)) {
+            return Optional.empty();
+        }
+
+        if (!metadata.languages.contains(lang)) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("Unsupported lang: {}", lang);
+            }
+            return Optional.empty();
+        }
+        return Optional.of(lang);
+    }
+
+    @Override
+    public Map<String, float[]> vectorize(final Map<String, Object> input) {
+        final Optional<String> langOpt = getLanguage(input);
+        if (langOpt.isEmpty()) {
+            return Collections.emptyMap();
+        }
+
+        if (cache == null && store == null) {
+            return vectorize(input, langOpt.get());
+        }
+        final VectorCache.Key key = createCacheKey(langOpt.get(), input);
+        if (cache == null) {
+            return loadThroughStore(key, input, langOpt.get());
+        }
+        return cache.get(key, () -> loadThroughStore(key, input, langOpt.get()));
+    }
+
+    protected Map<String, float[]> loadThroughStore(final VectorCache.Key key, final Map<String, Object> input, final String lang) {
+        if (store == null) {
+            return vectorize(input, lang);
+        }
+        final Map<String, float[]> stored = store.get(key);
+        if (stored != null) {
+            return stored;
+        }
+        final Map<String, float[]> output = vectorize(input, lang);
+        if (!output.isEmpty()) {
+            store.put(key, output);
+        }
+        return output;
+    }
+
+    @Override
+    public CompletableFuture<Map<String, float[]>> vectorizeAsync(final Map<String, Object> input) {
+        final Optional<String> langOpt = getLanguage(input);
+        if (langOpt.isEmpty()) {
+            return CompletableFuture.completedFuture(Collections.emptyMap());
+        }
+
+        if (cache == null && store == null) {
+            return submit(input, langOpt.get());
+        }
+        final VectorCache.Key key = createCacheKey(langOpt.get(), input);
+        if (cache == null) {
+            return submitThroughStore(key, input, langOpt.get());
+        }
+        return cache.getAsync(key, () -> submitThroughStore(key, input, langOpt.get()));
+    }
+
+    protected CompletableFuture<Map<String, float[]>> submitThroughStore(final VectorCache.Key key, final Map<String, Object> input,
+            final String lang) {
+        if (store == null) {
+            return submit(input, lang);
+        }
+        final Map<String, float[]> stored = store.get(key);
+        if (stored != null) {
+            return CompletableFuture.completedFuture(stored);
+        }
+        return submit(input, lang).thenApply(output -> {
+            if (!output.isEmpty()) {
+                store.put(key, output);
+            }
+            return output;
+        });
+    }
+
+    protected CompletableFuture<Map<String, float[]>> submit(final Map<String, Object> input, final String lang) {
+        if (bulkhead != null && !bulkhead.tryAcquire()) {
+            return CompletableFuture.failedFuture(new RejectedExecutionException("Too many concurrent vectorize requests."));
+        }
+        if (circuitBreaker != null && !circuitBreaker.tryAcquire()) {
+            if (bulkhead != null) {
+                bulkhead.release();
+            }
+            return CompletableFuture.failedFuture(new RejectedExecutionException("Circuit breaker is open."));
+        }
+
+        final long startTime = System.nanoTime();
+        return doSubmit(input, lang).whenComplete((output, t) -> {
+            if (bulkhead != null) {
+                bulkhead.release();
+            }
+            if (circuitBreaker != null) {
+                if (t instanceof RejectedExecutionException) {
+                    // the backend was not called, so a trial permit is given back
+                    circuitBreaker.release();
+                } else if (t != null || output.isEmpty()) {
+                    circuitBreaker.onFailure();
+                } else {
+                    circuitBreaker.onSuccess(System.nanoTime() - startTime);
+                }
+            }
+        });
+    }
+
+    protected CompletableFuture<Map<String, float[]>> doSubmit(final Map<String, Object> input, final String lang) {
+        if (batcher != null) {
+            return batcher.submit(input);
+        }
+        try {
+            return CompletableFuture.supplyAsync(() -> vectorize(input, lang), executor);
+        } catch (final RejectedExecutionException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    protected VectorCache.Key createCacheKey(final String lang, final Map<String, Object> input) {
+        final String[] values = new String[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            values[i] = normalizeText(DocumentUtil.getValue(input, fields[i], String.class, StringUtil.EMPTY));
+        }
+        return new VectorCache.Key(lang, fields, values);
+    }
+
+    protected String normalizeText(final String value) {
+        return WHITESPACE_PATTERN.matcher(value.trim()).replaceAll(" ");
+    }
+
+    protected Map<String, float[]> vectorize(final Map<String, Object> input, final String lang) {
+        if (chunker != null) {
+            return vectorizeBatch(List.of(input)).get(0);
+        }
+        final List<Map<String, float[]>> outputs = executeWithMetrics(List.of(input), List.of(lang));
+        if (outputs.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        return reduce(outputs.get(0));
+    }
+
+    protected List<Map<String, float[]>> executeWithMetrics(final List<Map<String, Object>> inputs, final List<String> langs) {
+        if (metrics == null) {
+            return execute(inputs, langs);
+        }
+        final long startTime = System.nanoTime();
+        final List<Map<String, float[]>> outputs = execute(inputs, langs);
+        metrics.recordExecution(getLanguageLabel(langs), System.nanoTime() - startTime, !outputs.isEmpty());
+        return outputs;
+    }
+
+    protected static String getLanguageLabel(final List<String> langs) {
+        final String lang = langs.get(0);
+        for (int i = 1; i < langs.size(); i++) {
+            if (!lang.equals(langs.get(i))) {
+                return "mixed";
+            }
+        }
+        return lang;
+    }
+
+    /**
+     * Returns true if output vectors have unit length, so pooled passage vectors are normalized again.
+     */
+    protected boolean isNormalized() {
+        return reducer != null;
+    }
+
+    protected Map<String, float[]> reduce(final Map<String, float[]> output) {
+        if (reducer == null || output.isEmpty()) {
+            return output;
+        }
+        final Map<String, float[]> reduced = new HashMap<>(output.size());
+        for (final Map.Entry<String, float[]> entry : output.entrySet()) {
+            try {
+                reduced.put(entry.getKey(), reducer.reduce(entry.getValue()));
+            } catch (final IllegalArgumentException e) {
+                logger.warn("Failed to reduce {}: {}", entry.getKey(), e.getMessage());
+            }
+        }
+        return reduced;
+    }
+
+    @Override
+    public List<Map<String, float[]>> vectorizeBatch(final List<Map<String, Object>> inputs) {
+        if (chunker == null) {
+            return executeBatches(inputs);
+        }
+        final List<Map<String, List<Passage>>> passagesList = vectorizePassages(inputs);
+        final List<Map<String, float[]>> outputs = new ArrayList<>(passagesList.size());
+        for (final Map<String, List<Passage>> passages : passagesList) {
+            final Map<String, float[]> output = new HashMap<>(passages.size());
+            passages.forEach((field, values) -> {
+                try {
+                    final float[] pooled = chunker.pool(values.stream().map(Passage::getVector).toList());
+                    if (values.size() > 1 && isNormalized()) {
+                        VectorReducer.normalize(pooled);
+                    }
+                    output.put(field, pooled);
+                } catch (final IllegalArgumentException e) {
+                    logger.warn("Failed to pool passages of {}: {}", field, e.getMessage());
+                }
+            });
+            outputs.add(output);
+        }
+        return outputs;
+    }
+
+    /**
+     * Vectorizes all passages of the inputs in batches, one passage of one field per document of a batch.
+     */
+    @Override
+    public List<Map<String, List<Passage>>> vectorizePassages(final List<Map<String, Object>> inputs) {
+        if (chunker == null) {
+            return Vectorizer.super.vectorizePassages(inputs);
+        }
+        final List<Map<String, Object>> passageInputs = new ArrayList<>();
+        final List<Passage> passages = new ArrayList<>();
+        final List<Integer> positions = new ArrayList<>();
+        final List<String> passageFields = new ArrayList<>();
+        final List<Map<String, Integer>> counts = new ArrayList<>(inputs.size());
+        for (int i = 0; i < inputs.size(); i++) {
+            final Map<String, Object> input = inputs.get(i);
+            final Map<String, Integer> count = new HashMap<>(fields.length);
+            counts.add(count);
+            final Optional<String> langOpt = getLanguage(input);
+            if (langOpt.isEmpty()) {
+                continue;
+            }
+            for (final String field : fields) {
+                final List<Passage> values = chunker.split(DocumentUtil.getValue(input, field, String.class));
+                for (final Passage passage : values) {
+                    final Map<String, Object> passageInput = new HashMap<>(2);
+                    passageInput.put("lang", langOpt.get());
+                    passageInput.put(field, passage.getText());
+                    passageInputs.add(passageInput);
+                    passages.add(passage);
+                    positions.add(i);
+                    passageFields.add(field);
+                }
+                count.put(field, values.size());
+            }
+        }
+
+        final List<Map<String, float[]>> results = executeBatches(passageInputs);
+        final List<Map<String, List<Passage>>> outputs = new ArrayList<>(inputs.size());
+        for (int i = 0; i < inputs.size(); i++) {
+            outputs.add(new HashMap<>(fields.length));
+        }
+        for (int i = 0; i < results.size(); i++) {
+            final float[] vector = results.get(i).get(passageFields.get(i));
+            if (vector != null) {
+                outputs.get(positions.get(i))
+                        .computeIfAbsent(passageFields.get(i), k -> new ArrayList<>())
+                        .add(passages.get(i).withVector(vector));
+            }
+        }
+        // a field is not pooled or indexed from a part of the text
+        for (int i = 0; i < outputs.size(); i++) {
+            final Map<String, Integer> count = counts.get(i);
+            outputs.get(i).entrySet().removeIf(entry -> {
+                if (entry.getValue().size() != count.get(entry.getKey())) {
+                    if (logger.isDebugEnabled()) {
+                        logger.debug("Skipped {}: {}/{} passages are vectorized.", entry.getKey(), entry.getValue().size(),
+                                count.get(entry.getKey()));
+                    }
+                    return true;
+                }
+                return false;
+            });
+        }
+        return outputs;
+    }
+
+    protected List<Map<String, float[]>> executeBatches(final List<Map<String, Object>> inputs) {
+        final List<Map<String, float[]>> outputs = new ArrayList<>(Collections.nCopies(inputs.size(), Collections.emptyMap()));
+        final List<Map<String, Object>> docs = new ArrayList<>();
+        final List<String> langs = new ArrayList<>();
+        final List<Integer> positions = new ArrayList<>();
+        long batchBytes = 0;
+        for (int i = 0; i < inputs.size(); i++) {
+            final Map<String, Object> input = inputs.get(i);
+            final Optional<String> langOpt = getLanguage(input);
+            if (langOpt.isEmpty()) {
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Skipped input at {}: lang is missing or unsupported.", i);
+                }
+                continue;
+            }
+            final long docBytes = estimateSize(input);
+            if (!docs.isEmpty() && (docs.size() >= batchSize || batchBytes + docBytes > maxBatchBytes)) {
+                executeBatch(docs, langs, positions, outputs);
+                docs.clear();
+                langs.clear();
+                positions.clear();
+                batchBytes = 0;
+            }
+            docs.add(input);
+            langs.add(langOpt.get());
+            positions.add(i);
+            batchBytes += docBytes;
+        }
+        if (!docs.isEmpty()) {
+            executeBatch(docs, langs, positions, outputs);
+        }
+        return outputs;
+    }
+
+    protected long estimateSize(final Map<String, Object> input) {
+        long size = 0;
+        for (final String field : fields) {
+            size += VectorizerCodec.getUtf8Length(DocumentUtil.getValue(input, field, String.class, StringUtil.EMPTY));
+        }
+        return size;
+    }
+
+    protected void executeBatch(final List<Map<String, Object>> docs, final List<String> langs, final List<Integer> positions,
+            final List<Map<String, float[]>> outputs) {
+        final List<Map<String, float[]>> results = executeWithMetrics(docs, langs);
+        if (results.size() != docs.size()) {
+            logger.warn("The number of results does not match: expected={}, actual={}", docs.size(), results.size());
+            return;
+        }
+        for (int i = 0; i < results.size(); i++) {
+            outputs.set(positions.get(i), reduce(results.get(i)));
+        }
+    }
+
+    @Override
+    public void close() {
+        if (batcher != null) {
+            batcher.close();
+        }
+        if (executor != null) {
+            executor.shutdown();
+        }
+        if (store != null) {
+            store.close();
+        }
+    }
+
+    @Override
+    public String[] getLanguages() {
+        return metadata.languages.toArray(n -> new String[n]);
+    }
+
+    @Override
+    public boolean isSupportedLanguage(final String lang) {
+        if (StringUtil.isEmpty(lang)) {
+            return false;
+        }
+        final Set<String> languages = metadata.languages;
+        if (languages.contains(lang)) {
+            return true;
+        }
+        final String[] values = lang.split("-");
+        return languages.contains(values[0]);
+    }
+
+    @Override
+    public String[] getFields() {
+        return fields;
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    @Override
+    public double getLoad() {
+        if (circuitBreaker != null && circuitBreaker.isOpen()) {
+            return 1.0;
+        }
+        if (bulkhead == null || maxConcurrentRequests <= 0) {
+            return 0.0;
+        }
+        return 1.0 - (double) bulkhead.availablePermits() / maxConcurrentRequests;
+    }
+
+    public int getAvailableConcurrency() {
+        return bulkhead != null ? bulkhead.availablePermits() : Integer.MAX_VALUE;
+    }
+
+    public VectorCache getCache() {
+        return cache;
+    }
+
+    public EmbeddingStore getStore() {
+        return store;
+    }
+
+    public VectorizerMetrics getMetrics() {
+        return metrics;
+    }
+
+    public Metadata getMetadata() {
+        return metadata;
+    }
+
+    protected static ThreadFactory createThreadFactory() {
+        try {
+            // use virtual threads if the runtime supports them
+            final Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            final Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builderClass.getMethod("name", String.class, long.class).invoke(builder, "Vectorizer-", 0L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (final Exception e) {
+            final AtomicInteger counter = new AtomicInteger();
+            return r -> {
+                final Thread thread = new Thread(r, "Vectorizer-" + counter.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            };
+        }
+    }
+
+    /**
+     * Backend metadata, replaced as a whole on refresh.
+     */
+    public static class Metadata {
+        protected final Set<String> languages;
+
+        protected final VectorFormat vectorFormat;
+
+        protected final int dimension;
+
+        protected Metadata(final Set<String> languages, final VectorFormat vectorFormat, final int dimension) {
+            this.languages = languages;
+            this.vectorFormat = vectorFormat;
+            this.dimension = dimension;
+        }
+
+        public Set<String> getLanguages() {
+            return languages;
+        }
+
+        public VectorFormat getVectorFormat() {
+            return vectorFormat;
+        }
+
+        public int getDimension() {
+            return dimension;
+        }
+    }
+}
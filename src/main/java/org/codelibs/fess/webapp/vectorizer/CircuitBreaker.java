@@ -0,0 +1,114 @@
+/*
+ * Copyright 2012-2022 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.webapp.vectorizer;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Opens after consecutive failed or slow calls, and lets one trial call through after the open duration.
+ */
+public class CircuitBreaker {
+
+    private static final Logger logger = LogManager.getLogger(CircuitBreaker.class);
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    protected final int failureThreshold;
+
+    protected final long slowCallThresholdNanos;
+
+    protected final long openDurationNanos;
+
+    protected final AtomicReference<State> state = new AtomicReference<>(State.CLOSED);
+
+    protected final AtomicInteger consecutiveFailures = new AtomicInteger();
+
+    protected final AtomicLong openedTime = new AtomicLong();
+
+    public CircuitBreaker(final int failureThreshold, final long slowCallThresholdMillis, final long openDurationMillis) {
+        this.failureThreshold = failureThreshold;
+        this.slowCallThresholdNanos = slowCallThresholdMillis > 0 ? TimeUnit.MILLISECONDS.toNanos(slowCallThresholdMillis) : Long.MAX_VALUE;
+        this.openDurationNanos = TimeUnit.MILLISECONDS.toNanos(openDurationMillis);
+    }
+
+    public boolean tryAcquire() {
+        final State current = state.get();
+        if (current == State.CLOSED) {
+            return true;
+        }
+        if (current == State.OPEN && System.nanoTime() - openedTime.get() >= openDurationNanos
+                && state.compareAndSet(State.OPEN, State.HALF_OPEN)) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("Circuit breaker is half-open.");
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Gives back a permit whose call did not run. A trial permit is acquired again by the next call.
+     */
+    public void release() {
+        state.compareAndSet(State.HALF_OPEN, State.OPEN);
+    }
+
+    public void onSuccess(final long elapsedNanos) {
+        if (elapsedNanos >= slowCallThresholdNanos) {
+            onFailure();
+            return;
+        }
+        consecutiveFailures.set(0);
+        if (state.get() != State.CLOSED && state.getAndSet(State.CLOSED) != State.CLOSED) {
+            logger.info("Circuit breaker is closed.");
+        }
+    }
+
+    public void onFailure() {
+        final int failures = consecutiveFailures.incrementAndGet();
+        final State current = state.get();
+        if (current == State.HALF_OPEN || current == State.CLOSED && failures >= failureThreshold) {
+            openedTime.set(System.nanoTime());
+            if (state.compareAndSet(current, State.OPEN)) {
+                logger.warn("Circuit breaker is open after {} failed or slow calls.", failures);
+            }
+        }
+    }
+
+    public State getState() {
+        return state.get();
+    }
+
+    /**
+     * Returns true if calls are rejected and the open duration has not elapsed yet.
+     */
+    public boolean isOpen() {
+        return state.get() == State.OPEN && System.nanoTime() - openedTime.get() < openDurationNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "CircuitBreaker [state=" + state.get() + ", consecutiveFailures=" + consecutiveFailures.get() + "]";
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2012-2022 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.webapp.vectorizer;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.codelibs.curl.Curl;
+import org.codelibs.curl.CurlException;
+import org.codelibs.curl.CurlRequest;
+import org.codelibs.curl.CurlResponse;
+
+public class CurlTransport implements VectorizerTransport {
+
+    protected final int connectTimeout;
+
+    protected final int readTimeout;
+
+    protected final LongAdder requestCount = new LongAdder();
+
+    public CurlTransport(final int connectTimeout, final int readTimeout) {
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+    }
+
+    @Override
+    public Response get(final String url) throws IOException {
+        return execute(Curl.get(url));
+    }
+
+    @Override
+    public Response post(final String url, final byte[] body, final int length) throws IOException {
+        return execute(Curl.post(url).body(new ByteArrayInputStream(body, 0, length)));
+    }
+
+    protected Response execute(final CurlRequest request) throws IOException {
+        requestCount.increment();
+        final CurlResponse response;
+        try {
+            response = request.header("Content-Type", "application/json").onConnect((req, con) -> {
+                if (connectTimeout > 0) {
+                    con.setConnectTimeout(connectTimeout);
+                }
+                if (readTimeout > 0) {
+                    con.setReadTimeout(readTimeout);
+                }
+            }).execute();
+        } catch (final CurlException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+        return new Response() {
+            @Override
+            public int getStatusCode() {
+                return response.getHttpStatusCode();
+            }
+
+            @Override
+            public InputStream getContentAsStream() throws IOException {
+                return response.getContentAsStream();
+            }
+
+            @Override
+            public String getContentAsString() {
+                return response.getContentAsString();
+            }
+
+            @Override
+            public void close() throws IOException {
+                response.close();
+            }
+        };
+    }
+
+    @Override
+    public Stats getStats() {
+        return new Stats(requestCount.sum(), -1);
+    }
+
+    @Override
+    public void close() {
+        // nothing
+    }
+}
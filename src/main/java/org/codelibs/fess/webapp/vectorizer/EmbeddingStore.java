@@ -0,0 +1,350 @@
+/*
+ * Copyright 2012-2022 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.webapp.vectorizer;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32C;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Memory-mapped store of vectorized results that survives restarts.
+ * The file is an open addressing hash table of fixed-width records keyed by the 96-bit hash of (lang, texts).
+ * A record is invalidated before it is rewritten and verified by its CRC32C on read,
+ * so a record torn by a crash is treated as a miss.
+ * Pages are loaded on demand, so opening the store does not read the records.
+ * The store is recreated when the model changes, and a record older than the TTL is treated as a miss.
+ */
+public class EmbeddingStore implements AutoCloseable {
+
+    private static final Logger logger = LogManager.getLogger(EmbeddingStore.class);
+
+    private static final int MAGIC = 0x46564553; // FVES
+
+    private static final int VERSION = 2;
+
+    private static final int HEADER_SIZE = 32;
+
+    private static final int RECORD_HEADER_SIZE = 32;
+
+    // record header offsets
+    private static final int KEY_HASH = 0;
+
+    private static final int CHECKSUM = 8;
+
+    private static final int KEY_CHECK = 12;
+
+    private static final int FIELD_MASK = 16;
+
+    private static final int TIMESTAMP = 24;
+
+    private static final int PROBE_LENGTH = 8;
+
+    private static final int LOCK_STRIPES = 64;
+
+    protected final Path path;
+
+    protected final String[] fields;
+
+    protected final int dimension;
+
+    protected final int capacity;
+
+    protected final long modelHash;
+
+    protected final long ttl;
+
+    protected final int recordSize;
+
+    protected final FileChannel channel;
+
+    protected final MappedByteBuffer buffer;
+
+    protected final FloatBuffer floatBuffer;
+
+    protected final Object[] locks = new Object[LOCK_STRIPES];
+
+    protected final LongAdder hitCount = new LongAdder();
+
+    protected final LongAdder missCount = new LongAdder();
+
+    protected final LongAdder evictionCount = new LongAdder();
+
+    protected EmbeddingStore(final Path path, final String[] fields, final int dimension, final int capacity, final String model,
+            final long ttl) throws IOException {
+        if (fields.length > Integer.SIZE) {
+            throw new IllegalArgumentException("Too many fields: " + fields.length);
+        }
+        this.path = path;
+        this.fields = fields;
+        this.dimension = dimension;
+        this.capacity = capacity;
+        modelHash = updateHash(0xcbf29ce484222325L, model != null ? model : "");
+        this.ttl = ttl;
+        recordSize = RECORD_HEADER_SIZE + fields.length * dimension * Float.BYTES;
+        final long fileSize = HEADER_SIZE + (long) recordSize * capacity;
+        if (capacity <= 0 || fileSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid store size: " + capacity + " records of " + recordSize + " bytes");
+        }
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        boolean valid = channel.size() == fileSize;
+        if (!valid && channel.size() > 0) {
+            logger.info("Recreating {}: size={}, expected={}", path, channel.size(), fileSize);
+            channel.truncate(0);
+        }
+        buffer = channel.map(MapMode.READ_WRITE, 0, fileSize);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if (valid && !isValidHeader()) {
+            logger.info("Recreating {}: incompatible header", path);
+            valid = false;
+            for (int i = 0; i < capacity; i++) {
+                buffer.putLong(getOffset(i) + KEY_HASH, 0L);
+            }
+        }
+        if (!valid) {
+            writeHeader();
+        }
+        floatBuffer = buffer.asFloatBuffer();
+    }
+
+    public static EmbeddingStore open(final Path path, final String[] fields, final int dimension, final int capacity)
+            throws IOException {
+        return open(path, fields, dimension, capacity, null, 0L);
+    }
+
+    /**
+     * Opens the store of the model, such as its version. A record older than ttl milliseconds is not returned if ttl is positive.
+     */
+    public static EmbeddingStore open(final Path path, final String[] fields, final int dimension, final int capacity,
+            final String model, final long ttl) throws IOException {
+        return new EmbeddingStore(path, fields, dimension, capacity, model, ttl);
+    }
+
+    protected boolean isValidHeader() {
+        return buffer.getInt(0) == MAGIC && buffer.getInt(4) == VERSION && buffer.getInt(8) == dimension && buffer.getInt(12) == capacity
+                && buffer.getInt(16) == Arrays.hashCode(fields) && buffer.getLong(24) == modelHash;
+    }
+
+    protected void writeHeader() {
+        buffer.putInt(4, VERSION);
+        buffer.putInt(8, dimension);
+        buffer.putInt(12, capacity);
+        buffer.putInt(16, Arrays.hashCode(fields));
+        buffer.putLong(24, modelHash);
+        // the magic is written last, so a header torn by a crash is recreated
+        buffer.putInt(0, MAGIC);
+    }
+
+    /**
+     * Returns the stored result for the key, or null.
+     */
+    public Map<String, float[]> get(final VectorCache.Key key) {
+        final long keyHash = getKeyHash(key);
+        final int keyCheck = getKeyCheck(key);
+        final int start = getSlot(keyHash);
+        final long minTimestamp = ttl > 0 ? System.currentTimeMillis() - ttl : Long.MIN_VALUE;
+        for (int i = 0; i < PROBE_LENGTH; i++) {
+            final int offset = getOffset((start + i) % capacity);
+            if (buffer.getLong(offset + KEY_HASH) == keyHash && buffer.getInt(offset + KEY_CHECK) == keyCheck
+                    && buffer.getLong(offset + TIMESTAMP) >= minTimestamp) {
+                final Map<String, float[]> output = read(offset, keyHash);
+                if (output != null) {
+                    hitCount.increment();
+                    return output;
+                }
+            }
+        }
+        missCount.increment();
+        return null;
+    }
+
+    protected Map<String, float[]> read(final int offset, final long keyHash) {
+        final int checksum = buffer.getInt(offset + CHECKSUM);
+        final int mask = buffer.getInt(offset + FIELD_MASK);
+        final Map<String, float[]> output = new HashMap<>(fields.length);
+        for (int i = 0; i < fields.length; i++) {
+            if ((mask & 1 << i) != 0) {
+                final float[] vector = new float[dimension];
+                floatBuffer.get(getVectorOffset(offset, i) / Float.BYTES, vector);
+                output.put(fields[i], vector);
+            }
+        }
+        // the record may be rewritten while it is read
+        if (checksum != computeChecksum(offset) || buffer.getLong(offset + KEY_HASH) != keyHash) {
+            return null;
+        }
+        return output;
+    }
+
+    /**
+     * Stores the result for the key. Vectors of another dimension are not stored.
+     */
+    public void put(final VectorCache.Key key, final Map<String, float[]> output) {
+        int mask = 0;
+        for (int i = 0; i < fields.length; i++) {
+            final float[] vector = output.get(fields[i]);
+            if (vector != null) {
+                if (vector.length != dimension) {
+                    return;
+                }
+                mask |= 1 << i;
+            }
+        }
+        if (mask == 0) {
+            return;
+        }
+
+        final long keyHash = getKeyHash(key);
+        final int slot = selectSlot(keyHash);
+        synchronized (locks[slot % LOCK_STRIPES]) {
+            final int offset = getOffset(slot);
+            final long oldKeyHash = buffer.getLong(offset + KEY_HASH);
+            if (oldKeyHash != 0L && oldKeyHash != keyHash) {
+                evictionCount.increment();
+            }
+            buffer.putLong(offset + KEY_HASH, 0L);
+            buffer.putInt(offset + KEY_CHECK, getKeyCheck(key));
+            buffer.putInt(offset + FIELD_MASK, mask);
+            buffer.putLong(offset + TIMESTAMP, System.currentTimeMillis());
+            for (int i = 0; i < fields.length; i++) {
+                final float[] vector = output.get(fields[i]);
+                if (vector != null) {
+                    floatBuffer.put(getVectorOffset(offset, i) / Float.BYTES, vector);
+                }
+            }
+            buffer.putInt(offset + CHECKSUM, computeChecksum(offset));
+            buffer.putLong(offset + KEY_HASH, keyHash);
+        }
+    }
+
+    /**
+     * Returns the slot of the same key, an empty slot or the oldest slot in the probe window.
+     */
+    protected int selectSlot(final long keyHash) {
+        final int start = getSlot(keyHash);
+        int oldestSlot = start;
+        long oldestTime = Long.MAX_VALUE;
+        for (int i = 0; i < PROBE_LENGTH; i++) {
+            final int slot = (start + i) % capacity;
+            final int offset = getOffset(slot);
+            final long value = buffer.getLong(offset + KEY_HASH);
+            if (value == keyHash || value == 0L) {
+                return slot;
+            }
+            final long timestamp = buffer.getLong(offset + TIMESTAMP);
+            if (timestamp < oldestTime) {
+                oldestTime = timestamp;
+                oldestSlot = slot;
+            }
+        }
+        return oldestSlot;
+    }
+
+    protected int computeChecksum(final int offset) {
+        final CRC32C crc = new CRC32C();
+        crc.update(buffer.slice(offset + KEY_CHECK, recordSize - KEY_CHECK));
+        return (int) crc.getValue();
+    }
+
+    protected int getSlot(final long keyHash) {
+        return (int) Long.remainderUnsigned(keyHash, capacity);
+    }
+
+    protected int getOffset(final int slot) {
+        return HEADER_SIZE + slot * recordSize;
+    }
+
+    protected int getVectorOffset(final int offset, final int fieldIndex) {
+        return offset + RECORD_HEADER_SIZE + fieldIndex * dimension * Float.BYTES;
+    }
+
+    protected static long getKeyHash(final VectorCache.Key key) {
+        // FNV-1a
+        long hash = 0xcbf29ce484222325L;
+        hash = updateHash(hash, key.getLang());
+        for (final String value : key.getValues()) {
+            hash = updateHash(hash, value);
+        }
+        return hash != 0L ? hash : 1L;
+    }
+
+    private static long updateHash(final long seed, final String value) {
+        long hash = seed;
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= 0xffff;
+        hash *= 0x100000001b3L;
+        return hash;
+    }
+
+    protected static int getKeyCheck(final VectorCache.Key key) {
+        return 31 * key.getLang().hashCode() + Arrays.hashCode(key.getValues());
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.sum();
+    }
+
+    @Override
+    public void close() {
+        buffer.force();
+        try {
+            channel.close();
+        } catch (final IOException e) {
+            logger.warn("Failed to close {}", path, e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "EmbeddingStore [path=" + path + ", capacity=" + capacity + ", hitCount=" + getHitCount() + ", missCount=" + getMissCount()
+                + ", evictionCount=" + getEvictionCount() + "]";
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright 2012-2022 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.webapp.vectorizer;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Routes requests to the vectorizer servers.
+ * An endpoint is ejected after consecutive failed requests or a failed health check,
+ * and re-admitted when its health check succeeds again.
+ */
+public class EndpointPool {
+
+    private static final Logger logger = LogManager.getLogger(EndpointPool.class);
+
+    public enum Routing {
+        /** the better of two random endpoints by recent latency times in-flight requests */
+        LATENCY,
+        /** fewest in-flight requests, then lowest recent latency */
+        INFLIGHT
+    }
+
+    protected final Endpoint[] endpoints;
+
+    protected final Routing routing;
+
+    protected final int failureThreshold;
+
+    protected long probeIntervalNanos = TimeUnit.SECONDS.toNanos(5);
+
+    protected ScheduledFuture<?> healthCheckTask;
+
+    public EndpointPool(final String[] urls, final Routing routing, final int failureThreshold) {
+        if (urls.length == 0) {
+            throw new IllegalArgumentException("No endpoint.");
+        }
+        endpoints = new Endpoint[urls.length];
+        for (int i = 0; i < urls.length; i++) {
+            endpoints[i] = new Endpoint(urls[i]);
+        }
+        this.routing = routing;
+        this.failureThreshold = failureThreshold;
+    }
+
+    public void startHealthCheck(final ScheduledExecutorService scheduler, final Predicate<String> pinger, final long interval) {
+        if (endpoints.length < 2 || interval <= 0) {
+            return;
+        }
+        healthCheckTask = scheduler.scheduleWithFixedDelay(() -> checkHealth(pinger), interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    protected void checkHealth(final Predicate<String> pinger) {
+        for (final Endpoint endpoint : endpoints) {
+            try {
+                endpoint.setHealthy(pinger.test(endpoint.getUrl()));
+            } catch (final Exception e) {
+                logger.warn("Failed to check {}", endpoint.getUrl(), e);
+                endpoint.setHealthy(false);
+            }
+        }
+    }
+
+    /**
+     * Returns a healthy endpoint, or one of all if no endpoint is healthy.
+     */
+    public Endpoint select() {
+        Endpoint[] candidates = endpoints;
+        int count = 0;
+        for (final Endpoint endpoint : endpoints) {
+            if (endpoint.isHealthy()) {
+                count++;
+            }
+        }
+        if (count > 0 && count < endpoints.length) {
+            candidates = new Endpoint[count];
+            int index = 0;
+            for (final Endpoint endpoint : endpoints) {
+                if (endpoint.isHealthy()) {
+                    candidates[index++] = endpoint;
+                }
+            }
+        }
+        if (candidates.length == 1) {
+            return candidates[0];
+        }
+        final long now = System.nanoTime();
+        if (routing == Routing.LATENCY) {
+            // power of two choices spreads requests, and does not send all of them to the single best endpoint
+            final ThreadLocalRandom random = ThreadLocalRandom.current();
+            final int i = random.nextInt(candidates.length);
+            int j = random.nextInt(candidates.length - 1);
+            if (j >= i) {
+                j++;
+            }
+            return compare(candidates[j], candidates[i], now) < 0 ? candidates[j] : candidates[i];
+        }
+        Endpoint selected = candidates[0];
+        for (int i = 1; i < candidates.length; i++) {
+            if (compare(candidates[i], selected, now) < 0) {
+                selected = candidates[i];
+            }
+        }
+        return selected;
+    }
+
+    protected int compare(final Endpoint e1, final Endpoint e2, final long now) {
+        final int inflight = Integer.compare(e1.getInflight(), e2.getInflight());
+        if (routing == Routing.INFLIGHT) {
+            return inflight != 0 ? inflight : Long.compare(e1.getLatency(), e2.getLatency());
+        }
+        final int score = Long.compare(getScore(e1, now), getScore(e2, now));
+        return score != 0 ? score : inflight;
+    }
+
+    /**
+     * Returns the expected wait of a new request. An endpoint without a recent latency gets a single probe request,
+     * so an endpoint that was slow once is not starved.
+     */
+    protected long getScore(final Endpoint endpoint, final long now) {
+        final int inflight = endpoint.getInflight();
+        final long latency = endpoint.getLatency();
+        if (latency == 0 || now - endpoint.updatedTime > probeIntervalNanos) {
+            return inflight == 0 ? 0L : Long.MAX_VALUE;
+        }
+        return latency * (inflight + 1);
+    }
+
+    public void setProbeInterval(final long probeInterval) {
+        probeIntervalNanos = TimeUnit.MILLISECONDS.toNanos(probeInterval);
+    }
+
+    public void onSuccess(final Endpoint endpoint, final long elapsedNanos) {
+        endpoint.inflight.decrementAndGet();
+        endpoint.consecutiveFailures.set(0);
+        endpoint.latency.getAndUpdate(prev -> prev == 0 ? Math.max(elapsedNanos, 1L) : Math.max(prev + (elapsedNanos - prev) / 5, 1L));
+        endpoint.updatedTime = System.nanoTime();
+    }
+
+    public void onFailure(final Endpoint endpoint) {
+        endpoint.inflight.decrementAndGet();
+        if (endpoint.consecutiveFailures.incrementAndGet() >= failureThreshold && endpoints.length > 1) {
+            endpoint.setHealthy(false);
+        }
+    }
+
+    public Endpoint[] getEndpoints() {
+        return endpoints;
+    }
+
+    public void close() {
+        if (healthCheckTask != null) {
+            healthCheckTask.cancel(true);
+        }
+    }
+
+    public static class Endpoint {
+
+        protected final String url;
+
+        protected volatile boolean healthy = true;
+
+        protected final AtomicInteger inflight = new AtomicInteger();
+
+        protected final AtomicInteger consecutiveFailures = new AtomicInteger();
+
+        protected final AtomicLong latency = new AtomicLong();
+
+        protected volatile long updatedTime;
+
+        protected Endpoint(final String url) {
+            this.url = url;
+        }
+
+        public String acquire() {
+            inflight.incrementAndGet();
+            return url;
+        }
+
+        protected void setHealthy(final boolean healthy) {
+            if (this.healthy != healthy) {
+                this.healthy = healthy;
+                if (healthy) {
+                    consecutiveFailures.set(0);
+                    logger.info("Endpoint {} is re-admitted.", url);
+                } else {
+                    logger.warn("Endpoint {} is ejected.", url);
+                }
+            }
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        public boolean isHealthy() {
+            return healthy;
+        }
+
+        public int getInflight() {
+            return inflight.get();
+        }
+
+        /**
+         * Returns the moving average of the request latency in nanoseconds.
+         */
+        public long getLatency() {
+            return latency.get();
+        }
+
+        @Override
+        public String toString() {
+            return "Endpoint [url=" + url + ", healthy=" + healthy + ", inflight=" + inflight.get() + ", latency=" + latency.get() + "]";
+        }
+    }
+}
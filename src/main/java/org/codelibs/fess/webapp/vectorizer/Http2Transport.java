@@ -0,0 +1,205 @@
+/*
+ * Copyright 2012-2022 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.webapp.vectorizer;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandler;
+import java.net.http.HttpResponse.BodySubscriber;
+import java.net.http.HttpResponse.BodySubscribers;
+import java.net.http.HttpResponse.ResponseInfo;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Transport backed by the JDK HTTP client.
+ * Requests are multiplexed over one connection when the server supports HTTP/2,
+ * and fall back to pooled HTTP/1.1 connections otherwise.
+ * The read timeout bounds a whole request including its response body.
+ */
+public class Http2Transport implements VectorizerTransport {
+
+    protected final ExecutorService executor;
+
+    protected final HttpClient httpClient;
+
+    protected final Duration readTimeout;
+
+    protected final LongAdder requestCount = new LongAdder();
+
+    public Http2Transport(final int connectTimeout, final int readTimeout) {
+        executor = Executors.newCachedThreadPool(r -> {
+            final Thread thread = new Thread(r, "Http2Transport");
+            thread.setDaemon(true);
+            return thread;
+        });
+        final HttpClient.Builder builder = HttpClient.newBuilder().version(HttpClient.Version.HTTP_2).executor(executor);
+        if (connectTimeout > 0) {
+            builder.connectTimeout(Duration.ofMillis(connectTimeout));
+        }
+        httpClient = builder.build();
+        this.readTimeout = readTimeout > 0 ? Duration.ofMillis(readTimeout) : null;
+    }
+
+    @Override
+    public Response get(final String url) throws IOException {
+        return execute(newRequestBuilder(url).GET().build());
+    }
+
+    @Override
+    public Response post(final String url, final byte[] body, final int length) throws IOException {
+        // the request is sent on another thread, and the buffer of the caller may be reused after a timeout
+        return execute(newRequestBuilder(url).POST(BodyPublishers.ofByteArray(Arrays.copyOf(body, length))).build());
+    }
+
+    protected HttpRequest.Builder newRequestBuilder(final String url) {
+        final HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(url)).header("Content-Type", "application/json");
+        if (readTimeout != null) {
+            builder.timeout(readTimeout);
+        }
+        return builder;
+    }
+
+    protected Response execute(final HttpRequest request) throws IOException {
+        requestCount.increment();
+        final CancellableBodyHandler bodyHandler = new CancellableBodyHandler();
+        final CompletableFuture<HttpResponse<byte[]>> future = httpClient.sendAsync(request, bodyHandler);
+        final HttpResponse<byte[]> response;
+        try {
+            response = readTimeout != null ? future.get(readTimeout.toMillis(), TimeUnit.MILLISECONDS) : future.get();
+        } catch (final TimeoutException e) {
+            abort(future, bodyHandler);
+            throw new HttpTimeoutException("Request timed out after " + readTimeout.toMillis() + "ms: " + request.uri());
+        } catch (final ExecutionException e) {
+            throw new IOException("Failed to access " + request.uri(), e.getCause());
+        } catch (final InterruptedException e) {
+            abort(future, bodyHandler);
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted: " + request.uri(), e);
+        }
+        final byte[] body = response.body() != null ? response.body() : new byte[0];
+        return new Response() {
+            @Override
+            public int getStatusCode() {
+                return response.statusCode();
+            }
+
+            @Override
+            public InputStream getContentAsStream() {
+                return new ByteArrayInputStream(body);
+            }
+
+            @Override
+            public String getContentAsString() {
+                return new String(body, StandardCharsets.UTF_8);
+            }
+
+            @Override
+            public void close() {
+                // the body is already read
+            }
+        };
+    }
+
+    /**
+     * Stops the exchange. The request timeout of the client stops it while waiting for the response headers, and cancelling the
+     * subscription stops reading the body, which resets the stream or closes the connection.
+     */
+    protected void abort(final CompletableFuture<HttpResponse<byte[]>> future, final CancellableBodyHandler bodyHandler) {
+        bodyHandler.cancel();
+        future.cancel(true);
+    }
+
+    @Override
+    public Stats getStats() {
+        return new Stats(requestCount.sum(), -1);
+    }
+
+    @Override
+    public void close() {
+        // HttpClient has no close method, and its connections are released by GC after the executor stops
+        executor.shutdownNow();
+    }
+
+    protected static class CancellableBodyHandler implements BodyHandler<byte[]> {
+
+        protected volatile Flow.Subscription subscription;
+
+        protected volatile boolean cancelled;
+
+        @Override
+        public BodySubscriber<byte[]> apply(final ResponseInfo responseInfo) {
+            final BodySubscriber<byte[]> delegate = BodySubscribers.ofByteArray();
+            return new BodySubscriber<>() {
+                @Override
+                public CompletionStage<byte[]> getBody() {
+                    return delegate.getBody();
+                }
+
+                @Override
+                public void onSubscribe(final Flow.Subscription newSubscription) {
+                    subscription = newSubscription;
+                    delegate.onSubscribe(newSubscription);
+                    if (cancelled) {
+                        newSubscription.cancel();
+                    }
+                }
+
+                @Override
+                public void onNext(final List<ByteBuffer> item) {
+                    delegate.onNext(item);
+                }
+
+                @Override
+                public void onError(final Throwable throwable) {
+                    delegate.onError(throwable);
+                }
+
+                @Override
+                public void onComplete() {
+                    delegate.onComplete();
+                }
+            };
+        }
+
+        protected void cancel() {
+            cancelled = true;
+            final Flow.Subscription current = subscription;
+            if (current != null) {
+                current.cancel();
+            }
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2012-2022 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.webapp.vectorizer;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Objects;
+
+import org.opensearch.common.Strings;
+import org.opensearch.common.xcontent.ToXContentObject;
+import org.opensearch.common.xcontent.XContentBuilder;
+import org.opensearch.index.query.QueryBuilder;
+import org.opensearch.index.query.QueryBuilders;
+
+/**
+ * Builds a k-NN plugin "knn" query. The query is sent in a wrapper query, which is parsed on the data nodes by the plugin,
+ * so that this client needs no knn parser or transport reader.
+ */
+public class KnnQueryBuilder implements ToXContentObject {
+
+    public static final String NAME = "knn";
+
+    private final String fieldName;
+
+    private final float[] vector;
+
+    private final int k;
+
+    private QueryBuilder filter;
+
+    public KnnQueryBuilder(final String fieldName, final float[] vector, final int k) {
+        this.fieldName = fieldName;
+        this.vector = vector;
+        this.k = k;
+    }
+
+    public KnnQueryBuilder filter(final QueryBuilder filter) {
+        this.filter = filter;
+        return this;
+    }
+
+    public String fieldName() {
+        return fieldName;
+    }
+
+    public float[] vector() {
+        return vector;
+    }
+
+    public int k() {
+        return k;
+    }
+
+    public QueryBuilder filter() {
+        return filter;
+    }
+
+    /**
+     * Returns the wrapper query of the knn query.
+     */
+    public QueryBuilder toQueryBuilder() {
+        return QueryBuilders.wrapperQuery(Strings.toString(this));
+    }
+
+    @Override
+    public XContentBuilder toXContent(final XContentBuilder builder, final Params params) throws IOException {
+        builder.startObject();
+        builder.startObject(NAME);
+        builder.startObject(fieldName);
+        builder.startArray("vector");
+        for (final float value : vector) {
+            builder.value(value);
+        }
+        builder.endArray();
+        builder.field("k", k);
+        if (filter != null) {
+            builder.field("filter", filter);
+        }
+        builder.endObject();
+        builder.endObject();
+        builder.endObject();
+        return builder;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null || getClass() != obj.getClass()) {
+            return false;
+        }
+        final KnnQueryBuilder other = (KnnQueryBuilder) obj;
+        return Objects.equals(fieldName, other.fieldName) && Arrays.equals(vector, other.vector) && k == other.k
+                && Objects.equals(filter, other.filter);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(fieldName, Arrays.hashCode(vector), k, filter);
+    }
+
+    @Override
+    public String toString() {
+        return Strings.toString(this);
+    }
+}
@@ -0,0 +1,270 @@
+/*
+ * Copyright 2012-2022 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.webapp.vectorizer;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.codelibs.core.lang.StringUtil;
+import org.codelibs.fess.util.DocumentUtil;
+import org.codelibs.fess.webapp.vectorizer.VectorizerCodec.VectorFormat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ai.onnxruntime.NodeInfo;
+import ai.onnxruntime.OnnxTensor;
+import ai.onnxruntime.OrtEnvironment;
+import ai.onnxruntime.OrtException;
+import ai.onnxruntime.OrtSession;
+import ai.onnxruntime.TensorInfo;
+
+/**
+ * Vectorizes inputs in this JVM by a sentence embedding model of ONNX Runtime.
+ * The model directory contains model.onnx and the WordPiece vocab.txt.
+ */
+public class OnnxVectorizer extends AbstractVectorizer {
+    private static final Logger logger = LoggerFactory.getLogger(OnnxVectorizer.class);
+
+    protected Path modelPath;
+
+    protected Set<String> languages;
+
+    protected int intraOpThreads;
+
+    protected int maxSequenceLength;
+
+    protected boolean doLowerCase;
+
+    protected boolean normalize;
+
+    protected OrtEnvironment environment;
+
+    protected volatile OrtSession session;
+
+    protected WordPieceTokenizer tokenizer;
+
+    // runs of the session hold the read lock, so that close() waits for them
+    protected final ReadWriteLock sessionLock = new ReentrantReadWriteLock();
+
+    @Override
+    protected void initialize() {
+        emptyValue = new float[dimension];
+        try {
+            executor.execute(this::load);
+        } catch (final RejectedExecutionException e) {
+            logger.warn("Failed to start loading {}", modelPath, e);
+        }
+    }
+
+    protected void load() {
+        try {
+            tokenizer = WordPieceTokenizer.load(modelPath.resolve("vocab.txt"), doLowerCase);
+            environment = OrtEnvironment.getEnvironment();
+            try (OrtSession.SessionOptions options = new OrtSession.SessionOptions()) {
+                options.setIntraOpNumThreads(intraOpThreads);
+                options.setInterOpNumThreads(1);
+                session = environment.createSession(modelPath.resolve("model.onnx").toString(), options);
+            }
+            final int outputDimension = getOutputDimension(session);
+            logger.info("Loaded {}: dimension={}", modelPath, outputDimension);
+            setMetadata(new Metadata(languages, VectorFormat.JSON, outputDimension));
+        } catch (final Exception e) {
+            logger.warn("Failed to load {}", modelPath, e);
+        }
+    }
+
+    @Override
+    protected List<Map<String, float[]>> execute(final List<Map<String, Object>> inputs, final List<String> langs) {
+        if (!isActive()) {
+            return Collections.emptyList();
+        }
+        final List<String> texts = new ArrayList<>();
+        for (final Map<String, Object> input : inputs) {
+            for (final String field : fields) {
+                final String text = DocumentUtil.getValue(input, field, String.class);
+                if (StringUtil.isNotBlank(text)) {
+                    texts.add(text);
+                }
+            }
+        }
+        final float[][] embeddings;
+        try {
+            embeddings = embed(texts);
+        } catch (final OrtException e) {
+            logger.warn("Failed to run {}", modelPath, e);
+            return Collections.emptyList();
+        }
+        final List<Map<String, float[]>> outputs = new ArrayList<>(inputs.size());
+        int pos = 0;
+        for (final Map<String, Object> input : inputs) {
+            final Map<String, float[]> output = new HashMap<>(fields.length);
+            for (final String field : fields) {
+                final String text = DocumentUtil.getValue(input, field, String.class);
+                if (StringUtil.isNotBlank(text)) {
+                    output.put(field, embeddings[pos++]);
+                }
+            }
+            outputs.add(output);
+        }
+        return outputs;
+    }
+
+    /**
+     * Returns the size of the last axis of the first output, or the configured dimension if it is dynamic.
+     */
+    protected int getOutputDimension(final OrtSession currentSession) throws OrtException {
+        final NodeInfo nodeInfo = currentSession.getOutputInfo().values().stream().findFirst().orElse(null);
+        if (nodeInfo != null && nodeInfo.getInfo() instanceof final TensorInfo tensorInfo) {
+            return getDimension(tensorInfo.getShape(), dimension);
+        }
+        return dimension;
+    }
+
+    protected static int getDimension(final long[] shape, final int defaultValue) {
+        if (shape.length < 2 || shape[shape.length - 1] <= 0) {
+            return defaultValue;
+        }
+        return (int) shape[shape.length - 1];
+    }
+
+    protected float[][] embed(final List<String> texts) throws OrtException {
+        sessionLock.readLock().lock();
+        try {
+            final OrtSession currentSession = session;
+            if (currentSession == null) {
+                throw new OrtException("Not loaded: " + modelPath);
+            }
+            if (texts.isEmpty()) {
+                return new float[0][];
+            }
+            return run(currentSession, texts);
+        } finally {
+            sessionLock.readLock().unlock();
+        }
+    }
+
+    protected float[][] run(final OrtSession currentSession, final List<String> texts) throws OrtException {
+        final int[][] tokenIds = new int[texts.size()][];
+        int length = 0;
+        for (int i = 0; i < tokenIds.length; i++) {
+            tokenIds[i] = tokenizer.encode(texts.get(i), maxSequenceLength);
+            length = Math.max(length, tokenIds[i].length);
+        }
+        final long[][] inputIds = new long[tokenIds.length][length];
+        final long[][] attentionMask = new long[tokenIds.length][length];
+        final long[][] tokenTypeIds = new long[tokenIds.length][length];
+        for (int i = 0; i < tokenIds.length; i++) {
+            for (int j = 0; j < length; j++) {
+                if (j < tokenIds[i].length) {
+                    inputIds[i][j] = tokenIds[i][j];
+                    attentionMask[i][j] = 1;
+                } else {
+                    inputIds[i][j] = tokenizer.getPadId();
+                }
+            }
+        }
+
+        final Map<String, OnnxTensor> tensors = new HashMap<>();
+        try {
+            final Set<String> inputNames = currentSession.getInputNames();
+            tensors.put("input_ids", OnnxTensor.createTensor(environment, inputIds));
+            tensors.put("attention_mask", OnnxTensor.createTensor(environment, attentionMask));
+            if (inputNames.contains("token_type_ids")) {
+                tensors.put("token_type_ids", OnnxTensor.createTensor(environment, tokenTypeIds));
+            }
+            try (OrtSession.Result result = currentSession.run(tensors)) {
+                final Object value = result.get(0).getValue();
+                final float[][] embeddings;
+                if (value instanceof final float[][][] hiddenStates) {
+                    embeddings = meanPooling(hiddenStates, attentionMask);
+                } else if (value instanceof final float[][] pooled) {
+                    embeddings = pooled;
+                } else {
+                    throw new OrtException("Unexpected output: " + value.getClass().getName());
+                }
+                if (normalize) {
+                    for (final float[] embedding : embeddings) {
+                        VectorReducer.normalize(embedding);
+                    }
+                }
+                return embeddings;
+            }
+        } finally {
+            for (final OnnxTensor tensor : tensors.values()) {
+                tensor.close();
+            }
+        }
+    }
+
+    protected static float[][] meanPooling(final float[][][] hiddenStates, final long[][] attentionMask) {
+        final float[][] embeddings = new float[hiddenStates.length][];
+        for (int i = 0; i < hiddenStates.length; i++) {
+            final float[] embedding = new float[hiddenStates[i][0].length];
+            int count = 0;
+            for (int j = 0; j < hiddenStates[i].length; j++) {
+                if (attentionMask[i][j] == 0) {
+                    continue;
+                }
+                final float[] hiddenState = hiddenStates[i][j];
+                for (int k = 0; k < embedding.length; k++) {
+                    embedding[k] += hiddenState[k];
+                }
+                count++;
+            }
+            if (count > 0) {
+                for (int k = 0; k < embedding.length; k++) {
+                    embedding[k] /= count;
+                }
+            }
+            embeddings[i] = embedding;
+        }
+        return embeddings;
+    }
+
+    @Override
+    protected boolean isNormalized() {
+        return normalize || super.isNormalized();
+    }
+
+    @Override
+    public boolean isActive() {
+        return session != null;
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        sessionLock.writeLock().lock();
+        try {
+            if (session != null) {
+                session.close();
+                session = null;
+            }
+        } catch (final OrtException e) {
+            logger.warn("Failed to close {}", modelPath, e);
+        } finally {
+            sessionLock.writeLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,283 @@
+/*
+ * Copyright 2012-2022 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.webapp.vectorizer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import org.codelibs.core.lang.StringUtil;
+
+/**
+ * Splits a long text into overlapping passages, and pools the passage vectors into one vector.
+ * A passage is bounded by characters, or by tokens of the basic tokenization of {@link WordPieceTokenizer}:
+ * a word, a CJK character or a punctuation. A model may split a token into several subwords.
+ */
+public class PassageChunker {
+
+    public enum Unit {
+        CHARS, TOKENS;
+
+        public static Unit of(final String value) {
+            return valueOf(value.trim().toUpperCase(Locale.ROOT));
+        }
+    }
+
+    public enum Pooling {
+        MEAN, MAX;
+
+        public static Pooling of(final String value) {
+            return valueOf(value.trim().toUpperCase(Locale.ROOT));
+        }
+    }
+
+    protected final Unit unit;
+
+    protected final int size;
+
+    protected final int overlap;
+
+    protected final int maxChunks;
+
+    protected final Pooling pooling;
+
+    public PassageChunker(final Unit unit, final int size, final int overlap, final int maxChunks, final Pooling pooling) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("Chunk size must be positive: " + size);
+        }
+        if (overlap < 0 || overlap >= size) {
+            throw new IllegalArgumentException("Chunk overlap must be 0 or more and less than the size: " + overlap);
+        }
+        if (maxChunks <= 0) {
+            throw new IllegalArgumentException("Max chunks must be positive: " + maxChunks);
+        }
+        this.unit = unit;
+        this.size = size;
+        this.overlap = overlap;
+        this.maxChunks = maxChunks;
+        this.pooling = pooling;
+    }
+
+    /**
+     * Returns at most maxChunks passages of the text. The rest of the text is dropped.
+     */
+    public List<Passage> split(final String text) {
+        if (StringUtil.isBlank(text)) {
+            return Collections.emptyList();
+        }
+        return unit == Unit.TOKENS ? splitByTokens(text) : splitByChars(text);
+    }
+
+    protected List<Passage> splitByChars(final String text) {
+        final List<Passage> passages = new ArrayList<>();
+        final int length = text.length();
+        int start = 0;
+        while (start < length && passages.size() < maxChunks) {
+            int end = Math.min(start + size, length);
+            if (end < length) {
+                // end at a whitespace in the second half, so that a word is not split
+                for (int i = end; i > start + size / 2; i--) {
+                    if (Character.isWhitespace(text.charAt(i))) {
+                        end = i;
+                        break;
+                    }
+                }
+                if (end - 1 > start && Character.isHighSurrogate(text.charAt(end - 1))) {
+                    end--;
+                }
+            }
+            addPassage(passages, text, start, end);
+            if (end >= length) {
+                break;
+            }
+            int next = Math.max(end - overlap, start + 1);
+            // start the overlap at a word
+            for (int i = next; i < end; i++) {
+                if (Character.isWhitespace(text.charAt(i - 1)) && !Character.isWhitespace(text.charAt(i))) {
+                    next = i;
+                    break;
+                }
+            }
+            if (Character.isLowSurrogate(text.charAt(next))) {
+                next++;
+            }
+            start = next;
+        }
+        return passages;
+    }
+
+    protected List<Passage> splitByTokens(final String text) {
+        // tokens after the last passage are not needed
+        final int[] offsets = tokenize(text, (int) Math.min((long) maxChunks * size, Integer.MAX_VALUE / 2));
+        final int count = offsets.length / 2;
+        final List<Passage> passages = new ArrayList<>();
+        int start = 0;
+        while (start < count && passages.size() < maxChunks) {
+            final int end = Math.min(start + size, count);
+            addPassage(passages, text, offsets[start * 2], offsets[end * 2 - 1]);
+            if (end >= count) {
+                break;
+            }
+            start = Math.max(end - overlap, start + 1);
+        }
+        return passages;
+    }
+
+    /**
+     * Returns the start and end offsets of the first maxTokens tokens, at 2i and 2i+1 for the i-th token.
+     */
+    protected static int[] tokenize(final String text, final int maxTokens) {
+        int[] offsets = new int[Math.min(maxTokens, 64) * 2];
+        int count = 0;
+        int start = -1;
+        for (int i = 0; i < text.length() && count < maxTokens;) {
+            final int c = text.codePointAt(i);
+            final int next = i + Character.charCount(c);
+            final boolean single = WordPieceTokenizer.isCjk(c) || WordPieceTokenizer.isPunctuation(c);
+            if (single || Character.isWhitespace(c)) {
+                if (start >= 0) {
+                    offsets = addToken(offsets, count++, start, i);
+                    start = -1;
+                }
+                if (single && count < maxTokens) {
+                    offsets = addToken(offsets, count++, i, next);
+                }
+            } else if (start < 0) {
+                start = i;
+            }
+            i = next;
+        }
+        if (start >= 0 && count < maxTokens) {
+            offsets = addToken(offsets, count++, start, text.length());
+        }
+        return offsets.length == count * 2 ? offsets : Arrays.copyOf(offsets, count * 2);
+    }
+
+    private static int[] addToken(final int[] offsets, final int index, final int start, final int end) {
+        final int[] values = index * 2 < offsets.length ? offsets : Arrays.copyOf(offsets, Math.max(offsets.length * 2, 2));
+        values[index * 2] = start;
+        values[index * 2 + 1] = end;
+        return values;
+    }
+
+    private static void addPassage(final List<Passage> passages, final String text, final int start, final int end) {
+        int s = start;
+        int e = end;
+        while (s < e && Character.isWhitespace(text.charAt(s))) {
+            s++;
+        }
+        while (e > s && Character.isWhitespace(text.charAt(e - 1))) {
+            e--;
+        }
+        if (s < e) {
+            passages.add(new Passage(text.substring(s, e), s, e, null));
+        }
+    }
+
+    /**
+     * Pools the passage vectors into one vector. The result is not normalized.
+     */
+    public float[] pool(final List<float[]> vectors) {
+        if (vectors.size() == 1) {
+            return vectors.get(0);
+        }
+        final int dimension = vectors.get(0).length;
+        final float[] pooled = Arrays.copyOf(vectors.get(0), dimension);
+        for (int i = 1; i < vectors.size(); i++) {
+            final float[] vector = vectors.get(i);
+            if (vector.length != dimension) {
+                throw new IllegalArgumentException("Dimensions of passages do not match: " + vector.length + " != " + dimension);
+            }
+            for (int j = 0; j < dimension; j++) {
+                pooled[j] = pooling == Pooling.MAX ? Math.max(pooled[j], vector[j]) : pooled[j] + vector[j];
+            }
+        }
+        if (pooling == Pooling.MEAN) {
+            for (int j = 0; j < dimension; j++) {
+                pooled[j] /= vectors.size();
+            }
+        }
+        return pooled;
+    }
+
+    public Unit getUnit() {
+        return unit;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public int getOverlap() {
+        return overlap;
+    }
+
+    public int getMaxChunks() {
+        return maxChunks;
+    }
+
+    public Pooling getPooling() {
+        return pooling;
+    }
+
+    /**
+     * A passage of a text at [start, end), and its vector if vectorized.
+     */
+    public static class Passage {
+
+        protected final String text;
+
+        protected final int start;
+
+        protected final int end;
+
+        protected final float[] vector;
+
+        public Passage(final String text, final int start, final int end, final float[] vector) {
+            this.text = text;
+            this.start = start;
+            this.end = end;
+            this.vector = vector;
+        }
+
+        public Passage withVector(final float[] newVector) {
+            return new Passage(text, start, end, newVector);
+        }
+
+        public String getText() {
+            return text;
+        }
+
+        public int getStart() {
+            return start;
+        }
+
+        public int getEnd() {
+            return end;
+        }
+
+        public float[] getVector() {
+            return vector;
+        }
+
+        @Override
+        public String toString() {
+            return "Passage [start=" + start + ", end=" + end + ", text=" + text + "]";
+        }
+    }
+}
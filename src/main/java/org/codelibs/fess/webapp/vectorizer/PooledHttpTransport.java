@@ -0,0 +1,174 @@
+/*
+ * Copyright 2012-2022 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.webapp.vectorizer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHost;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Transport backed by a pooled keep-alive HTTP client.
+ */
+public class PooledHttpTransport implements VectorizerTransport {
+
+    private static final Logger logger = LogManager.getLogger(PooledHttpTransport.class);
+
+    protected final PoolingHttpClientConnectionManager connectionManager;
+
+    protected final CloseableHttpClient httpClient;
+
+    protected final LongAdder requestCount = new LongAdder();
+
+    protected final LongAdder connectionCount = new LongAdder();
+
+    public PooledHttpTransport(final int maxConnections, final int maxConnectionsPerRoute, final long idleTimeout,
+            final int connectTimeout, final int readTimeout) {
+        connectionManager = new PoolingHttpClientConnectionManager(RegistryBuilder.<ConnectionSocketFactory> create()//
+                .register("http", new CountingSocketFactory(PlainConnectionSocketFactory.getSocketFactory()))//
+                .register("https", new CountingSocketFactory(SSLConnectionSocketFactory.getSocketFactory()))//
+                .build());
+        connectionManager.setMaxTotal(maxConnections);
+        connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+        final RequestConfig requestConfig = RequestConfig.custom()//
+                .setConnectTimeout(connectTimeout)//
+                .setConnectionRequestTimeout(connectTimeout)//
+                .setSocketTimeout(readTimeout)//
+                .build();
+        httpClient = HttpClients.custom()//
+                .setConnectionManager(connectionManager)//
+                .setDefaultRequestConfig(requestConfig)//
+                .evictExpiredConnections()//
+                .evictIdleConnections(idleTimeout, TimeUnit.MILLISECONDS)//
+                .build();
+    }
+
+    @Override
+    public Response get(final String url) throws IOException {
+        return execute(new HttpGet(url));
+    }
+
+    @Override
+    public Response post(final String url, final byte[] body, final int length) throws IOException {
+        final HttpPost request = new HttpPost(url);
+        request.setEntity(new ByteArrayEntity(body, 0, length, ContentType.APPLICATION_JSON));
+        return execute(request);
+    }
+
+    protected Response execute(final HttpUriRequest request) throws IOException {
+        requestCount.increment();
+        request.setHeader("Content-Type", "application/json");
+        final CloseableHttpResponse response = httpClient.execute(request);
+        return new Response() {
+            @Override
+            public int getStatusCode() {
+                return response.getStatusLine().getStatusCode();
+            }
+
+            @Override
+            public InputStream getContentAsStream() throws IOException {
+                final HttpEntity entity = response.getEntity();
+                if (entity == null) {
+                    return InputStream.nullInputStream();
+                }
+                return entity.getContent();
+            }
+
+            @Override
+            public String getContentAsString() throws IOException {
+                final HttpEntity entity = response.getEntity();
+                if (entity == null) {
+                    return null;
+                }
+                return EntityUtils.toString(entity, StandardCharsets.UTF_8);
+            }
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    // consume the rest of the content to reuse the connection
+                    EntityUtils.consume(response.getEntity());
+                } finally {
+                    response.close();
+                }
+            }
+        };
+    }
+
+    @Override
+    public Stats getStats() {
+        return new Stats(requestCount.sum(), connectionCount.sum());
+    }
+
+    public PoolStats getPoolStats() {
+        return connectionManager.getTotalStats();
+    }
+
+    @Override
+    public void close() {
+        try {
+            httpClient.close();
+        } catch (final IOException e) {
+            logger.warn("Failed to close the http client.", e);
+        }
+    }
+
+    protected class CountingSocketFactory implements ConnectionSocketFactory {
+
+        private final ConnectionSocketFactory socketFactory;
+
+        protected CountingSocketFactory(final ConnectionSocketFactory socketFactory) {
+            this.socketFactory = socketFactory;
+        }
+
+        @Override
+        public Socket createSocket(final HttpContext context) throws IOException {
+            return socketFactory.createSocket(context);
+        }
+
+        @Override
+        public Socket connectSocket(final int connectTimeout, final Socket sock, final HttpHost host, final InetSocketAddress remoteAddress,
+                final InetSocketAddress localAddress, final HttpContext context) throws IOException {
+            connectionCount.increment();
+            return socketFactory.connectSocket(connectTimeout, sock, host, remoteAddress, localAddress, context);
+        }
+    }
+}
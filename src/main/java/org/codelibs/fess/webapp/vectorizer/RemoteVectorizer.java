@@ -0,0 +1,286 @@
+/*
+ * Copyright 2012-2022 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.webapp.vectorizer;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.codelibs.fess.webapp.vectorizer.VectorizerCodec.BytesOutputStream;
+import org.codelibs.fess.webapp.vectorizer.VectorizerCodec.VectorFormat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Vectorizes inputs on text-vectorizer servers.
+ */
+public class RemoteVectorizer extends AbstractVectorizer {
+    private static final Logger logger = LoggerFactory.getLogger(RemoteVectorizer.class);
+
+    protected static final long INITIAL_BACKOFF = 1000L;
+
+    protected EndpointPool endpointPool;
+
+    protected VectorizerTransport transport;
+
+    protected VectorizerCodec codec;
+
+    protected VectorFormat vectorFormat;
+
+    protected ScheduledExecutorService scheduler;
+
+    protected long refreshInterval;
+
+    protected long maxBackoff;
+
+    protected long backoff;
+
+    protected long healthCheckInterval;
+
+    @Override
+    protected void initialize() {
+        emptyValue = new float[dimension];
+        try {
+            scheduler.execute(this::refresh);
+        } catch (final RejectedExecutionException e) {
+            logger.warn("Failed to start loading metadata.", e);
+        }
+        endpointPool.startHealthCheck(scheduler, this::isActive, healthCheckInterval);
+    }
+
+    protected void refresh() {
+        final long delay;
+        if (loadMetadata()) {
+            backoff = INITIAL_BACKOFF;
+            delay = refreshInterval;
+        } else {
+            delay = backoff;
+            backoff = Math.min(backoff * 2, maxBackoff);
+        }
+        if (delay > 0 && !scheduler.isShutdown()) {
+            try {
+                scheduler.schedule(this::refresh, delay, TimeUnit.MILLISECONDS);
+            } catch (final RejectedExecutionException e) {
+                // closed
+            }
+        }
+    }
+
+    protected boolean loadMetadata() {
+        for (final EndpointPool.Endpoint endpoint : endpointPool.getEndpoints()) {
+            final Metadata newMetadata = loadMetadata(endpoint.getUrl());
+            if (newMetadata != null) {
+                codec.setVectorFormat(newMetadata.vectorFormat);
+                setMetadata(newMetadata);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    protected Metadata loadMetadata(final String url) {
+        try (VectorizerTransport.Response response = transport.get(url)) {
+            if (response.getStatusCode() == 200) {
+                final Map<String, Object> contentMap;
+                try (InputStream in = response.getContentAsStream()) {
+                    contentMap = codec.readMap(in);
+                }
+                @SuppressWarnings("unchecked")
+                final List<String> values = (List<String>) contentMap.get("languages");
+                @SuppressWarnings("unchecked")
+                final List<String> formats = (List<String>) contentMap.get("vector_formats");
+                final Object value = contentMap.get("dimension");
+                return new Metadata(values != null ? Set.copyOf(values) : Collections.emptySet(), negotiateVectorFormat(formats),
+                        value instanceof final Number number ? number.intValue() : dimension);
+            }
+            logger.warn("Failed to access to {} : {}", url, response.getContentAsString());
+        } catch (final IOException e) {
+            logger.warn("Failed to access to {}", url, e);
+        }
+        return null;
+    }
+
+    protected VectorFormat negotiateVectorFormat(final List<String> formats) {
+        if (vectorFormat == VectorFormat.JSON || formats == null || !formats.contains(vectorFormat.getName())) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("Vector format: {}, supported formats: {}", VectorFormat.JSON.getName(), formats);
+            }
+            return VectorFormat.JSON;
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("Vector format: {}", vectorFormat.getName());
+        }
+        return vectorFormat;
+    }
+
+    @Override
+    protected long estimateSize(final Map<String, Object> input) {
+        return codec.estimateSize(input);
+    }
+
+    @Override
+    protected List<Map<String, float[]>> execute(final List<Map<String, Object>> inputs, final List<String> langs) {
+        final EndpointPool.Endpoint endpoint = endpointPool.select();
+        final String url = endpoint.acquire();
+        final long startTime = System.nanoTime();
+        boolean succeeded = false;
+        try {
+            final VectorFormat format = codec.getVectorFormat();
+            final BytesOutputStream body = codec.writeRequest(inputs, langs, format);
+            if (logger.isDebugEnabled()) {
+                logger.debug(">>> {}", body);
+            }
+
+            try (VectorizerTransport.Response response = transport.post(url + "/vectorize", body.getBuffer(), body.size())) {
+                if (response.getStatusCode() == 200) {
+                    final List<Map<String, float[]>> outputs;
+                    if (logger.isDebugEnabled()) {
+                        final String content = response.getContentAsString();
+                        logger.debug("<<< {}", content);
+                        final byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+                        outputs = codec.readResponse(new ByteArrayInputStream(bytes), format);
+                        recordBytes(body.size(), bytes.length);
+                    } else {
+                        try (CountingInputStream in = new CountingInputStream(response.getContentAsStream())) {
+                            outputs = codec.readResponse(in, format);
+                            recordBytes(body.size(), in.getCount());
+                        }
+                    }
+                    succeeded = true;
+                    if (!outputs.isEmpty()) {
+                        return outputs;
+                    }
+                    logger.warn("No vectorizing data.");
+                } else {
+                    logger.warn("Failed to vectorize on {}: {}", url, response.getContentAsString());
+                }
+            }
+        } catch (final IOException e) {
+            logger.warn("Failed to access to {}", url, e);
+        } finally {
+            if (succeeded) {
+                endpointPool.onSuccess(endpoint, System.nanoTime() - startTime);
+            } else {
+                endpointPool.onFailure(endpoint);
+            }
+        }
+
+        return Collections.emptyList();
+    }
+
+    protected void recordBytes(final long requestBytes, final long responseBytes) {
+        if (metrics != null) {
+            metrics.recordBytes(requestBytes, responseBytes);
+        }
+    }
+
+    @Override
+    public boolean isActive() {
+        for (final EndpointPool.Endpoint endpoint : endpointPool.getEndpoints()) {
+            if (isActive(endpoint.getUrl())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    protected boolean isActive(final String url) {
+        try (VectorizerTransport.Response response = transport.get(url + "/ping")) {
+            if (response.getStatusCode() != 200) {
+                return false;
+            }
+            final Map<String, Object> contentMap;
+            try (InputStream in = response.getContentAsStream()) {
+                contentMap = codec.readMap(in);
+            }
+            final Object status = contentMap.get("status");
+            if (!"ok".equals(status)) {
+                return false;
+            }
+        } catch (final IOException e) {
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        if (endpointPool != null) {
+            endpointPool.close();
+        }
+        super.close();
+        if (transport != null) {
+            transport.close();
+        }
+    }
+
+    public VectorizerTransport getTransport() {
+        return transport;
+    }
+
+    public EndpointPool getEndpointPool() {
+        return endpointPool;
+    }
+
+    protected static class CountingInputStream extends FilterInputStream {
+        private long count;
+
+        protected CountingInputStream(final InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int b = super.read();
+            if (b != -1) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            final int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(final long n) throws IOException {
+            final long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+
+        public long getCount() {
+            return count;
+        }
+    }
+}
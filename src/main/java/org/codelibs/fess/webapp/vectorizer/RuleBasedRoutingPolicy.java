@@ -0,0 +1,110 @@
+/*
+ * Copyright 2012-2022 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.webapp.vectorizer;
+
+import java.util.regex.Pattern;
+
+import org.codelibs.core.lang.StringUtil;
+
+/**
+ * Routes a query to lexical search if it has fewer words than minWords, if less than minLetterRatio of its characters are
+ * letters, if it matches the deny pattern, or if the load of the vectorizer is maxLoad or more.
+ * A word is a run of non-whitespace characters with a letter, and each CJK character is counted as a word.
+ */
+public class RuleBasedRoutingPolicy implements SemanticRoutingPolicy {
+
+    /** URLs and mail addresses */
+    public static final String DEFAULT_DENY_PATTERN = "(?i)[a-z][a-z0-9+.-]*://\\S*|[^\\s@]+@[^\\s@]+\\.[^\\s@]+";
+
+    protected int minWords = 2;
+
+    protected double minLetterRatio = 0.5;
+
+    protected Pattern denyPattern = Pattern.compile(DEFAULT_DENY_PATTERN);
+
+    protected double maxLoad = 1.0;
+
+    @Override
+    public Route route(final String text, final Vectorizer vectorizer) {
+        if (StringUtil.isBlank(text)) {
+            return Route.SHORT_QUERY;
+        }
+        final String value = text.trim();
+        if (denyPattern != null && denyPattern.matcher(value).matches()) {
+            return Route.DENIED;
+        }
+        int words = 0;
+        int letters = 0;
+        int chars = 0;
+        boolean inWord = false;
+        boolean hasLetter = false;
+        for (int i = 0; i < value.length();) {
+            final int c = value.codePointAt(i);
+            i += Character.charCount(c);
+            final boolean letter = Character.isLetter(c);
+            if (letter) {
+                letters++;
+            }
+            if (Character.isWhitespace(c)) {
+                inWord = false;
+                continue;
+            }
+            chars++;
+            if (WordPieceTokenizer.isCjk(c)) {
+                if (letter) {
+                    words++;
+                }
+                inWord = false;
+                continue;
+            }
+            if (!inWord) {
+                inWord = true;
+                hasLetter = false;
+            }
+            if (letter && !hasLetter) {
+                // a word is counted at its first letter
+                hasLetter = true;
+                words++;
+            }
+        }
+        if (letters < chars * minLetterRatio) {
+            return Route.NON_TEXT;
+        }
+        if (words < minWords) {
+            return Route.SHORT_QUERY;
+        }
+        if (vectorizer.getLoad() >= maxLoad) {
+            return Route.OVERLOAD;
+        }
+        return Route.SEMANTIC;
+    }
+
+    public void setMinWords(final int minWords) {
+        this.minWords = minWords;
+    }
+
+    public void setMinLetterRatio(final double minLetterRatio) {
+        this.minLetterRatio = minLetterRatio;
+    }
+
+    public void setDenyPattern(final String denyPattern) {
+        this.denyPattern = StringUtil.isNotBlank(denyPattern) ? Pattern.compile(denyPattern) : null;
+    }
+
+    public void setMaxLoad(final double maxLoad) {
+        this.maxLoad = maxLoad;
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2012-2022 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.webapp.vectorizer;
+
+/**
+ * Decides whether a semantic query is vectorized or searched lexically.
+ */
+public interface SemanticRoutingPolicy {
+
+    enum Route {
+        /** the query is vectorized */
+        SEMANTIC,
+        /** the query has too few words */
+        SHORT_QUERY,
+        /** the query is mostly digits and symbols, such as a number or a product code */
+        NON_TEXT,
+        /** the query matches the deny pattern, such as a URL */
+        DENIED,
+        /** the vectorizer is overloaded */
+        OVERLOAD;
+
+        public boolean isSemantic() {
+            return this == SEMANTIC;
+        }
+    }
+
+    Route route(String text, Vectorizer vectorizer);
+}
@@ -0,0 +1,414 @@
+/*
+ * Copyright 2012-2022 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.webapp.vectorizer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.codelibs.core.lang.StringUtil;
+import org.codelibs.core.stream.StreamUtil;
+import org.codelibs.fess.Constants;
+import org.codelibs.fess.es.client.SearchEngineClient;
+import org.codelibs.fess.mylasta.direction.FessConfig;
+import org.codelibs.fess.util.ComponentUtil;
+import org.codelibs.fess.util.DocumentUtil;
+import org.opensearch.action.bulk.BulkItemResponse;
+import org.opensearch.action.bulk.BulkRequestBuilder;
+import org.opensearch.action.bulk.BulkResponse;
+import org.opensearch.action.search.SearchRequestBuilder;
+import org.opensearch.action.search.SearchResponse;
+import org.opensearch.index.query.BoolQueryBuilder;
+import org.opensearch.index.query.QueryBuilder;
+import org.opensearch.index.query.QueryBuilders;
+import org.opensearch.search.SearchHit;
+import org.opensearch.search.sort.SortOrder;
+
+/**
+ * Re-vectorizes indexed documents whose vector fields are missing or made by another model version, and updates them
+ * partially. Documents of each language are read in the order of doc_id by search_after, and the last doc_id is saved to
+ * the checkpoint file after each batch, so the next run resumes from it. A language is started over after it completes.
+ * <p>
+ * Run it by a scheduled job with the groovy script:
+ * {@code return new org.codelibs.fess.webapp.vectorizer.VectorBackfillJob().execute();}
+ */
+public class VectorBackfillJob {
+
+    private static final Logger logger = LogManager.getLogger(VectorBackfillJob.class);
+
+    private static final String SYSTEM_PROPERTY_PREFIX = "semantic_search.vectorizer.";
+
+    private static final String LANG_FIELD = "lang";
+
+    private static final String DOC_ID_FIELD = "doc_id";
+
+    private static final String ID_FIELD = "_id";
+
+    private static final String CHECKPOINT_VERSION_KEY = "model_version";
+
+    protected Vectorizer vectorizer;
+
+    protected String[] languages;
+
+    protected String fieldSuffix = "_vector";
+
+    protected String modelField = "vector_model";
+
+    protected String modelVersion;
+
+    protected int batchSize = 32;
+
+    protected double rate = 50.0;
+
+    protected Path checkpointFile;
+
+    protected final Properties checkpoint = new Properties();
+
+    protected long processedCount;
+
+    protected long updatedCount;
+
+    protected long skippedCount;
+
+    protected long failedCount;
+
+    public String execute() {
+        // an injected vectorizer is closed by its owner
+        final boolean created = vectorizer == null;
+        if (created) {
+            loadSettings();
+            vectorizer = Vectorizer.create()//
+                    .properties(this::getSystemProperty)//
+                    // documents are batched by this job, and vectorized only once
+                    .batchSize(batchSize)//
+                    .batchWindow(0L)//
+                    .cacheSize(0)//
+                    .storePath(null)//
+                    .initTimeout(Long.parseLong(getSystemProperty("backfill.init_timeout", "60000")))//
+                    .build();
+        }
+        final long startTime = System.currentTimeMillis();
+        try {
+            if (!vectorizer.isActive()) {
+                return "Vectorizer is not available.";
+            }
+            loadCheckpoint();
+            final String[] langs = languages != null && languages.length > 0 ? languages : vectorizer.getLanguages();
+            for (final String lang : langs) {
+                if (!backfill(lang)) {
+                    break;
+                }
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.info("Backfill is interrupted.");
+        } catch (final Exception e) {
+            logger.warn("Failed to backfill vectors.", e);
+        } finally {
+            if (created) {
+                vectorizer.close();
+                vectorizer = null;
+            }
+        }
+        final String result = "Backfill: processed=" + processedCount + ", updated=" + updatedCount + ", skipped=" + skippedCount
+                + ", failed=" + failedCount + ", time=" + (System.currentTimeMillis() - startTime) + "ms";
+        logger.info(result);
+        return result;
+    }
+
+    protected void loadSettings() {
+        final String langs = getSystemProperty("backfill.languages", null);
+        if (StringUtil.isNotBlank(langs)) {
+            languages = StreamUtil.split(langs, ",")
+                    .get(stream -> stream.map(String::trim).filter(StringUtil::isNotBlank).toArray(n -> new String[n]));
+        }
+        modelField = getSystemProperty("model_field", modelField);
+        modelVersion = getSystemProperty("model_version", null);
+        batchSize = Integer.parseInt(getSystemProperty("backfill.batch_size", Integer.toString(batchSize)));
+        setRate(Double.parseDouble(getSystemProperty("backfill.rate", Double.toString(rate))));
+        final String file = getSystemProperty("backfill.checkpoint_file", null);
+        checkpointFile = StringUtil.isNotBlank(file) ? Paths.get(file) : getDefaultCheckpointFile();
+    }
+
+    /**
+     * Returns the checkpoint file in the var directory of Fess, which is kept across restarts unlike the temporary directory.
+     */
+    protected Path getDefaultCheckpointFile() {
+        String varPath = System.getProperty(Constants.FESS_VAR_PATH);
+        if (StringUtil.isBlank(varPath)) {
+            varPath = Paths.get(System.getProperty("fess.home", "."), "data").toString();
+        }
+        return Paths.get(varPath, "vectorizer", "backfill.properties");
+    }
+
+    protected String getSystemProperty(final String key, final String defaultValue) {
+        return ComponentUtil.getFessConfig().getSystemProperty(SYSTEM_PROPERTY_PREFIX + key, defaultValue);
+    }
+
+    /**
+     * Backfills the documents of the language, and returns false if the job should stop.
+     */
+    protected boolean backfill(final String lang) throws InterruptedException, IOException {
+        String searchAfter = checkpoint.getProperty(lang);
+        if (searchAfter != null) {
+            logger.info("Resuming backfill of {} after {}", lang, searchAfter);
+        }
+        final String[] fields = vectorizer.getFields();
+        while (true) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedException("Backfill is interrupted.");
+            }
+            final long startTime = System.nanoTime();
+            final List<Map<String, Object>> docs = search(lang, searchAfter, batchSize);
+            if (docs.isEmpty()) {
+                checkpoint.remove(lang);
+                saveCheckpoint();
+                return true;
+            }
+
+            final List<Map<String, Object>> inputs = new ArrayList<>(docs.size());
+            for (final Map<String, Object> doc : docs) {
+                final Map<String, Object> input = new HashMap<>();
+                input.put(LANG_FIELD, lang);
+                for (final String field : fields) {
+                    final String text = DocumentUtil.getValue(doc, field, String.class);
+                    if (StringUtil.isNotBlank(text)) {
+                        input.put(field, text);
+                    }
+                }
+                inputs.add(input);
+            }
+            final List<Map<String, float[]>> outputs = vectorizer.vectorizeBatch(inputs);
+            if (inputs.stream().anyMatch(input -> input.size() > 1) && outputs.stream().allMatch(Map::isEmpty)) {
+                // the vectorizer is down, so keep the checkpoint for the next run
+                logger.warn("Backfill of {} is stopped because no vector is returned.", lang);
+                return false;
+            }
+            final List<Map<String, Object>> updates = new ArrayList<>(docs.size());
+            final List<Map<String, Object>> markers = new ArrayList<>();
+            for (int i = 0; i < docs.size(); i++) {
+                final Map<String, float[]> output = outputs.get(i);
+                if (inputs.get(i).size() == 1) {
+                    // no text to vectorize, but the document is processed by this model version
+                    skippedCount++;
+                    if (StringUtil.isNotBlank(modelVersion)) {
+                        markers.add(Map.of(ID_FIELD, docs.get(i).get(ID_FIELD), modelField, modelVersion));
+                    }
+                } else if (output.isEmpty()) {
+                    failedCount++;
+                } else {
+                    final Map<String, Object> update = new HashMap<>();
+                    update.put(ID_FIELD, docs.get(i).get(ID_FIELD));
+                    output.forEach((field, vector) -> update.put(field + "_" + lang + fieldSuffix, vector));
+                    if (StringUtil.isNotBlank(modelVersion)) {
+                        update.put(modelField, modelVersion);
+                    }
+                    updates.add(update);
+                }
+            }
+            final int failures = update(updates);
+            processedCount += docs.size();
+            updatedCount += updates.size() - failures;
+            failedCount += failures + update(markers);
+
+            searchAfter = DocumentUtil.getValue(docs.get(docs.size() - 1), DOC_ID_FIELD, String.class);
+            checkpoint.setProperty(lang, searchAfter);
+            saveCheckpoint();
+            if (logger.isDebugEnabled()) {
+                logger.debug("Backfilled {}: processed={}, lastDocId={}", lang, processedCount, searchAfter);
+            }
+            throttle(startTime, docs.size());
+        }
+    }
+
+    protected void throttle(final long startTime, final int count) throws InterruptedException {
+        final long waitMillis = TimeUnit.NANOSECONDS.toMillis(startTime + (long) (count * 1_000_000_000L / rate) - System.nanoTime());
+        if (waitMillis > 0) {
+            Thread.sleep(waitMillis);
+        }
+    }
+
+    /**
+     * Returns the documents of the language with a missing or stale vector field after the doc_id, with their _id.
+     */
+    protected List<Map<String, Object>> search(final String lang, final String searchAfter, final int size) {
+        final FessConfig fessConfig = ComponentUtil.getFessConfig();
+        final String[] fields = vectorizer.getFields();
+        final String[] includes = new String[fields.length + 1];
+        includes[0] = DOC_ID_FIELD;
+        System.arraycopy(fields, 0, includes, 1, fields.length);
+
+        final SearchRequestBuilder builder = ComponentUtil.getSearchEngineClient()
+                .prepareSearch(fessConfig.getIndexDocumentSearchIndex())
+                .setQuery(QueryBuilders.boolQuery().filter(QueryBuilders.termQuery(LANG_FIELD, lang)).filter(createStaleQuery(lang)))
+                .setSize(size)
+                .addSort(DOC_ID_FIELD, SortOrder.ASC)
+                .setFetchSource(includes, null);
+        if (searchAfter != null) {
+            builder.searchAfter(new Object[] { searchAfter });
+        }
+        final SearchResponse response = builder.execute().actionGet(fessConfig.getIndexSearchTimeout());
+        final List<Map<String, Object>> docs = new ArrayList<>();
+        for (final SearchHit hit : response.getHits()) {
+            final Map<String, Object> doc = new HashMap<>(hit.getSourceAsMap());
+            doc.put(ID_FIELD, hit.getId());
+            docs.add(doc);
+        }
+        return docs;
+    }
+
+    /**
+     * Matches documents to be vectorized. With a model version, a processed document has it even if some of its fields have no
+     * text. Otherwise, a document has a field without its vector field. Either way, a processed document does not match again.
+     */
+    protected QueryBuilder createStaleQuery(final String lang) {
+        if (StringUtil.isNotBlank(modelVersion)) {
+            return QueryBuilders.boolQuery().mustNot(QueryBuilders.termQuery(modelField, modelVersion));
+        }
+        final BoolQueryBuilder staleQuery = QueryBuilders.boolQuery().minimumShouldMatch(1);
+        for (final String field : vectorizer.getFields()) {
+            staleQuery.should(QueryBuilders.boolQuery()
+                    .filter(QueryBuilders.existsQuery(field))
+                    .mustNot(QueryBuilders.existsQuery(field + "_" + lang + fieldSuffix)));
+        }
+        return staleQuery;
+    }
+
+    /**
+     * Updates the documents partially by a bulk request, and returns the number of failed documents.
+     */
+    protected int update(final List<Map<String, Object>> docs) {
+        if (docs.isEmpty()) {
+            return 0;
+        }
+        final FessConfig fessConfig = ComponentUtil.getFessConfig();
+        final SearchEngineClient client = ComponentUtil.getSearchEngineClient();
+        final BulkRequestBuilder builder = client.prepareBulk();
+        for (final Map<String, Object> doc : docs) {
+            final Map<String, Object> fields = new HashMap<>(doc);
+            final String id = (String) fields.remove(ID_FIELD);
+            builder.add(client.prepareUpdate(fessConfig.getIndexDocumentUpdateIndex(), id).setDoc(fields));
+        }
+        final BulkResponse response = builder.execute().actionGet(fessConfig.getIndexBulkTimeout());
+        if (!response.hasFailures()) {
+            return 0;
+        }
+        int failures = 0;
+        for (final BulkItemResponse item : response.getItems()) {
+            if (item.isFailed()) {
+                failures++;
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Failed to update {}: {}", item.getId(), item.getFailureMessage());
+                }
+            }
+        }
+        return failures;
+    }
+
+    protected void loadCheckpoint() throws IOException {
+        checkpoint.clear();
+        if (checkpointFile == null || !Files.exists(checkpointFile)) {
+            return;
+        }
+        try (InputStream in = Files.newInputStream(checkpointFile)) {
+            checkpoint.load(in);
+        }
+        // positions of another model version are not valid
+        if (!getCheckpointVersion().equals(checkpoint.getProperty(CHECKPOINT_VERSION_KEY))) {
+            logger.info("Model version is changed. Backfill starts over.");
+            checkpoint.clear();
+        }
+    }
+
+    protected void saveCheckpoint() throws IOException {
+        if (checkpointFile == null) {
+            return;
+        }
+        checkpoint.setProperty(CHECKPOINT_VERSION_KEY, getCheckpointVersion());
+        final Path parent = checkpointFile.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        final Path tempFile = checkpointFile.resolveSibling(checkpointFile.getFileName() + ".tmp");
+        try (OutputStream out = Files.newOutputStream(tempFile)) {
+            checkpoint.store(out, "Vector backfill checkpoint");
+        }
+        Files.move(tempFile, checkpointFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    protected String getCheckpointVersion() {
+        return modelVersion != null ? modelVersion : StringUtil.EMPTY;
+    }
+
+    public void setVectorizer(final Vectorizer vectorizer) {
+        this.vectorizer = vectorizer;
+    }
+
+    public void setLanguages(final String[] languages) {
+        this.languages = languages;
+    }
+
+    public void setFieldSuffix(final String fieldSuffix) {
+        this.fieldSuffix = fieldSuffix;
+    }
+
+    public void setModelVersion(final String modelVersion) {
+        this.modelVersion = modelVersion;
+    }
+
+    public void setBatchSize(final int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public void setRate(final double rate) {
+        if (rate <= 0) {
+            throw new IllegalArgumentException("rate must be positive: " + rate);
+        }
+        this.rate = rate;
+    }
+
+    public void setCheckpointFile(final Path checkpointFile) {
+        this.checkpointFile = checkpointFile;
+    }
+
+    public long getProcessedCount() {
+        return processedCount;
+    }
+
+    public long getUpdatedCount() {
+        return updatedCount;
+    }
+
+    public long getSkippedCount() {
+        return skippedCount;
+    }
+
+    public long getFailedCount() {
+        return failedCount;
+    }
+}
@@ -0,0 +1,262 @@
+/*
+ * Copyright 2012-2022 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.webapp.vectorizer;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Size and TTL bounded cache for vectorized results.
+ * Concurrent misses for the same key share one in-flight load.
+ * Cached arrays are shared between callers and must not be modified.
+ */
+public class VectorCache {
+
+    protected final int maxSize;
+
+    protected final long ttlNanos;
+
+    protected final Map<Key, Entry> entryMap;
+
+    protected final Map<Key, CompletableFuture<Map<String, float[]>>> inflightMap = new ConcurrentHashMap<>();
+
+    protected final LongAdder hitCount = new LongAdder();
+
+    protected final LongAdder missCount = new LongAdder();
+
+    protected final LongAdder loadCount = new LongAdder();
+
+    protected final LongAdder evictionCount = new LongAdder();
+
+    public VectorCache(final int maxSize, final long ttlMillis) {
+        this.maxSize = maxSize;
+        this.ttlNanos = ttlMillis > 0 ? TimeUnit.MILLISECONDS.toNanos(ttlMillis) : 0L;
+        this.entryMap = new LinkedHashMap<>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<Key, Entry> eldest) {
+                if (size() > VectorCache.this.maxSize) {
+                    evictionCount.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public Map<String, float[]> get(final Key key, final Supplier<Map<String, float[]>> loader) {
+        Map<String, float[]> value = getIfPresent(key);
+        if (value != null) {
+            hitCount.increment();
+            return value;
+        }
+        missCount.increment();
+
+        final CompletableFuture<Map<String, float[]>> future = new CompletableFuture<>();
+        final CompletableFuture<Map<String, float[]>> inflight = inflightMap.putIfAbsent(key, future);
+        if (inflight != null) {
+            try {
+                return inflight.join();
+            } catch (final CompletionException e) {
+                if (e.getCause() instanceof final RuntimeException cause) {
+                    throw cause;
+                }
+                throw e;
+            }
+        }
+
+        try {
+            value = getIfPresent(key);
+            if (value == null) {
+                loadCount.increment();
+                value = loader.get();
+                if (!value.isEmpty()) {
+                    put(key, value);
+                }
+            }
+            future.complete(value);
+            return value;
+        } catch (final RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inflightMap.remove(key, future);
+        }
+    }
+
+    public CompletableFuture<Map<String, float[]>> getAsync(final Key key,
+            final Supplier<CompletableFuture<Map<String, float[]>>> loader) {
+        final Map<String, float[]> value = getIfPresent(key);
+        if (value != null) {
+            hitCount.increment();
+            return CompletableFuture.completedFuture(value);
+        }
+        missCount.increment();
+
+        final CompletableFuture<Map<String, float[]>> future = new CompletableFuture<>();
+        final CompletableFuture<Map<String, float[]>> inflight = inflightMap.putIfAbsent(key, future);
+        if (inflight != null) {
+            return inflight.copy();
+        }
+
+        loadCount.increment();
+        final CompletableFuture<Map<String, float[]>> loaded;
+        try {
+            loaded = loader.get();
+        } catch (final RuntimeException e) {
+            inflightMap.remove(key, future);
+            future.completeExceptionally(e);
+            return future.copy();
+        }
+        loaded.whenComplete((result, t) -> {
+            if (t == null && !result.isEmpty()) {
+                put(key, result);
+            }
+            inflightMap.remove(key, future);
+            if (t != null) {
+                future.completeExceptionally(t);
+            } else {
+                future.complete(result);
+            }
+        });
+        return future.copy();
+    }
+
+    public Map<String, float[]> getIfPresent(final Key key) {
+        synchronized (entryMap) {
+            final Entry entry = entryMap.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.isExpired(System.nanoTime())) {
+                entryMap.remove(key);
+                evictionCount.increment();
+                return null;
+            }
+            return entry.value;
+        }
+    }
+
+    public void put(final Key key, final Map<String, float[]> value) {
+        final long expiredTime = ttlNanos > 0 ? System.nanoTime() + ttlNanos : 0L;
+        synchronized (entryMap) {
+            entryMap.put(key, new Entry(value, expiredTime));
+        }
+    }
+
+    public void clear() {
+        synchronized (entryMap) {
+            entryMap.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (entryMap) {
+            return entryMap.size();
+        }
+    }
+
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    public long getLoadCount() {
+        return loadCount.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "VectorCache [size=" + size() + ", maxSize=" + maxSize + ", hitCount=" + getHitCount() + ", missCount=" + getMissCount()
+                + ", loadCount=" + getLoadCount() + ", evictionCount=" + getEvictionCount() + "]";
+    }
+
+    protected static class Entry {
+        protected final Map<String, float[]> value;
+
+        protected final long expiredTime;
+
+        protected Entry(final Map<String, float[]> value, final long expiredTime) {
+            this.value = value;
+            this.expiredTime = expiredTime;
+        }
+
+        protected boolean isExpired(final long now) {
+            return expiredTime != 0L && now - expiredTime > 0;
+        }
+    }
+
+    public static class Key {
+        private final String lang;
+
+        private final String[] fields;
+
+        private final String[] values;
+
+        private final int hashCode;
+
+        public Key(final String lang, final String[] fields, final String[] values) {
+            this.lang = lang;
+            this.fields = fields;
+            this.values = values;
+            this.hashCode = 31 * (31 * lang.hashCode() + Arrays.hashCode(fields)) + Arrays.hashCode(values);
+        }
+
+        public String getLang() {
+            return lang;
+        }
+
+        public String[] getValues() {
+            return values;
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof final Key other) || hashCode != other.hashCode) {
+                return false;
+            }
+            return lang.equals(other.lang) && Arrays.equals(fields, other.fields) && Arrays.equals(values, other.values);
+        }
+
+        @Override
+        public String toString() {
+            return "Key [lang=" + lang + ", fields=" + Arrays.toString(fields) + ", values=" + Arrays.toString(values) + "]";
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2012-2022 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.webapp.vectorizer;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Maps a float vector into the int8 space of byte vector fields by scalar quantization.
+ * A value in [min, max] is mapped linearly to [-128, 127], and values out of the range are clipped.
+ * The range is given for all dimensions, or for each dimension.
+ */
+public class VectorQuantizer {
+
+    protected final float[] min;
+
+    protected final float[] max;
+
+    public VectorQuantizer(final float min, final float max) {
+        this(new float[] { min }, new float[] { max });
+    }
+
+    public VectorQuantizer(final float[] min, final float[] max) {
+        if (min.length != max.length) {
+            throw new IllegalArgumentException("The lengths of min and max are different: " + min.length + ", " + max.length);
+        }
+        for (int i = 0; i < min.length; i++) {
+            if (min[i] >= max[i]) {
+                throw new IllegalArgumentException("min must be less than max at " + i + ": " + min[i] + ", " + max[i]);
+            }
+        }
+        this.min = min;
+        this.max = max;
+    }
+
+    /**
+     * Loads a file of two lines: comma-separated min values and comma-separated max values for each dimension.
+     */
+    public static VectorQuantizer load(final Path file) throws IOException {
+        final List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8).stream().filter(s -> !s.isBlank()).toList();
+        if (lines.size() != 2) {
+            throw new IOException("Invalid quantization file: " + file);
+        }
+        try {
+            return new VectorQuantizer(parseFloats(lines.get(0)), parseFloats(lines.get(1)));
+        } catch (final IllegalArgumentException e) {
+            throw new IOException("Invalid quantization file: " + file, e);
+        }
+    }
+
+    protected static float[] parseFloats(final String line) {
+        final String[] values = line.split(",");
+        final float[] floats = new float[values.length];
+        for (int i = 0; i < values.length; i++) {
+            floats[i] = Float.parseFloat(values[i].trim());
+        }
+        return floats;
+    }
+
+    /**
+     * Returns the number of per-dimension ranges, or 1 for a global range.
+     */
+    public int getDimension() {
+        return min.length;
+    }
+
+    /**
+     * Returns int8 values as floats, which is the form of a query vector for a byte vector field.
+     */
+    public float[] quantize(final float[] vector) {
+        if (min.length > 1 && min.length != vector.length) {
+            throw new IllegalArgumentException("Dimension mismatch: expected=" + min.length + ", actual=" + vector.length);
+        }
+        final float[] values = new float[vector.length];
+        for (int i = 0; i < vector.length; i++) {
+            final int pos = min.length > 1 ? i : 0;
+            final float scaled = (vector[i] - min[pos]) / (max[pos] - min[pos]) * 255.0f - 128.0f;
+            values[i] = Math.max(-128, Math.min(127, Math.round(scaled)));
+        }
+        return values;
+    }
+}
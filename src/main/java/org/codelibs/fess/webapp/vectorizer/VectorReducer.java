@@ -0,0 +1,112 @@
+/*
+ * Copyright 2012-2022 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.webapp.vectorizer;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Reduces a model output vector to the configured dimension, and normalizes it to unit length.
+ * A vector is truncated to its prefix (Matryoshka models), or projected by PCA components.
+ */
+public class VectorReducer {
+
+    protected final int dimension;
+
+    protected final float[] mean;
+
+    protected final float[][] components;
+
+    protected VectorReducer(final int dimension, final float[] mean, final float[][] components) {
+        this.dimension = dimension;
+        this.mean = mean;
+        this.components = components;
+    }
+
+    public static VectorReducer truncate(final int dimension) {
+        return new VectorReducer(dimension, null, null);
+    }
+
+    /**
+     * Loads a PCA file: the mean vector on the first line, and a principal component on each following line.
+     * Values are comma-separated, and the first dimension components are used.
+     */
+    public static VectorReducer load(final Path file, final int dimension) throws IOException {
+        final List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8).stream().filter(s -> !s.isBlank()).toList();
+        if (lines.size() < dimension + 1) {
+            throw new IOException(file + " has " + (lines.size() - 1) + " components, but the dimension is " + dimension);
+        }
+        final float[] mean = VectorQuantizer.parseFloats(lines.get(0));
+        final float[][] components = new float[dimension][];
+        for (int i = 0; i < dimension; i++) {
+            components[i] = VectorQuantizer.parseFloats(lines.get(i + 1));
+            if (components[i].length != mean.length) {
+                throw new IOException("Invalid component at " + (i + 2) + " in " + file + ": " + components[i].length);
+            }
+        }
+        return new VectorReducer(dimension, mean, components);
+    }
+
+    public float[] reduce(final float[] vector) {
+        if (components == null) {
+            if (vector.length < dimension) {
+                throw new IllegalArgumentException("The vector is smaller than the dimension: " + vector.length + " < " + dimension);
+            }
+            if (vector.length == dimension) {
+                return vector;
+            }
+            final float[] values = new float[dimension];
+            System.arraycopy(vector, 0, values, 0, dimension);
+            normalize(values);
+            return values;
+        }
+
+        if (vector.length != mean.length) {
+            throw new IllegalArgumentException("The vector does not match PCA components: " + vector.length + " != " + mean.length);
+        }
+        final float[] values = new float[dimension];
+        for (int i = 0; i < dimension; i++) {
+            final float[] component = components[i];
+            float sum = 0;
+            for (int j = 0; j < vector.length; j++) {
+                sum += (vector[j] - mean[j]) * component[j];
+            }
+            values[i] = sum;
+        }
+        normalize(values);
+        return values;
+    }
+
+    public static void normalize(final float[] vector) {
+        double sum = 0;
+        for (final float value : vector) {
+            sum += value * value;
+        }
+        if (sum > 0) {
+            final float norm = (float) Math.sqrt(sum);
+            for (int i = 0; i < vector.length; i++) {
+                vector[i] /= norm;
+            }
+        }
+    }
+
+    public int getDimension() {
+        return dimension;
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2012-2022 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.webapp.vectorizer;
+
+import java.util.Map;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.codelibs.fess.mylasta.direction.FessConfig;
+import org.codelibs.fess.score.QueryRescorer;
+import org.codelibs.fess.util.ComponentUtil;
+import org.lastaflute.web.util.LaRequestUtil;
+import org.opensearch.index.query.QueryBuilder;
+import org.opensearch.search.rescore.QueryRescorerBuilder;
+import org.opensearch.search.rescore.RescorerBuilder;
+
+/**
+ * Rescores the top lexical hits by vector similarity.
+ * The rescore query is passed from {@link VectorisingQueryFilter} through a request attribute.
+ */
+public class VectorRescorer implements QueryRescorer {
+
+    private static final Logger logger = LogManager.getLogger(VectorRescorer.class);
+
+    public static final String RESCORE_QUERY_ATTRIBUTE = "vectorizer.rescoreQuery";
+
+    protected int windowSize = 500;
+
+    protected float queryWeight = 1.0f;
+
+    protected float rescoreQueryWeight = 1.0f;
+
+    public void register() {
+        final FessConfig fessConfig = ComponentUtil.getFessConfig();
+        windowSize = Integer
+                .parseInt(fessConfig.getSystemProperty("semantic_search.vectorizer.rescore.window_size", Integer.toString(windowSize)));
+        queryWeight = Float
+                .parseFloat(fessConfig.getSystemProperty("semantic_search.vectorizer.rescore.query_weight", Float.toString(queryWeight)));
+        rescoreQueryWeight = Float.parseFloat(fessConfig.getSystemProperty("semantic_search.vectorizer.rescore.rescore_query_weight",
+                Float.toString(rescoreQueryWeight)));
+        ComponentUtil.getQueryHelper().addQueryRescorer(this);
+    }
+
+    public static boolean setRescoreQuery(final QueryBuilder rescoreQuery) {
+        return LaRequestUtil.getOptionalRequest().map(req -> {
+            req.setAttribute(RESCORE_QUERY_ATTRIBUTE, rescoreQuery);
+            return true;
+        }).orElse(false);
+    }
+
+    @Override
+    public RescorerBuilder<?> evaluate(final Map<String, Object> params) {
+        return LaRequestUtil.getOptionalRequest().map(req -> {
+            final Object value = req.getAttribute(RESCORE_QUERY_ATTRIBUTE);
+            if (value instanceof final QueryBuilder rescoreQuery) {
+                req.removeAttribute(RESCORE_QUERY_ATTRIBUTE);
+                final RescorerBuilder<?> rescorer = createRescorer(rescoreQuery);
+                if (logger.isDebugEnabled()) {
+                    logger.debug("RESCORE: {}", rescorer);
+                }
+                return rescorer;
+            }
+            return null;
+        }).orElse(null);
+    }
+
+    protected RescorerBuilder<?> createRescorer(final QueryBuilder rescoreQuery) {
+        return new QueryRescorerBuilder(rescoreQuery)//
+                .setQueryWeight(queryWeight)//
+                .setRescoreQueryWeight(rescoreQueryWeight)//
+                .windowSize(windowSize);
+    }
+
+    public void setWindowSize(final int windowSize) {
+        this.windowSize = windowSize;
+    }
+
+    public void setQueryWeight(final float queryWeight) {
+        this.queryWeight = queryWeight;
+    }
+
+    public void setRescoreQueryWeight(final float rescoreQueryWeight) {
+        this.rescoreQueryWeight = rescoreQueryWeight;
+    }
+}
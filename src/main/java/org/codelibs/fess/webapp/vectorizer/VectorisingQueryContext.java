@@ -19,6 +19,7 @@ import java.util.List;
 import java.util.function.Consumer;
 
 import org.codelibs.fess.entity.QueryContext;
+import org.opensearch.common.lucene.search.function.FunctionScoreQuery.ScoreMode;
 import org.opensearch.index.query.BoolQueryBuilder;
 import org.opensearch.index.query.QueryBuilder;
 import org.opensearch.index.query.functionscore.FunctionScoreQueryBuilder.FilterFunctionBuilder;
@@ -31,6 +32,14 @@ public class VectorisingQueryContext extends QueryContext {
 
     private Script[] scripts;
 
+    private KnnQueryBuilder[] knnQueries;
+
+    private Script[] rescoreScripts;
+
+    private float[] scriptWeights;
+
+    private ScoreMode scoreMode = ScoreMode.SUM;
+
     public VectorisingQueryContext(final QueryContext context) {
         super(context.getQueryString(), false);
         this.context = context;
@@ -44,6 +53,38 @@ public class VectorisingQueryContext extends QueryContext {
         return scripts;
     }
 
+    public void setKnnQueries(final KnnQueryBuilder[] knnQueries) {
+        this.knnQueries = knnQueries;
+    }
+
+    public KnnQueryBuilder[] getKnnQueries() {
+        return knnQueries;
+    }
+
+    public void setRescoreScripts(final Script[] rescoreScripts) {
+        this.rescoreScripts = rescoreScripts;
+    }
+
+    public Script[] getRescoreScripts() {
+        return rescoreScripts;
+    }
+
+    public void setScriptWeights(final float[] scriptWeights) {
+        this.scriptWeights = scriptWeights;
+    }
+
+    public float[] getScriptWeights() {
+        return scriptWeights;
+    }
+
+    public void setScoreMode(final ScoreMode scoreMode) {
+        this.scoreMode = scoreMode;
+    }
+
+    public ScoreMode getScoreMode() {
+        return scoreMode;
+    }
+
     // delegated
 
     @Override
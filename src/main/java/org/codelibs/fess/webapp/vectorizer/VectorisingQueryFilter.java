@@ -15,8 +15,6 @@
  */
 package org.codelibs.fess.webapp.vectorizer;
 
-import static org.codelibs.core.stream.StreamUtil.stream;
-
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.apache.lucene.search.Query;
@@ -24,29 +22,55 @@ import org.codelibs.fess.entity.QueryContext;
 import org.codelibs.fess.query.QueryProcessor;
 import org.codelibs.fess.query.QueryProcessor.FilterChain;
 import org.codelibs.fess.util.ComponentUtil;
+import org.opensearch.common.lucene.search.function.CombineFunction;
+import org.opensearch.common.lucene.search.function.FunctionScoreQuery.ScoreMode;
+import org.opensearch.index.query.BoolQueryBuilder;
+import org.opensearch.index.query.MatchAllQueryBuilder;
 import org.opensearch.index.query.QueryBuilder;
 import org.opensearch.index.query.QueryBuilders;
-import org.opensearch.index.query.functionscore.FunctionScoreQueryBuilder;
+import org.opensearch.index.query.functionscore.FunctionScoreQueryBuilder.FilterFunctionBuilder;
 import org.opensearch.index.query.functionscore.ScoreFunctionBuilders;
+import org.opensearch.index.query.functionscore.ScriptScoreFunctionBuilder;
 import org.opensearch.script.Script;
 
 public class VectorisingQueryFilter implements QueryProcessor.Filter {
 
     private static final Logger logger = LogManager.getLogger(VectorisingQueryFilter.class);
 
+    protected boolean efficientKnnFilter = false;
+
     @Override
     public QueryBuilder execute(final QueryContext context, final Query query, final float boost, final FilterChain chain) {
         final VectorisingQueryContext vectorisingQueryContext = new VectorisingQueryContext(context);
         final QueryBuilder queryBuilder = chain.execute(vectorisingQueryContext, query, boost);
+        final float[] weights = vectorisingQueryContext.getScriptWeights();
+        final ScoreMode scoreMode = vectorisingQueryContext.getScoreMode();
         final Script[] scripts = vectorisingQueryContext.getScripts();
         if (scripts != null) {
-            final QueryBuilder newQueryBuilder = scripts.length > 1
-                    ? QueryBuilders.functionScoreQuery(queryBuilder,
-                            (FunctionScoreQueryBuilder.FilterFunctionBuilder[]) stream(scripts).get(stream -> stream
-                                    .map(script -> new FunctionScoreQueryBuilder.FilterFunctionBuilder(
-                                            ScoreFunctionBuilders.scriptFunction(script)))
-                                    .toArray(n -> new FunctionScoreQueryBuilder.FilterFunctionBuilder[n])))
-                    : QueryBuilders.scriptScoreQuery(queryBuilder, scripts[0]);
+            final QueryBuilder newQueryBuilder = createScoreQuery(queryBuilder, scripts, weights, scoreMode);
+            if (logger.isDebugEnabled()) {
+                logger.debug("QUERY: {}", newQueryBuilder);
+            }
+            return newQueryBuilder;
+        }
+        final Script[] rescoreScripts = vectorisingQueryContext.getRescoreScripts();
+        if (rescoreScripts != null) {
+            if (!(queryBuilder instanceof MatchAllQueryBuilder) && VectorRescorer
+                    .setRescoreQuery(createScoreQuery(QueryBuilders.matchAllQuery(), rescoreScripts, weights, scoreMode))) {
+                if (logger.isDebugEnabled()) {
+                    logger.debug("QUERY: {} with vector rescoring", queryBuilder);
+                }
+                return queryBuilder;
+            }
+            final QueryBuilder newQueryBuilder = createScoreQuery(queryBuilder, rescoreScripts, weights, scoreMode);
+            if (logger.isDebugEnabled()) {
+                logger.debug("QUERY: {}", newQueryBuilder);
+            }
+            return newQueryBuilder;
+        }
+        final KnnQueryBuilder[] knnQueries = vectorisingQueryContext.getKnnQueries();
+        if (knnQueries != null) {
+            final QueryBuilder newQueryBuilder = buildKnnQuery(queryBuilder, knnQueries);
             if (logger.isDebugEnabled()) {
                 logger.debug("QUERY: {}", newQueryBuilder);
             }
@@ -55,8 +79,57 @@ public class VectorisingQueryFilter implements QueryProcessor.Filter {
         return queryBuilder;
     }
 
+    /**
+     * Combines the scores of the scripts by function_score, each multiplied by its weight.
+     * AVG divides by the sum of all weights, so it ranks documents of one language like a per-document average.
+     */
+    protected static QueryBuilder createScoreQuery(final QueryBuilder queryBuilder, final Script[] scripts, final float[] weights,
+            final ScoreMode scoreMode) {
+        if (scripts.length > 1) {
+            final FilterFunctionBuilder[] functions = new FilterFunctionBuilder[scripts.length];
+            for (int i = 0; i < scripts.length; i++) {
+                final ScriptScoreFunctionBuilder function = ScoreFunctionBuilders.scriptFunction(scripts[i]);
+                if (weights != null) {
+                    function.setWeight(weights[i]);
+                }
+                functions[i] = new FilterFunctionBuilder(function);
+            }
+            return QueryBuilders.functionScoreQuery(queryBuilder, functions).scoreMode(scoreMode).boostMode(CombineFunction.REPLACE);
+        }
+        return QueryBuilders.scriptScoreQuery(queryBuilder, scripts[0]);
+    }
+
+    protected QueryBuilder buildKnnQuery(final QueryBuilder queryBuilder, final KnnQueryBuilder[] knnQueries) {
+        final boolean hasFilter = !(queryBuilder instanceof MatchAllQueryBuilder);
+        if (hasFilter && efficientKnnFilter) {
+            for (final KnnQueryBuilder knnQuery : knnQueries) {
+                knnQuery.filter(queryBuilder);
+            }
+        }
+        final QueryBuilder knnQueryBuilder;
+        if (knnQueries.length == 1) {
+            knnQueryBuilder = knnQueries[0].toQueryBuilder();
+        } else {
+            final BoolQueryBuilder boolQuery = QueryBuilders.boolQuery();
+            for (final KnnQueryBuilder knnQuery : knnQueries) {
+                boolQuery.should(knnQuery.toQueryBuilder());
+            }
+            knnQueryBuilder = boolQuery;
+        }
+        if (hasFilter && !efficientKnnFilter) {
+            return QueryBuilders.boolQuery().must(knnQueryBuilder).filter(queryBuilder);
+        }
+        return knnQueryBuilder;
+    }
+
     public void register() {
-        ComponentUtil.getQueryProcessor().add(null, null);
+        final String knnFilter = ComponentUtil.getFessConfig().getSystemProperty("semantic_search.vectorizer.knn.filter", "post");
+        efficientKnnFilter = "efficient".equals(knnFilter);
+        ComponentUtil.getQueryProcessor().addFilter(this);
+    }
+
+    public void setEfficientKnnFilter(final boolean efficientKnnFilter) {
+        this.efficientKnnFilter = efficientKnnFilter;
     }
 
 }
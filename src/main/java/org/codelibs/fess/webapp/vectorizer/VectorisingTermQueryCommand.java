@@ -18,61 +18,236 @@ package org.codelibs.fess.webapp.vectorizer;
 import static org.codelibs.core.stream.StreamUtil.stream;
 import static org.codelibs.fess.Constants.DEFAULT_FIELD;
 
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.apache.lucene.search.TermQuery;
+import org.codelibs.core.lang.StringUtil;
+import org.codelibs.core.stream.StreamUtil;
 import org.codelibs.fesen.client.EngineInfo.EngineType;
 import org.codelibs.fess.entity.QueryContext;
-import org.codelibs.fess.exception.InvalidQueryException;
 import org.codelibs.fess.mylasta.direction.FessConfig;
 import org.codelibs.fess.query.TermQueryCommand;
 import org.codelibs.fess.util.ComponentUtil;
-import org.lastaflute.core.message.UserMessages;
+import org.codelibs.fess.webapp.vectorizer.SemanticRoutingPolicy.Route;
+import org.codelibs.fess.webapp.vectorizer.VectorizerMetrics.FallbackReason;
+import org.opensearch.action.search.SearchResponse;
+import org.opensearch.common.lucene.search.function.FunctionScoreQuery.ScoreMode;
 import org.opensearch.index.query.QueryBuilder;
 import org.opensearch.index.query.QueryBuilders;
 import org.opensearch.script.Script;
 import org.opensearch.script.ScriptType;
+import org.opensearch.search.aggregations.AggregationBuilders;
+import org.opensearch.search.aggregations.bucket.terms.Terms;
 
 public class VectorisingTermQueryCommand extends TermQueryCommand {
 
     private static final Logger logger = LogManager.getLogger(VectorisingTermQueryCommand.class);
 
-    private static final String CONTENT_FIELD = "content";
-
     private static final String LANG_FIELD = "lang";
 
     private static final String SEMANTIC_FIELD = "semantic";
 
+    private static final String SYSTEM_PROPERTY_PREFIX = "semantic_search.vectorizer.";
+
     protected Vectorizer vectorizer;
 
     protected String fieldSuffix = "_vector";
 
     protected String scriptSpaceType = "cosinesimil";
 
+    protected long queryTimeout = 1000L;
+
+    protected QueryMode queryMode = QueryMode.SCRIPT;
+
+    protected int knnK = 100;
+
+    protected VectorQuantizer quantizer;
+
+    protected VectorizerMetrics metrics = new VectorizerMetrics();
+
+    protected VectorizerWarmer warmer;
+
+    protected CombineMode combineMode = CombineMode.SUM;
+
+    protected Map<String, Float> fieldWeights = Collections.emptyMap();
+
+    protected volatile String multiFieldScriptSource;
+
+    protected boolean multiLanguage = false;
+
+    protected long languageTimeout = -1L;
+
+    protected SemanticRoutingPolicy routingPolicy;
+
     @PostConstruct
     public void init() {
         final EngineType engineType = getEngineType();
         if (engineType == EngineType.OPENSEARCH1) {
             logger.info("Search Engine: {}", engineType);
-            final int dimension =
-                    Integer.parseInt(ComponentUtil.getFessConfig().getSystemProperty("semantic_search.vectorizer.dimension", "768"));
-            final String url = ComponentUtil.getFessConfig().getSystemProperty("semantic_search.vectorizer.url");
-            final String fields = ComponentUtil.getFessConfig().getSystemProperty("semantic_search.vectorizer.fields");
             vectorizer = Vectorizer.create()//
-                    .url(url)//
-                    .fields(fields)//
-                    .dimension(dimension)//
+                    .metrics(metrics)//
+                    .properties(this::getSystemProperty)//
                     .build();
+            queryTimeout = Long.parseLong(getSystemProperty("query.timeout", Long.toString(queryTimeout)));
+            queryMode = QueryMode.valueOf(getSystemProperty("query.mode", queryMode.name()).toUpperCase(Locale.ROOT));
+            knnK = Integer.parseInt(getSystemProperty("knn.k", Integer.toString(knnK)));
+            quantizer = createQuantizer(getSystemProperty("quantization", "none"));
+            combineMode = CombineMode.valueOf(getSystemProperty("multi_field.combine", combineMode.name()).toUpperCase(Locale.ROOT));
+            fieldWeights = parseFieldWeights(getSystemProperty("multi_field.weights", null));
+            multiLanguage = Boolean.parseBoolean(getSystemProperty("multi_language.enabled", "false"));
+            languageTimeout = Long.parseLong(getSystemProperty("multi_language.timeout", Long.toString(languageTimeout)));
+            if (routingPolicy == null && Boolean.parseBoolean(getSystemProperty("query_routing.enabled", "false"))) {
+                routingPolicy = createRoutingPolicy();
+            }
+            metrics.register();
+            if (Boolean.parseBoolean(getSystemProperty("warmup.enabled", "false"))) {
+                warmer = createWarmer();
+                warmer.start();
+            }
         } else {
             logger.warn("Your search engine is not supported: {}", engineType);
         }
     }
 
+    protected VectorQuantizer createQuantizer(final String quantization) {
+        switch (quantization) {
+        case "none":
+            return null;
+        case "int8":
+            final String path = getSystemProperty("quantization.file", null);
+            if (StringUtil.isNotBlank(path)) {
+                return loadQuantizer(path, Integer.parseInt(getSystemProperty("dimension", "768")));
+            }
+            return new VectorQuantizer(Float.parseFloat(getSystemProperty("quantization.min", "-1.0")),
+                    Float.parseFloat(getSystemProperty("quantization.max", "1.0")));
+        default:
+            throw new IllegalArgumentException("Unknown quantization: " + quantization);
+        }
+    }
+
+    /**
+     * Loads per-dimension ranges. An invalid file fails the initialization, because query vectors quantized by other ranges
+     * than the indexed ones are scored wrongly.
+     */
+    protected VectorQuantizer loadQuantizer(final String path, final int dimension) {
+        final VectorQuantizer fileQuantizer;
+        try {
+            fileQuantizer = VectorQuantizer.load(Paths.get(path));
+        } catch (final IOException e) {
+            throw new IllegalArgumentException("Failed to load " + path, e);
+        }
+        if (fileQuantizer.getDimension() != dimension) {
+            throw new IllegalArgumentException(
+                    path + " has " + fileQuantizer.getDimension() + " dimensions, but the dimension is " + dimension + ".");
+        }
+        return fileQuantizer;
+    }
+
+    protected SemanticRoutingPolicy createRoutingPolicy() {
+        final RuleBasedRoutingPolicy policy = new RuleBasedRoutingPolicy();
+        policy.setMinWords(Integer.parseInt(getSystemProperty("query_routing.min_words", "2")));
+        policy.setMinLetterRatio(Double.parseDouble(getSystemProperty("query_routing.min_letter_ratio", "0.5")));
+        policy.setDenyPattern(getSystemProperty("query_routing.deny_pattern", RuleBasedRoutingPolicy.DEFAULT_DENY_PATTERN));
+        policy.setMaxLoad(Double.parseDouble(getSystemProperty("query_routing.max_load", "1.0")));
+        return policy;
+    }
+
+    protected VectorizerWarmer createWarmer() {
+        final VectorizerWarmer newWarmer =
+                new VectorizerWarmer(vectorizer, (lang, text) -> createVectorizeParams(lang, getVectorFields()[0], text));
+        final String file = getSystemProperty("warmup.file", null);
+        if (StringUtil.isNotBlank(file)) {
+            newWarmer.setFile(Paths.get(file));
+        }
+        final int size = Integer.parseInt(getSystemProperty("warmup.size", "100"));
+        if (Boolean.parseBoolean(getSystemProperty("warmup.search_log", "true"))) {
+            newWarmer.setPopularQuerySupplier(() -> getPopularQueries(size));
+        }
+        final String languages = getSystemProperty("warmup.languages", null);
+        if (StringUtil.isNotBlank(languages)) {
+            newWarmer.setLanguages(StreamUtil.split(languages, ",")
+                    .get(stream -> stream.map(String::trim).filter(StringUtil::isNotBlank).toArray(n -> new String[n])));
+        }
+        newWarmer.setSize(size);
+        newWarmer.setRate(Double.parseDouble(getSystemProperty("warmup.rate", "20")));
+        newWarmer.setMaxShare(Double.parseDouble(getSystemProperty("warmup.max_share", "0.25")));
+        newWarmer.setDelay(Long.parseLong(getSystemProperty("warmup.delay", "30000")));
+        return newWarmer;
+    }
+
+    /**
+     * Returns the most frequent queries of each language in the search log, which have hit documents.
+     */
+    protected Map<String, List<String>> getPopularQueries(final int size) {
+        try {
+            final FessConfig fessConfig = ComponentUtil.getFessConfig();
+            final SearchResponse response = ComponentUtil.getSearchEngineClient()
+                    .prepareSearch(fessConfig.getIndexLogIndex() + ".search_log")
+                    .setSize(0)
+                    .setQuery(QueryBuilders.rangeQuery("hitCount").gt(0))
+                    .addAggregation(AggregationBuilders.terms("languages")
+                            .field("languages")
+                            .size(100)
+                            .subAggregation(AggregationBuilders.terms("queries").field("searchWord").size(size)))
+                    .execute()
+                    .actionGet(fessConfig.getIndexSearchTimeout());
+            final Map<String, Map<String, Long>> counts = new HashMap<>();
+            final Terms languages = response.getAggregations().get("languages");
+            for (final Terms.Bucket bucket : languages.getBuckets()) {
+                final Terms terms = bucket.getAggregations().get("queries");
+                // a search log has all requested languages, e.g. "ja,en"
+                for (final String lang : bucket.getKeyAsString().split(",")) {
+                    final Map<String, Long> values = counts.computeIfAbsent(lang.trim(), k -> new HashMap<>());
+                    terms.getBuckets().forEach(term -> values.merge(term.getKeyAsString(), term.getDocCount(), Long::sum));
+                }
+            }
+            final Map<String, List<String>> queries = new LinkedHashMap<>();
+            counts.forEach((lang, values) -> queries.put(lang, values.entrySet()
+                    .stream()
+                    .sorted(Map.Entry.<String, Long> comparingByValue().reversed())
+                    .limit(size)
+                    .map(Map.Entry::getKey)
+                    .toList()));
+            return queries;
+        } catch (final Exception e) {
+            logger.warn("Failed to load popular queries.", e);
+            return Collections.emptyMap();
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (warmer != null) {
+            warmer.close();
+        }
+        if (vectorizer != null) {
+            vectorizer.close();
+        }
+        metrics.unregister();
+    }
+
+    protected String getSystemProperty(final String key, final String defaultValue) {
+        return ComponentUtil.getFessConfig().getSystemProperty(SYSTEM_PROPERTY_PREFIX + key, defaultValue);
+    }
+
     protected EngineType getEngineType() {
         return ComponentUtil.getSearchEngineClient().getEngineInfo().getType();
     }
@@ -85,47 +260,302 @@ public class VectorisingTermQueryCommand extends TermQueryCommand {
                 if (logger.isDebugEnabled()) {
                     logger.debug("context is not VectorisingQueryContext. Query is {}", text);
                 }
+                metrics.recordFallback(FallbackReason.INVALID_CONTEXT);
+                return super.convertTermQuery(fessConfig, context, termQuery, boost, DEFAULT_FIELD, text);
+            }
+            if (vectorizer == null) {
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Vectorizer is not available. Query is {}", text);
+                }
+                metrics.recordFallback(FallbackReason.NO_VECTORIZER);
+                return super.convertTermQuery(fessConfig, context, termQuery, boost, DEFAULT_FIELD, text);
+            }
+            final Route route = routingPolicy != null ? routingPolicy.route(text, vectorizer) : Route.SEMANTIC;
+            metrics.recordRoute(route);
+            if (!route.isSemantic()) {
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Query is routed to lexical search by {}. Query is {}", route, text);
+                }
                 return super.convertTermQuery(fessConfig, context, termQuery, boost, DEFAULT_FIELD, text);
             }
             return getQueryLanguages()
-                    .map(langs -> stream(langs).get(stream -> stream.filter(vectorizer::isSupportedLanguage).findFirst().get()))
-                    .map(lang -> {
-                        final Script[] scripts = getScripts(lang, new String[] { CONTENT_FIELD }, text);
-                        if (scripts.length > 0) {
-                            vectorisingQueryContext.setScripts(scripts);
+                    .map(this::getSupportedLanguages)
+                    .filter(langs -> langs.length > 0)
+                    .map(langs -> {
+                        final boolean vectorized;
+                        try {
+                            vectorized = setVectorQuery(vectorisingQueryContext, langs, getVectorFields(), text);
+                        } catch (final IllegalArgumentException e) {
+                            logger.warn("Invalid query vector: {}", e.getMessage());
+                            metrics.recordFallback(FallbackReason.INVALID_VECTOR);
+                            return super.convertTermQuery(fessConfig, context, termQuery, boost, DEFAULT_FIELD, text);
+                        }
+                        if (vectorized) {
+                            if (queryMode == QueryMode.RESCORE) {
+                                return super.convertTermQuery(fessConfig, context, termQuery, boost, DEFAULT_FIELD, text);
+                            }
                             return (QueryBuilder) QueryBuilders.matchAllQuery();
                         }
                         if (logger.isDebugEnabled()) {
                             logger.debug("A sentence vector is not generated. Query is {}", text);
                         }
+                        metrics.recordFallback(FallbackReason.EMPTY_VECTOR);
                         return super.convertTermQuery(fessConfig, context, termQuery, boost, DEFAULT_FIELD, text);
                     }).orElseGet(() -> {
                         if (logger.isDebugEnabled()) {
                             logger.debug("Supported languages are not found. Query is {}", text);
                         }
+                        metrics.recordFallback(FallbackReason.UNSUPPORTED_LANGUAGE);
                         return super.convertTermQuery(fessConfig, context, termQuery, boost, DEFAULT_FIELD, text);
                     });
         }
         return super.convertTermQuery(fessConfig, context, termQuery, boost, field, text);
     }
 
+    /**
+     * Returns the requested languages supported by the vectorizer, or only the first one if multi-language queries are disabled.
+     */
+    protected String[] getSupportedLanguages(final String[] langs) {
+        return stream(langs).get(stream -> stream.filter(vectorizer::isSupportedLanguage)
+                .distinct()
+                .limit(multiLanguage ? Long.MAX_VALUE : 1L)
+                .toArray(n -> new String[n]));
+    }
+
+    protected boolean setVectorQuery(final VectorisingQueryContext context, final String[] langs, final String[] fields,
+            final String text) {
+        if (queryMode == QueryMode.KNN) {
+            final KnnQueryBuilder[] knnQueries = getKnnQueries(langs, fields, text);
+            if (knnQueries.length > 0) {
+                context.setKnnQueries(knnQueries);
+                return true;
+            }
+            return false;
+        }
+        final Script[] scripts = getScripts(langs, fields, text);
+        if (scripts.length > 0) {
+            if (scripts.length > 1) {
+                // knn_score scripts are weighted and combined by function_score
+                context.setScriptWeights(getScriptWeights(fields, scripts.length));
+                context.setScoreMode(getScoreMode());
+            }
+            if (queryMode == QueryMode.SCRIPT) {
+                context.setScripts(scripts);
+            } else {
+                context.setRescoreScripts(scripts);
+            }
+            return true;
+        }
+        return false;
+    }
+
     protected Script[] getScripts(final String lang, final String[] fields, final String text) {
+        return getScripts(new String[] { lang }, fields, text);
+    }
+
+    protected Script[] getScripts(final String[] langs, final String[] fields, final String text) {
+        final Map<String, float[]> vectors = getVectors(langs, fields, text);
+        if (vectors.isEmpty()) {
+            return new Script[0];
+        }
+        if (vectors.size() > 1 || fields.length > 1) {
+            final String source = getMultiFieldScriptSource();
+            if (source != null) {
+                // one script sends each query vector once, and shares it among the fields of the language
+                final List<float[]> queryValues = new ArrayList<>(vectors.size());
+                final List<List<String>> fieldNames = new ArrayList<>(vectors.size());
+                vectors.forEach((lang, vector) -> {
+                    queryValues.add(vector);
+                    fieldNames.add(stream(fields).get(stream -> stream.map(field -> field + "_" + lang + fieldSuffix).toList()));
+                });
+                final List<Float> weights =
+                        stream(fields).get(stream -> stream.map(field -> fieldWeights.getOrDefault(field, 1.0f)).toList());
+                return new Script[] { new Script(ScriptType.INLINE, "painless", source, //
+                        Map.of("query_values", queryValues, //
+                                "fields", fieldNames, //
+                                "weights", weights)) };
+            }
+        }
+        final List<Script> scripts = new ArrayList<>(vectors.size() * fields.length);
+        vectors.forEach((lang, vector) -> {
+            for (final String field : fields) {
+                scripts.add(new Script(ScriptType.INLINE, "knn", "knn_score", //
+                        Map.of("field", field + "_" + lang + fieldSuffix, //
+                                "query_value", vector, //
+                                "space_type", scriptSpaceType)));
+            }
+        });
+        return scripts.toArray(n -> new Script[n]);
+    }
+
+    /**
+     * Returns the weights of knn_score scripts, which are ordered by language and then by field.
+     */
+    protected float[] getScriptWeights(final String[] fields, final int size) {
+        final float[] weights = new float[size];
+        for (int i = 0; i < size; i++) {
+            weights[i] = fieldWeights.getOrDefault(fields[i % fields.length], 1.0f);
+        }
+        return weights;
+    }
+
+    protected ScoreMode getScoreMode() {
+        switch (combineMode) {
+        case MAX:
+            return ScoreMode.MAX;
+        case AVG:
+            return ScoreMode.AVG;
+        default:
+            return ScoreMode.SUM;
+        }
+    }
+
+    protected String getMultiFieldScriptSource() {
+        String source = multiFieldScriptSource;
+        if (source == null) {
+            source = createMultiFieldScriptSource(scriptSpaceType, combineMode);
+            if (source == null) {
+                logger.warn("{} is not supported in multi-field scoring. Each field is scored by knn_score.", scriptSpaceType);
+                source = StringUtil.EMPTY;
+            }
+            multiFieldScriptSource = source;
+        }
+        return StringUtil.isEmpty(source) ? null : source;
+    }
+
+    /**
+     * Returns the painless script scoring the fields of each language by its query vector, or null if the space type has no
+     * painless function. A field score is the same as the one of knn_score, and missing fields are skipped.
+     */
+    protected static String createMultiFieldScriptSource(final String spaceType, final CombineMode combineMode) {
+        final String similarity;
+        switch (spaceType) {
+        case "cosinesimil":
+            similarity = "1.0 + cosineSimilarity(query, doc[field])";
+            break;
+        case "l2":
+            similarity = "1.0 / (1.0 + l2Squared(query, doc[field]))";
+            break;
+        case "l1":
+            similarity = "1.0 / (1.0 + l1Norm(query, doc[field]))";
+            break;
+        default:
+            return null;
+        }
+        final StringBuilder buf = new StringBuilder(512);
+        buf.append("double score = 0.0; double weightSum = 0.0;");
+        buf.append("for (int j = 0; j < params.query_values.size(); ++j) {");
+        buf.append("def query = params.query_values.get(j); List fields = params.fields.get(j);");
+        buf.append("for (int i = 0; i < fields.size(); ++i) {");
+        buf.append("String field = fields.get(i);");
+        buf.append("if (doc[field].size() == 0) { continue; }");
+        buf.append("double weight = params.weights.get(i);");
+        buf.append("double value = weight * (").append(similarity).append(");");
+        switch (combineMode) {
+        case MAX:
+            buf.append("score = Math.max(score, value);");
+            break;
+        case AVG:
+            buf.append("score += value; weightSum += weight;");
+            break;
+        default:
+            buf.append("score += value;");
+            break;
+        }
+        buf.append("}}");
+        if (combineMode == CombineMode.AVG) {
+            buf.append("return weightSum > 0.0 ? score / weightSum : 0.0;");
+        } else {
+            buf.append("return score;");
+        }
+        return buf.toString();
+    }
+
+    protected static Map<String, Float> parseFieldWeights(final String value) {
+        if (StringUtil.isBlank(value)) {
+            return Collections.emptyMap();
+        }
+        final Map<String, Float> weights = new HashMap<>();
+        for (final String entry : value.split(",")) {
+            final String[] pair = entry.split(":");
+            if (pair.length != 2 || StringUtil.isBlank(pair[0])) {
+                throw new IllegalArgumentException("Invalid field weight: " + entry);
+            }
+            weights.put(pair[0].trim(), Float.parseFloat(pair[1].trim()));
+        }
+        return weights;
+    }
+
+    protected KnnQueryBuilder[] getKnnQueries(final String[] langs, final String[] fields, final String text) {
+        final Map<String, float[]> vectors = getVectors(langs, fields, text);
+        final List<KnnQueryBuilder> knnQueries = new ArrayList<>(vectors.size() * fields.length);
+        vectors.forEach((lang, vector) -> {
+            for (final String field : fields) {
+                knnQueries.add(new KnnQueryBuilder(field + "_" + lang + fieldSuffix, vector, knnK));
+            }
+        });
+        return knnQueries.toArray(n -> new KnnQueryBuilder[n]);
+    }
+
+    protected String[] getVectorFields() {
+        return vectorizer.getFields();
+    }
+
+    /**
+     * Returns the vectorizer input of a query. Only the first field is vectorized, and its vector is used for all fields.
+     */
+    protected Map<String, Object> createVectorizeParams(final String lang, final String field, final String text) {
         final Map<String, Object> params = new HashMap<>();
         params.put(LANG_FIELD, lang);
-        for (final String field : fields) {
-            params.put(field, text);
+        params.put(field, text);
+        return params;
+    }
+
+    /**
+     * Vectorizes the query for all languages concurrently, and returns the vectors in the order of the languages.
+     * A language is dropped if its vector is not generated by the deadline, so the slowest language bounds the wait.
+     */
+    protected Map<String, float[]> getVectors(final String[] langs, final String[] fields, final String text) {
+        final long timeout = langs.length > 1 && languageTimeout >= 0 ? languageTimeout : queryTimeout;
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        final List<Map<String, Object>> paramsList = new ArrayList<>(langs.length);
+        final List<CompletableFuture<Map<String, float[]>>> futures = new ArrayList<>(langs.length);
+        for (final String lang : langs) {
+            final Map<String, Object> params = createVectorizeParams(lang, fields[0], text);
+            paramsList.add(params);
+            futures.add(vectorizer.vectorizeAsync(params));
+        }
+        final Map<String, float[]> vectors = new LinkedHashMap<>();
+        for (int i = 0; i < langs.length; i++) {
+            final float[] vector = await(futures.get(i), deadline, timeout, paramsList.get(i)).get(fields[0]);
+            if (vector != null) {
+                vectors.put(langs[i], quantizer != null ? quantizer.quantize(vector) : vector);
+            }
         }
-        final Map<String, float[]> output = vectorizer.vectorize(params);
-        final float[] vector = output.get(CONTENT_FIELD);
-        if (vector == null) {
-            throw new InvalidQueryException(messages -> messages.addErrorsInvalidQueryUnknown(UserMessages.GLOBAL_PROPERTY_KEY),
-                    "Failed to get a sentence vector.");
+        return vectors;
+    }
+
+    protected Map<String, float[]> await(final CompletableFuture<Map<String, float[]>> future, final long deadline, final long timeout,
+            final Map<String, Object> params) {
+        try {
+            // a late result is not cancelled, so that it is still cached for the next query
+            return future.get(Math.max(deadline - System.nanoTime(), 0L), TimeUnit.NANOSECONDS);
+        } catch (final TimeoutException e) {
+            metrics.recordTimeout();
+            if (logger.isDebugEnabled()) {
+                logger.debug("Vectorizing a query exceeded {}ms: {}", timeout, params);
+            }
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof RejectedExecutionException) {
+                metrics.recordRejected();
+            }
+            if (logger.isDebugEnabled()) {
+                logger.debug("Failed to vectorize a query: {}", params, e.getCause());
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
-        return stream(fields).get(stream -> stream.map(field -> new Script(ScriptType.INLINE, "knn", "knn_score", //
-                Map.of("field", field + "_" + lang + fieldSuffix, //
-                        "query_value", vector, //
-                        "space_type", scriptSpaceType)))
-                .toArray(n -> new Script[n]));
+        return Collections.emptyMap();
     }
 
     public void setFieldSuffix(final String fieldSuffix) {
@@ -134,5 +564,71 @@ public class VectorisingTermQueryCommand extends TermQueryCommand {
 
     public void setScriptSpaceType(final String scriptSpaceType) {
         this.scriptSpaceType = scriptSpaceType;
+        multiFieldScriptSource = null;
+    }
+
+    public void setQueryTimeout(final long queryTimeout) {
+        this.queryTimeout = queryTimeout;
+    }
+
+    public void setQueryMode(final QueryMode queryMode) {
+        this.queryMode = queryMode;
+    }
+
+    public void setKnnK(final int knnK) {
+        this.knnK = knnK;
+    }
+
+    public void setQuantizer(final VectorQuantizer quantizer) {
+        this.quantizer = quantizer;
+    }
+
+    public void setMultiLanguage(final boolean multiLanguage) {
+        this.multiLanguage = multiLanguage;
+    }
+
+    public void setLanguageTimeout(final long languageTimeout) {
+        this.languageTimeout = languageTimeout;
+    }
+
+    public void setRoutingPolicy(final SemanticRoutingPolicy routingPolicy) {
+        this.routingPolicy = routingPolicy;
+    }
+
+    public void setCombineMode(final CombineMode combineMode) {
+        this.combineMode = combineMode;
+        multiFieldScriptSource = null;
+    }
+
+    public void setFieldWeights(final Map<String, Float> fieldWeights) {
+        this.fieldWeights = fieldWeights;
+    }
+
+    public void setMetrics(final VectorizerMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public VectorizerMetrics getMetrics() {
+        return metrics;
+    }
+
+    public enum QueryMode {
+        /** exact scoring over all matched documents by knn_score script */
+        SCRIPT,
+        /** approximate k-NN search by knn query */
+        KNN,
+        /** lexical search of the semantic text and other terms, and vector rescoring of top hits */
+        RESCORE,
+        /** vector rescoring of top hits if other lexical terms exist, otherwise SCRIPT */
+        HYBRID
+    }
+
+    public enum CombineMode {
+        /** sum of the weighted field scores */
+        SUM,
+        /** max of the weighted field scores */
+        MAX,
+        /** weighted average of the field scores */
+        AVG
     }
 }
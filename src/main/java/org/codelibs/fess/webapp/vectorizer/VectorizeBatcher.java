@@ -0,0 +1,158 @@
+/*
+ * Copyright 2012-2022 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.webapp.vectorizer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Collects requests arriving within a short window into one batch call.
+ * While no batch is in flight, a request is dispatched without waiting for the window.
+ */
+public class VectorizeBatcher {
+
+    private static final Logger logger = LogManager.getLogger(VectorizeBatcher.class);
+
+    protected final Function<List<Map<String, Object>>, List<Map<String, float[]>>> batchFunction;
+
+    protected final Executor executor;
+
+    protected final BlockingQueue<Request> queue;
+
+    protected final int maxBatchSize;
+
+    protected final long windowNanos;
+
+    protected final AtomicInteger inflightBatches = new AtomicInteger();
+
+    protected final Thread dispatcher;
+
+    protected volatile boolean running = true;
+
+    public VectorizeBatcher(final Function<List<Map<String, Object>>, List<Map<String, float[]>>> batchFunction, final Executor executor,
+            final int maxBatchSize, final long windowMillis, final int queueSize) {
+        this.batchFunction = batchFunction;
+        this.executor = executor;
+        this.maxBatchSize = maxBatchSize;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        dispatcher = new Thread(this::dispatch, "VectorizeBatcher");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+
+    public CompletableFuture<Map<String, float[]>> submit(final Map<String, Object> input) {
+        final Request request = new Request(input);
+        if (!running) {
+            request.future.completeExceptionally(new RejectedExecutionException("Vectorize batcher is closed."));
+        } else if (!queue.offer(request)) {
+            request.future.completeExceptionally(new RejectedExecutionException("Vectorize queue is full."));
+        } else if (!running && queue.remove(request)) {
+            // closed after the dispatcher drained the queue
+            request.future.completeExceptionally(new RejectedExecutionException("Vectorize batcher is closed."));
+        }
+        return request.future;
+    }
+
+    protected void dispatch() {
+        while (running) {
+            try {
+                final Request first = queue.take();
+                final List<Request> batch = new ArrayList<>(maxBatchSize);
+                batch.add(first);
+                if (inflightBatches.get() > 0) {
+                    final long deadline = System.nanoTime() + windowNanos;
+                    while (batch.size() < maxBatchSize) {
+                        final Request request = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                        if (request == null) {
+                            break;
+                        }
+                        batch.add(request);
+                    }
+                } else {
+                    queue.drainTo(batch, maxBatchSize - 1);
+                }
+                execute(batch);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (final Exception e) {
+                logger.warn("Failed to dispatch vectorize requests.", e);
+            }
+        }
+        final List<Request> requests = new ArrayList<>();
+        queue.drainTo(requests);
+        requests.forEach(r -> r.future.completeExceptionally(new RejectedExecutionException("Vectorize batcher is closed.")));
+    }
+
+    protected void execute(final List<Request> batch) {
+        inflightBatches.incrementAndGet();
+        try {
+            executor.execute(() -> {
+                try {
+                    final List<Map<String, Object>> inputs = new ArrayList<>(batch.size());
+                    batch.forEach(r -> inputs.add(r.input));
+                    final List<Map<String, float[]>> outputs = batchFunction.apply(inputs);
+                    for (int i = 0; i < batch.size(); i++) {
+                        batch.get(i).future.complete(outputs.get(i));
+                    }
+                } catch (final Throwable t) {
+                    batch.forEach(r -> r.future.completeExceptionally(t));
+                } finally {
+                    inflightBatches.decrementAndGet();
+                }
+            });
+        } catch (final RejectedExecutionException e) {
+            inflightBatches.decrementAndGet();
+            batch.forEach(r -> r.future.completeExceptionally(e));
+        }
+    }
+
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    public int getInflightBatches() {
+        return inflightBatches.get();
+    }
+
+    public void close() {
+        running = false;
+        dispatcher.interrupt();
+    }
+
+    protected static class Request {
+        protected final Map<String, Object> input;
+
+        protected final CompletableFuture<Map<String, float[]>> future = new CompletableFuture<>();
+
+        protected Request(final Map<String, Object> input) {
+            this.input = input;
+        }
+    }
+}
@@ -16,176 +16,302 @@
 package org.codelibs.fess.webapp.vectorizer;
 
 import java.io.IOException;
-import java.util.Collections;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
-import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BinaryOperator;
 
-import org.apache.commons.text.StringEscapeUtils;
 import org.codelibs.core.lang.StringUtil;
 import org.codelibs.core.stream.StreamUtil;
-import org.codelibs.curl.Curl;
-import org.codelibs.curl.CurlResponse;
 import org.codelibs.fess.util.DocumentUtil;
-import org.codelibs.opensearch.runner.net.OpenSearchCurl;
+import org.codelibs.fess.webapp.vectorizer.PassageChunker.Passage;
+import org.codelibs.fess.webapp.vectorizer.VectorizerCodec.VectorFormat;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class Vectorizer {
-    private static final Logger logger = LoggerFactory.getLogger(Vectorizer.class);
+/**
+ * Converts text fields into vectors.
+ * A backend is selected by {@link Builder#engine(String)}.
+ */
+public interface Vectorizer {
+
+    Map<String, float[]> vectorize(Map<String, Object> input);
+
+    CompletableFuture<Map<String, float[]>> vectorizeAsync(Map<String, Object> input);
+
+    /**
+     * Returns the results at the positions of the inputs, and an empty map for an input that is not vectorized.
+     */
+    List<Map<String, float[]>> vectorizeBatch(List<Map<String, Object>> inputs);
+
+    /**
+     * Returns the vectorized passages of each field at the positions of the inputs, e.g. for nested k-NN fields.
+     * A long text is split into passages if chunking is enabled, otherwise the whole text is one passage.
+     * A field is omitted unless all of its passages are vectorized.
+     */
+    default List<Map<String, List<Passage>>> vectorizePassages(final List<Map<String, Object>> inputs) {
+        final List<Map<String, float[]>> outputs = vectorizeBatch(inputs);
+        final List<Map<String, List<Passage>>> results = new ArrayList<>(outputs.size());
+        for (int i = 0; i < outputs.size(); i++) {
+            final Map<String, Object> input = inputs.get(i);
+            final Map<String, List<Passage>> result = new HashMap<>();
+            outputs.get(i).forEach((field, vector) -> {
+                final String text = DocumentUtil.getValue(input, field, String.class, StringUtil.EMPTY);
+                result.put(field, List.of(new Passage(text, 0, text.length(), vector)));
+            });
+            results.add(result);
+        }
+        return results;
+    }
+
+    boolean isSupportedLanguage(String lang);
+
+    String[] getLanguages();
 
-    protected Set<String> supportedLanguages = Collections.emptySet();
+    String[] getFields();
 
-    protected String url;
+    boolean isActive();
 
-    protected String[] fields;
+    /**
+     * Returns true once the backend metadata, such as the supported languages, is loaded.
+     */
+    default boolean isInitialized() {
+        return true;
+    }
 
-    protected int dimension;
+    /**
+     * Returns the share of the capacity in use, from 0.0 to 1.0. 1.0 means new requests are rejected.
+     */
+    default double getLoad() {
+        return 0.0;
+    }
+
+    void close();
+
+    static Builder create() {
+        return new Builder();
+    }
+
+    class Builder {
+        private static final Logger logger = LoggerFactory.getLogger(Builder.class);
+
+        private String engine = "remote";
+        private String[] urls = { "http://localhost:8900" };
+        private EndpointPool.Routing routing = EndpointPool.Routing.LATENCY;
+        private long healthCheckInterval = 10000L;
+        private int ejectionThreshold = 3;
+        private long refreshInterval = 300000L;
+        private long maxBackoff = 60000L;
+        private long initTimeout = 0L;
+        private String modelPath;
+        private String modelVersion;
+        private String[] languages = { "en" };
+        private int intraOpThreads = 2;
+        private int maxSequenceLength = 256;
+        private boolean doLowerCase = true;
+        private boolean normalize = true;
+        private String dimensionReduction = "none";
+        private String pcaFile;
+        private VectorizerMetrics metrics;
+        private String[] fields = { "content" };
+        private int dimension = 768;
+        private int cacheSize = 1000;
+        private long cacheTtl = 600000L;
+        private String storePath;
+        private int storeSize = 100000;
+        private int batchSize = 32;
+        private long maxBatchBytes = 1024L * 1024L;
+        private int asyncThreads = 16;
+        private int asyncQueueSize = 1000;
+        private long batchWindow = 2L;
+        private VectorFormat vectorFormat = VectorFormat.JSON;
+        private String transportType = "curl";
+        private VectorizerTransport transport;
+        private int maxConnections = 100;
+        private int maxConnectionsPerRoute = 20;
+        private long idleTimeout = 30000L;
+        private int connectTimeout = 3000;
+        private int readTimeout = 10000;
+        private int maxConcurrentRequests = 32;
+        private int failureThreshold = 5;
+        private long slowCallThreshold = 1000L;
+        private long openDuration = 30000L;
+        private String chunkUnit = "chars";
+        private int chunkSize = 0;
+        private int chunkOverlap = 0;
+        private int maxChunks = 16;
+        private String pooling = "mean";
+
+        protected Builder() {
+            // nothing
+        }
 
-    protected float[] emptyValue;
+        /**
+         * Applies the settings read by the getter from a key without the semantic_search.vectorizer. prefix and a default value.
+         */
+        public Builder properties(final BinaryOperator<String> getter) {
+            return engine(getter.apply("engine", "remote"))//
+                    .modelPath(getter.apply("onnx.model_path", null))//
+                    .modelVersion(getter.apply("model_version", null))//
+                    .languages(getter.apply("onnx.languages", "en"))//
+                    .intraOpThreads(Integer.parseInt(getter.apply("onnx.intra_op_threads", "2")))//
+                    .maxSequenceLength(Integer.parseInt(getter.apply("onnx.max_sequence_length", "256")))//
+                    .doLowerCase(Boolean.parseBoolean(getter.apply("onnx.do_lower_case", "true")))//
+                    .normalize(Boolean.parseBoolean(getter.apply("onnx.normalize", "true")))//
+                    .url(getter.apply("url", null))//
+                    .routing(getter.apply("routing", "latency"))//
+                    .healthCheckInterval(Long.parseLong(getter.apply("health_check.interval", "10000")))//
+                    .ejectionThreshold(Integer.parseInt(getter.apply("health_check.ejection_threshold", "3")))//
+                    .refreshInterval(Long.parseLong(getter.apply("metadata.refresh_interval", "300000")))//
+                    .maxBackoff(Long.parseLong(getter.apply("metadata.max_backoff", "60000")))//
+                    .initTimeout(Long.parseLong(getter.apply("init_timeout", "0")))//
+                    .fields(getter.apply("fields", null))//
+                    .dimension(Integer.parseInt(getter.apply("dimension", "768")))//
+                    .dimensionReduction(getter.apply("dimension_reduction", "none"))//
+                    .pcaFile(getter.apply("dimension_reduction.pca_file", null))//
+                    .chunkUnit(getter.apply("chunk.unit", "chars"))//
+                    .chunkSize(Integer.parseInt(getter.apply("chunk.size", "0")))//
+                    .chunkOverlap(Integer.parseInt(getter.apply("chunk.overlap", "0")))//
+                    .maxChunks(Integer.parseInt(getter.apply("chunk.max_count", "16")))//
+                    .pooling(getter.apply("chunk.pooling", "mean"))//
+                    .vectorFormat(getter.apply("vector_format", "json"))//
+                    .transport(getter.apply("transport", "curl"))//
+                    .maxConnections(Integer.parseInt(getter.apply("transport.max_connections", "100")))//
+                    .maxConnectionsPerRoute(Integer.parseInt(getter.apply("transport.max_connections_per_route", "20")))//
+                    .idleTimeout(Long.parseLong(getter.apply("transport.idle_timeout", "30000")))//
+                    .connectTimeout(Integer.parseInt(getter.apply("transport.connect_timeout", "3000")))//
+                    .readTimeout(Integer.parseInt(getter.apply("transport.read_timeout", "10000")))//
+                    .cacheSize(Integer.parseInt(getter.apply("cache.size", "1000")))//
+                    .cacheTtl(Long.parseLong(getter.apply("cache.ttl", "600000")))//
+                    .storePath(getter.apply("store.path", null))//
+                    .storeSize(Integer.parseInt(getter.apply("store.size", "100000")))//
+                    .batchSize(Integer.parseInt(getter.apply("batch.size", "32")))//
+                    .maxBatchBytes(Long.parseLong(getter.apply("batch.max_bytes", "1048576")))//
+                    .batchWindow(Long.parseLong(getter.apply("batch.window", "2")))//
+                    .asyncThreads(Integer.parseInt(getter.apply("async.threads", "16")))//
+                    .asyncQueueSize(Integer.parseInt(getter.apply("async.queue_size", "1000")))//
+                    .maxConcurrentRequests(Integer.parseInt(getter.apply("max_concurrent_requests", "32")))//
+                    .circuitBreaker(Integer.parseInt(getter.apply("circuit_breaker.failure_threshold", "5")),
+                            Long.parseLong(getter.apply("circuit_breaker.slow_call_threshold", "1000")),
+                            Long.parseLong(getter.apply("circuit_breaker.open_duration", "30000")));
+        }
 
-    protected void initialize() {
-        try (CurlResponse response = Curl.get(url).header("Content-Type", "application/json").execute()) {
-            if (response.getHttpStatusCode() == 200) {
-                final Map<String, Object> contentMap = response.getContent(OpenSearchCurl.jsonParser());
-                @SuppressWarnings("unchecked")
-                final List<String> values = (List<String>) contentMap.get("languages");
-                supportedLanguages = new HashSet<>(values);
-            } else {
-                logger.warn("Failed to access to {} : {}", url, response.getContentAsString());
+        public Builder engine(final String engine) {
+            if (StringUtil.isNotBlank(engine)) {
+                this.engine = engine.trim();
             }
-        } catch (final IOException e) {
-            logger.warn("Failed to access to {}", url, e);
+            return this;
+        }
+
+        public Builder modelPath(final String modelPath) {
+            this.modelPath = modelPath;
+            return this;
         }
-        emptyValue = new float[dimension];
-    }
 
-    public Optional<String> getLanguage(final Map<String, Object> input) {
-        final String lang = DocumentUtil.getValue(input, "lang", String.class);
-        if (StringUtil.isBlank(lang)) {
-            return Optional.empty();
+        public Builder modelVersion(final String modelVersion) {
+            this.modelVersion = modelVersion;
+            return this;
         }
 
-        if (!supportedLanguages.contains(lang)) {
-            if (logger.isDebugEnabled()) {
-                logger.debug("Unsupported lang: {}", lang);
+        public Builder languages(final String languages) {
+            final String[] values = StreamUtil.split(languages, ",")
+                    .get(stream -> stream.map(String::trim).filter(StringUtil::isNotEmpty).toArray(n -> new String[n]));
+            if (values.length > 0) {
+                this.languages = values;
             }
-            return Optional.empty();
+            return this;
         }
-        return Optional.of(lang);
-    }
 
-    public Map<String, float[]> vectorize(final Map<String, Object> input) {
-        final Optional<String> langOpt = getLanguage(input);
-        if (langOpt.isEmpty()) {
-            return Collections.emptyMap();
+        public Builder intraOpThreads(final int intraOpThreads) {
+            this.intraOpThreads = intraOpThreads;
+            return this;
         }
 
-        final StringBuilder bodyBuf = new StringBuilder(1000);
-        bodyBuf.append("{\"data\":[");
-        bodyBuf.append('{');
-        for (final String field : fields) {
-            final String value = DocumentUtil.getValue(input, field, String.class, StringUtil.EMPTY);
-            bodyBuf.append("\"").append(StringEscapeUtils.escapeJson(field)).append("\":\"").append(StringEscapeUtils.escapeJson(value))
-                    .append("\",");
+        public Builder maxSequenceLength(final int maxSequenceLength) {
+            this.maxSequenceLength = maxSequenceLength;
+            return this;
         }
-        bodyBuf.append("\"lang\":\"").append(StringEscapeUtils.escapeJson(langOpt.get())).append("\"");
-        bodyBuf.append('}');
-        bodyBuf.append("]}");
 
-        if (logger.isDebugEnabled()) {
-            logger.debug(">>> {}", bodyBuf.toString());
+        public Builder doLowerCase(final boolean doLowerCase) {
+            this.doLowerCase = doLowerCase;
+            return this;
         }
 
-        try (CurlResponse response =
-                Curl.post(url + "/vectorize").header("Content-Type", "application/json").body(bodyBuf.toString()).execute()) {
-            if (response.getHttpStatusCode() == 200) {
-                final Map<String, Object> contentMap = response.getContent(OpenSearchCurl.jsonParser());
-                if (logger.isDebugEnabled()) {
-                    logger.debug("<<< {}", response.getContentAsString());
-                }
-                @SuppressWarnings("unchecked")
-                final List<Map<String, Object>> results = (List<Map<String, Object>>) contentMap.get("results");
-                if (!results.isEmpty()) {
-                    final Map<String, Object> result = results.get(0);
-                    final Map<String, float[]> output = new HashMap<>(fields.length);
-                    for (final String field : fields) {
-                        @SuppressWarnings("unchecked")
-                        final List<Number> values = (List<Number>) result.get(field);
-                        final float[] data = new float[values.size()];
-                        for (int i = 0; i < data.length; i++) {
-                            data[i] = values.get(i).floatValue();
-                        }
-                        output.put(field, data);
-                    }
-                    return output;
-                }
-                logger.warn("No vectorizing data.");
-            } else {
-                logger.warn("Failed to vectorize: {}", response.getContentAsString());
+        public Builder normalize(final boolean normalize) {
+            this.normalize = normalize;
+            return this;
+        }
+
+        public Builder dimensionReduction(final String dimensionReduction) {
+            if (StringUtil.isNotBlank(dimensionReduction)) {
+                this.dimensionReduction = dimensionReduction.trim();
             }
-        } catch (final IOException e) {
-            logger.warn("Failed to access to {}", url, e);
+            return this;
         }
 
-        return Collections.emptyMap();
-    }
+        public Builder pcaFile(final String pcaFile) {
+            this.pcaFile = pcaFile;
+            return this;
+        }
 
-    public boolean isActive() {
-        try (CurlResponse response = Curl.get(url + "/ping").header("Content-Type", "application/json").execute()) {
-            if (response.getHttpStatusCode() != 200) {
-                return false;
-            }
-            final Map<String, Object> contentMap = response.getContent(OpenSearchCurl.jsonParser());
-            final Object status = contentMap.get("status");
-            if (!"ok".equals(status)) {
-                return false;
-            }
-        } catch (final IOException e) {
-            return false;
+        public Builder metrics(final VectorizerMetrics metrics) {
+            this.metrics = metrics;
+            return this;
         }
-        return true;
-    }
 
-    public String[] getLanguages() {
-        return supportedLanguages.toArray(n -> new String[n]);
-    }
+        public Builder url(final String url) {
+            final String[] values = StreamUtil.split(url, ",")
+                    .get(stream -> stream.map(String::trim).filter(StringUtil::isNotEmpty).toArray(n -> new String[n]));
+            if (values.length > 0) {
+                return urls(values);
+            }
+            return this;
+        }
 
-    public boolean isSupportedLanguage(final String lang) {
-        if (StringUtil.isEmpty(lang)) {
-            return false;
+        public Builder urls(final String... urls) {
+            this.urls = urls;
+            return this;
         }
-        if (supportedLanguages.contains(lang)) {
-            return true;
+
+        public Builder routing(final String routing) {
+            if (StringUtil.isNotBlank(routing)) {
+                this.routing = EndpointPool.Routing.valueOf(routing.trim().toUpperCase(Locale.ROOT));
+            }
+            return this;
         }
-        final String[] values = lang.split("-");
-        return supportedLanguages.contains(values[0]);
-    }
 
-    public String[] getFields() {
-        return fields;
-    }
+        public Builder healthCheckInterval(final long healthCheckInterval) {
+            this.healthCheckInterval = healthCheckInterval;
+            return this;
+        }
 
-    public static Builder create() {
-        return new Builder();
-    }
+        public Builder refreshInterval(final long refreshInterval) {
+            this.refreshInterval = refreshInterval;
+            return this;
+        }
 
-    public static class Builder {
-        private String url = "http://localhost:8900";
-        private String[] fields = { "content" };
-        private int dimension = 768;
+        public Builder maxBackoff(final long maxBackoff) {
+            this.maxBackoff = maxBackoff;
+            return this;
+        }
 
-        protected Builder() {
-            // nothing
+        public Builder initTimeout(final long initTimeout) {
+            this.initTimeout = initTimeout;
+            return this;
         }
 
-        public Builder url(final String url) {
-            if (StringUtil.isNotBlank(url)) {
-                this.url = url;
-            }
+        public Builder ejectionThreshold(final int ejectionThreshold) {
+            this.ejectionThreshold = ejectionThreshold;
             return this;
         }
 
@@ -208,12 +334,261 @@ public class Vectorizer {
             return this;
         }
 
+        public Builder cacheSize(final int cacheSize) {
+            this.cacheSize = cacheSize;
+            return this;
+        }
+
+        public Builder cacheTtl(final long cacheTtl) {
+            this.cacheTtl = cacheTtl;
+            return this;
+        }
+
+        public Builder storePath(final String storePath) {
+            this.storePath = storePath;
+            return this;
+        }
+
+        public Builder storeSize(final int storeSize) {
+            this.storeSize = storeSize;
+            return this;
+        }
+
+        public Builder batchSize(final int batchSize) {
+            this.batchSize = batchSize;
+            return this;
+        }
+
+        public Builder maxBatchBytes(final long maxBatchBytes) {
+            this.maxBatchBytes = maxBatchBytes;
+            return this;
+        }
+
+        public Builder asyncThreads(final int asyncThreads) {
+            this.asyncThreads = asyncThreads;
+            return this;
+        }
+
+        public Builder asyncQueueSize(final int asyncQueueSize) {
+            this.asyncQueueSize = asyncQueueSize;
+            return this;
+        }
+
+        public Builder batchWindow(final long batchWindow) {
+            this.batchWindow = batchWindow;
+            return this;
+        }
+
+        public Builder vectorFormat(final String vectorFormat) {
+            if (StringUtil.isNotBlank(vectorFormat)) {
+                this.vectorFormat = VectorFormat.of(vectorFormat.trim());
+            }
+            return this;
+        }
+
+        public Builder transport(final String transportType) {
+            if (StringUtil.isNotBlank(transportType)) {
+                this.transportType = transportType.trim();
+            }
+            return this;
+        }
+
+        public Builder transport(final VectorizerTransport transport) {
+            this.transport = transport;
+            return this;
+        }
+
+        public Builder maxConnections(final int maxConnections) {
+            this.maxConnections = maxConnections;
+            return this;
+        }
+
+        public Builder maxConnectionsPerRoute(final int maxConnectionsPerRoute) {
+            this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+            return this;
+        }
+
+        public Builder idleTimeout(final long idleTimeout) {
+            this.idleTimeout = idleTimeout;
+            return this;
+        }
+
+        public Builder connectTimeout(final int connectTimeout) {
+            this.connectTimeout = connectTimeout;
+            return this;
+        }
+
+        public Builder readTimeout(final int readTimeout) {
+            this.readTimeout = readTimeout;
+            return this;
+        }
+
+        public Builder maxConcurrentRequests(final int maxConcurrentRequests) {
+            this.maxConcurrentRequests = maxConcurrentRequests;
+            return this;
+        }
+
+        public Builder circuitBreaker(final int failureThreshold, final long slowCallThreshold, final long openDuration) {
+            this.failureThreshold = failureThreshold;
+            this.slowCallThreshold = slowCallThreshold;
+            this.openDuration = openDuration;
+            return this;
+        }
+
+        public Builder chunkUnit(final String chunkUnit) {
+            if (StringUtil.isNotBlank(chunkUnit)) {
+                this.chunkUnit = chunkUnit.trim();
+            }
+            return this;
+        }
+
+        public Builder chunkSize(final int chunkSize) {
+            this.chunkSize = chunkSize;
+            return this;
+        }
+
+        public Builder chunkOverlap(final int chunkOverlap) {
+            this.chunkOverlap = chunkOverlap;
+            return this;
+        }
+
+        public Builder maxChunks(final int maxChunks) {
+            this.maxChunks = maxChunks;
+            return this;
+        }
+
+        public Builder pooling(final String pooling) {
+            if (StringUtil.isNotBlank(pooling)) {
+                this.pooling = pooling.trim();
+            }
+            return this;
+        }
+
+        protected VectorizerTransport createTransport() {
+            if (transport != null) {
+                return transport;
+            }
+            switch (transportType) {
+            case "pooled":
+                return new PooledHttpTransport(maxConnections, maxConnectionsPerRoute, idleTimeout, connectTimeout, readTimeout);
+            case "http2":
+                return new Http2Transport(connectTimeout, readTimeout);
+            case "curl":
+                return new CurlTransport(connectTimeout, readTimeout);
+            default:
+                throw new IllegalArgumentException("Unknown transport: " + transportType);
+            }
+        }
+
+        protected AbstractVectorizer createVectorizer() {
+            switch (engine) {
+            case "remote":
+                final RemoteVectorizer remote = new RemoteVectorizer();
+                remote.endpointPool = new EndpointPool(urls, routing, ejectionThreshold);
+                remote.transport = createTransport();
+                remote.codec = new VectorizerCodec(fields, dimension);
+                remote.vectorFormat = vectorFormat;
+                remote.refreshInterval = refreshInterval;
+                remote.maxBackoff = Math.max(maxBackoff, RemoteVectorizer.INITIAL_BACKOFF);
+                remote.backoff = RemoteVectorizer.INITIAL_BACKOFF;
+                remote.healthCheckInterval = healthCheckInterval;
+                remote.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                    final Thread thread = new Thread(r, "VectorizerScheduler");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                return remote;
+            case "onnx":
+                if (StringUtil.isBlank(modelPath)) {
+                    throw new IllegalArgumentException("Model path is required for onnx engine.");
+                }
+                final OnnxVectorizer onnx = new OnnxVectorizer();
+                onnx.modelPath = Paths.get(modelPath);
+                onnx.languages = Set.of(languages);
+                onnx.intraOpThreads = intraOpThreads;
+                onnx.maxSequenceLength = maxSequenceLength;
+                onnx.doLowerCase = doLowerCase;
+                onnx.normalize = normalize;
+                return onnx;
+            default:
+                throw new IllegalArgumentException("Unknown engine: " + engine);
+            }
+        }
+
+        protected VectorReducer createReducer() {
+            switch (dimensionReduction) {
+            case "none":
+                return null;
+            case "truncate":
+                return VectorReducer.truncate(dimension);
+            case "pca":
+                if (StringUtil.isBlank(pcaFile)) {
+                    throw new IllegalArgumentException("PCA file is required for pca reduction.");
+                }
+                try {
+                    return VectorReducer.load(Paths.get(pcaFile), dimension);
+                } catch (final IOException e) {
+                    throw new IllegalStateException("Failed to load " + pcaFile, e);
+                }
+            default:
+                throw new IllegalArgumentException("Unknown dimension reduction: " + dimensionReduction);
+            }
+        }
+
+        /**
+         * Returns the identity of the model, which is the model version if it is set.
+         */
+        protected String getModelId() {
+            if (StringUtil.isNotBlank(modelVersion)) {
+                return modelVersion.trim();
+            }
+            return "onnx".equals(engine) ? engine + ":" + modelPath : engine;
+        }
+
         public Vectorizer build() {
-            final Vectorizer instance = new Vectorizer();
-            instance.url = this.url;
+            final AbstractVectorizer instance = createVectorizer();
             instance.fields = this.fields;
             instance.dimension = this.dimension;
+            instance.batchSize = this.batchSize;
+            instance.maxBatchBytes = this.maxBatchBytes;
+            instance.reducer = createReducer();
+            if (chunkSize > 0) {
+                instance.chunker = new PassageChunker(PassageChunker.Unit.of(chunkUnit), chunkSize, chunkOverlap, maxChunks,
+                        PassageChunker.Pooling.of(pooling));
+            }
+            final ThreadPoolExecutor executor = new ThreadPoolExecutor(asyncThreads, asyncThreads, 60L, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(asyncQueueSize), AbstractVectorizer.createThreadFactory());
+            executor.allowCoreThreadTimeOut(true);
+            instance.executor = executor;
+            if (batchWindow > 0) {
+                instance.batcher =
+                        new VectorizeBatcher(instance::vectorizeBatch, instance.executor, batchSize, batchWindow, asyncQueueSize);
+            }
+            if (maxConcurrentRequests > 0) {
+                instance.bulkhead = new Semaphore(maxConcurrentRequests);
+                instance.maxConcurrentRequests = maxConcurrentRequests;
+            }
+            if (failureThreshold > 0) {
+                instance.circuitBreaker = new CircuitBreaker(failureThreshold, slowCallThreshold, openDuration);
+            }
+            if (cacheSize > 0) {
+                instance.cache = new VectorCache(cacheSize, cacheTtl);
+            }
+            if (StringUtil.isNotBlank(storePath) && storeSize > 0) {
+                try {
+                    instance.store = EmbeddingStore.open(Paths.get(storePath), fields, dimension, storeSize, getModelId(), cacheTtl);
+                } catch (final IOException | IllegalArgumentException e) {
+                    logger.warn("Failed to open the embedding store: {}", storePath, e);
+                }
+            }
+            if (metrics != null) {
+                metrics.setCache(instance.cache);
+                instance.metrics = metrics;
+            }
             instance.initialize();
+            if (initTimeout > 0 && !instance.awaitInitialization(initTimeout)) {
+                logger.warn("Vectorizer is not initialized in {}ms.", initTimeout);
+            }
             return instance;
         }
     }
@@ -0,0 +1,304 @@
+/*
+ * Copyright 2012-2022 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.webapp.vectorizer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.codelibs.fess.util.DocumentUtil;
+import org.opensearch.common.xcontent.LoggingDeprecationHandler;
+import org.opensearch.common.xcontent.NamedXContentRegistry;
+import org.opensearch.common.xcontent.XContentBuilder;
+import org.opensearch.common.xcontent.XContentFactory;
+import org.opensearch.common.xcontent.XContentParser;
+import org.opensearch.common.xcontent.XContentParser.Token;
+import org.opensearch.common.xcontent.json.JsonXContent;
+
+/**
+ * Streaming JSON writer and reader for /vectorize payloads.
+ * Vectors are read into float arrays directly from the token stream,
+ * or decoded from base64 little-endian float32/float16 when the binary format is negotiated.
+ */
+public class VectorizerCodec {
+
+    protected static final int MAX_RETAINED_BUFFER_SIZE = 1024 * 1024;
+
+    protected static final ThreadLocal<BytesOutputStream> BUFFER = ThreadLocal.withInitial(() -> new BytesOutputStream(8192));
+
+    protected final String[] fields;
+
+    protected final int dimension;
+
+    protected volatile VectorFormat vectorFormat = VectorFormat.JSON;
+
+    public VectorizerCodec(final String[] fields, final int dimension) {
+        this.fields = fields;
+        this.dimension = dimension;
+    }
+
+    public VectorFormat getVectorFormat() {
+        return vectorFormat;
+    }
+
+    public void setVectorFormat(final VectorFormat vectorFormat) {
+        this.vectorFormat = vectorFormat;
+    }
+
+    public BytesOutputStream writeRequest(final List<Map<String, Object>> inputs, final List<String> langs) throws IOException {
+        return writeRequest(inputs, langs, vectorFormat);
+    }
+
+    /**
+     * Writes a request for the vector format, which must also be passed to {@link #readResponse(InputStream, VectorFormat)}
+     * as the format can be changed by a metadata refresh in the meantime.
+     */
+    public BytesOutputStream writeRequest(final List<Map<String, Object>> inputs, final List<String> langs, final VectorFormat format)
+            throws IOException {
+        BytesOutputStream out = BUFFER.get();
+        if (out.capacity() > MAX_RETAINED_BUFFER_SIZE) {
+            out = new BytesOutputStream(8192);
+            BUFFER.set(out);
+        }
+        out.reset();
+        writeRequest(out, inputs, langs, format);
+        return out;
+    }
+
+    public void writeRequest(final OutputStream out, final List<Map<String, Object>> inputs, final List<String> langs,
+            final VectorFormat format) throws IOException {
+        try (XContentBuilder builder = XContentFactory.jsonBuilder(out)) {
+            builder.startObject();
+            builder.startArray("data");
+            for (int i = 0; i < inputs.size(); i++) {
+                final Map<String, Object> input = inputs.get(i);
+                builder.startObject();
+                // an input of a passage or a query has only one of the fields
+                for (final String field : fields) {
+                    final String value = DocumentUtil.getValue(input, field, String.class);
+                    if (value != null) {
+                        builder.field(field, value);
+                    }
+                }
+                builder.field("lang", langs.get(i));
+                builder.endObject();
+            }
+            builder.endArray();
+            if (format != VectorFormat.JSON) {
+                builder.field("vector_format", format.getName());
+            }
+            builder.endObject();
+        }
+    }
+
+    public long estimateSize(final Map<String, Object> input) {
+        long size = 16;
+        for (final String field : fields) {
+            final String value = DocumentUtil.getValue(input, field, String.class);
+            if (value != null) {
+                size += field.length() + 6 + getUtf8Length(value);
+            }
+        }
+        return size;
+    }
+
+    public List<Map<String, float[]>> readResponse(final InputStream in) throws IOException {
+        return readResponse(in, vectorFormat);
+    }
+
+    public List<Map<String, float[]>> readResponse(final InputStream in, final VectorFormat format) throws IOException {
+        final List<Map<String, float[]>> outputs = new ArrayList<>();
+        try (XContentParser parser =
+                JsonXContent.jsonXContent.createParser(NamedXContentRegistry.EMPTY, LoggingDeprecationHandler.INSTANCE, in)) {
+            if (parser.nextToken() != Token.START_OBJECT) {
+                throw new IOException("Invalid response: " + parser.currentToken());
+            }
+            Token token;
+            while ((token = parser.nextToken()) == Token.FIELD_NAME) {
+                final String name = parser.currentName();
+                token = parser.nextToken();
+                if ("results".equals(name) && token == Token.START_ARRAY) {
+                    while (parser.nextToken() == Token.START_OBJECT) {
+                        outputs.add(readResult(parser, format));
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+        return outputs;
+    }
+
+    public Map<String, Object> readMap(final InputStream in) throws IOException {
+        try (XContentParser parser =
+                JsonXContent.jsonXContent.createParser(NamedXContentRegistry.EMPTY, LoggingDeprecationHandler.INSTANCE, in)) {
+            return parser.map();
+        }
+    }
+
+    protected Map<String, float[]> readResult(final XContentParser parser, final VectorFormat format) throws IOException {
+        final Map<String, float[]> output = new HashMap<>(fields.length);
+        while (parser.nextToken() == Token.FIELD_NAME) {
+            final String name = parser.currentName();
+            final Token token = parser.nextToken();
+            if (token == Token.START_ARRAY && isTargetField(name)) {
+                output.put(name, readVector(parser));
+            } else if (token == Token.VALUE_STRING && isTargetField(name)) {
+                output.put(name, decodeVector(parser.binaryValue(), format));
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return output;
+    }
+
+    protected float[] readVector(final XContentParser parser) throws IOException {
+        float[] values = new float[dimension > 0 ? dimension : 256];
+        int size = 0;
+        while (parser.nextToken() != Token.END_ARRAY) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, values.length * 2);
+            }
+            values[size++] = parser.floatValue();
+        }
+        return size == values.length ? values : Arrays.copyOf(values, size);
+    }
+
+    protected float[] decodeVector(final byte[] bytes, final VectorFormat format) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        switch (format) {
+        case BASE64_FLOAT32: {
+            final FloatBuffer floatBuffer = buffer.asFloatBuffer();
+            final float[] values = new float[floatBuffer.remaining()];
+            floatBuffer.get(values);
+            return values;
+        }
+        case BASE64_FLOAT16: {
+            final ShortBuffer shortBuffer = buffer.asShortBuffer();
+            final float[] values = new float[shortBuffer.remaining()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = toFloat(shortBuffer.get(i));
+            }
+            return values;
+        }
+        default:
+            throw new IOException("Unexpected binary vector for " + format.getName() + " format.");
+        }
+    }
+
+    protected static float toFloat(final short half) {
+        final int sign = (half & 0x8000) << 16;
+        final int exponent = (half >>> 10) & 0x1f;
+        int mantissa = half & 0x3ff;
+        if (exponent == 0x1f) {
+            // infinity or NaN
+            return Float.intBitsToFloat(sign | 0x7f800000 | (mantissa << 13));
+        }
+        if (exponent != 0) {
+            return Float.intBitsToFloat(sign | ((exponent + 112) << 23) | (mantissa << 13));
+        }
+        if (mantissa == 0) {
+            return Float.intBitsToFloat(sign);
+        }
+        // subnormal
+        int e = 113;
+        while ((mantissa & 0x400) == 0) {
+            mantissa <<= 1;
+            e--;
+        }
+        return Float.intBitsToFloat(sign | (e << 23) | ((mantissa & 0x3ff) << 13));
+    }
+
+    protected boolean isTargetField(final String name) {
+        for (final String field : fields) {
+            if (field.equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    protected static long getUtf8Length(final CharSequence value) {
+        long length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c)) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    public enum VectorFormat {
+        JSON("json"), BASE64_FLOAT32("base64_float32"), BASE64_FLOAT16("base64_float16");
+
+        private final String name;
+
+        VectorFormat(final String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public static VectorFormat of(final String name) {
+            for (final VectorFormat format : values()) {
+                if (format.name.equalsIgnoreCase(name)) {
+                    return format;
+                }
+            }
+            throw new IllegalArgumentException("Unknown vector format: " + name);
+        }
+    }
+
+    public static class BytesOutputStream extends ByteArrayOutputStream {
+        public BytesOutputStream(final int size) {
+            super(size);
+        }
+
+        public int capacity() {
+            return buf.length;
+        }
+
+        public byte[] getBuffer() {
+            return buf;
+        }
+
+        @Override
+        public String toString() {
+            return new String(buf, 0, count, StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright 2012-2022 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.webapp.vectorizer;
+
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToDoubleFunction;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.codelibs.fess.webapp.vectorizer.SemanticRoutingPolicy.Route;
+
+/**
+ * Counters and latency histograms of the vectorizer and semantic queries.
+ * Recording does not lock or allocate, except for the first record of a language.
+ */
+public class VectorizerMetrics implements VectorizerMetricsMXBean {
+
+    private static final Logger logger = LogManager.getLogger(VectorizerMetrics.class);
+
+    public static final String OBJECT_NAME = "org.codelibs.fess.webapp.vectorizer:type=VectorizerMetrics";
+
+    public enum FallbackReason {
+        /** the query context is not a VectorisingQueryContext */
+        INVALID_CONTEXT,
+        /** the vectorizer is not available */
+        NO_VECTORIZER,
+        /** no query language is supported */
+        UNSUPPORTED_LANGUAGE,
+        /** vectorizing failed, timed out or returned no vector */
+        EMPTY_VECTOR,
+        /** the query vector does not match the quantization ranges */
+        INVALID_VECTOR
+    }
+
+    protected final LatencyHistogram latency = new LatencyHistogram();
+
+    protected final Map<String, LatencyHistogram> latencyByLanguage = new ConcurrentHashMap<>();
+
+    protected final LongAdder requestCount = new LongAdder();
+
+    protected final LongAdder errorCount = new LongAdder();
+
+    protected final LongAdder timeoutCount = new LongAdder();
+
+    protected final LongAdder rejectedCount = new LongAdder();
+
+    protected final LongAdder requestBytes = new LongAdder();
+
+    protected final LongAdder responseBytes = new LongAdder();
+
+    protected final LongAdder[] fallbackCounts = new LongAdder[FallbackReason.values().length];
+
+    protected final LongAdder[] routeCounts = new LongAdder[Route.values().length];
+
+    protected volatile VectorCache cache;
+
+    protected ObjectName objectName;
+
+    public VectorizerMetrics() {
+        for (int i = 0; i < fallbackCounts.length; i++) {
+            fallbackCounts[i] = new LongAdder();
+        }
+        for (int i = 0; i < routeCounts.length; i++) {
+            routeCounts[i] = new LongAdder();
+        }
+    }
+
+    public void recordExecution(final String lang, final long elapsedNanos, final boolean succeeded) {
+        requestCount.increment();
+        if (!succeeded) {
+            errorCount.increment();
+            return;
+        }
+        latency.record(elapsedNanos);
+        LatencyHistogram histogram = latencyByLanguage.get(lang);
+        if (histogram == null) {
+            histogram = latencyByLanguage.computeIfAbsent(lang, k -> new LatencyHistogram());
+        }
+        histogram.record(elapsedNanos);
+    }
+
+    public void recordBytes(final long request, final long response) {
+        requestBytes.add(request);
+        responseBytes.add(response);
+    }
+
+    public void recordTimeout() {
+        timeoutCount.increment();
+    }
+
+    public void recordRejected() {
+        rejectedCount.increment();
+    }
+
+    public void recordFallback(final FallbackReason reason) {
+        fallbackCounts[reason.ordinal()].increment();
+    }
+
+    public void recordRoute(final Route route) {
+        routeCounts[route.ordinal()].increment();
+    }
+
+    public void setCache(final VectorCache cache) {
+        this.cache = cache;
+    }
+
+    public void register() {
+        try {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            final ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(this, name);
+            objectName = name;
+        } catch (final Exception e) {
+            logger.warn("Failed to register {}", OBJECT_NAME, e);
+        }
+    }
+
+    public void unregister() {
+        if (objectName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (final Exception e) {
+            logger.warn("Failed to unregister {}", objectName, e);
+        }
+        objectName = null;
+    }
+
+    @Override
+    public long getRequestCount() {
+        return requestCount.sum();
+    }
+
+    @Override
+    public long getErrorCount() {
+        return errorCount.sum();
+    }
+
+    @Override
+    public long getTimeoutCount() {
+        return timeoutCount.sum();
+    }
+
+    @Override
+    public long getRejectedCount() {
+        return rejectedCount.sum();
+    }
+
+    @Override
+    public long getRequestBytes() {
+        return requestBytes.sum();
+    }
+
+    @Override
+    public long getResponseBytes() {
+        return responseBytes.sum();
+    }
+
+    @Override
+    public double getLatencyP50() {
+        return latency.getPercentile(50);
+    }
+
+    @Override
+    public double getLatencyP95() {
+        return latency.getPercentile(95);
+    }
+
+    @Override
+    public double getLatencyP99() {
+        return latency.getPercentile(99);
+    }
+
+    @Override
+    public Map<String, Double> getLatencyP50ByLanguage() {
+        return getLatencyByLanguage(h -> h.getPercentile(50));
+    }
+
+    @Override
+    public Map<String, Double> getLatencyP95ByLanguage() {
+        return getLatencyByLanguage(h -> h.getPercentile(95));
+    }
+
+    @Override
+    public Map<String, Double> getLatencyP99ByLanguage() {
+        return getLatencyByLanguage(h -> h.getPercentile(99));
+    }
+
+    protected Map<String, Double> getLatencyByLanguage(final ToDoubleFunction<LatencyHistogram> func) {
+        final Map<String, Double> map = new TreeMap<>();
+        latencyByLanguage.forEach((lang, histogram) -> map.put(lang, func.applyAsDouble(histogram)));
+        return map;
+    }
+
+    @Override
+    public Map<String, Long> getFallbackCounts() {
+        final Map<String, Long> map = new TreeMap<>();
+        for (final FallbackReason reason : FallbackReason.values()) {
+            map.put(reason.name().toLowerCase(Locale.ROOT), fallbackCounts[reason.ordinal()].sum());
+        }
+        return map;
+    }
+
+    public long getFallbackCount(final FallbackReason reason) {
+        return fallbackCounts[reason.ordinal()].sum();
+    }
+
+    @Override
+    public Map<String, Long> getRouteCounts() {
+        final Map<String, Long> map = new TreeMap<>();
+        for (final Route route : Route.values()) {
+            map.put(route.name().toLowerCase(Locale.ROOT), routeCounts[route.ordinal()].sum());
+        }
+        return map;
+    }
+
+    public long getRouteCount(final Route route) {
+        return routeCounts[route.ordinal()].sum();
+    }
+
+    @Override
+    public long getCacheHitCount() {
+        final VectorCache c = cache;
+        return c != null ? c.getHitCount() : 0;
+    }
+
+    @Override
+    public long getCacheMissCount() {
+        final VectorCache c = cache;
+        return c != null ? c.getMissCount() : 0;
+    }
+
+    @Override
+    public long getCacheEvictionCount() {
+        final VectorCache c = cache;
+        return c != null ? c.getEvictionCount() : 0;
+    }
+
+    @Override
+    public int getCacheSize() {
+        final VectorCache c = cache;
+        return c != null ? c.size() : 0;
+    }
+
+    @Override
+    public String toString() {
+        return "VectorizerMetrics [requests=" + getRequestCount() + ", errors=" + getErrorCount() + ", timeouts=" + getTimeoutCount()
+                + ", rejected=" + getRejectedCount() + ", p50=" + getLatencyP50() + "ms, p95=" + getLatencyP95() + "ms, p99="
+                + getLatencyP99() + "ms, fallbacks=" + getFallbackCounts() + ", routes=" + getRouteCounts() + "]";
+    }
+}
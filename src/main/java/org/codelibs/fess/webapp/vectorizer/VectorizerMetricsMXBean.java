@@ -0,0 +1,60 @@
+/*
+ * Copyright 2012-2022 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.webapp.vectorizer;
+
+import java.util.Map;
+
+/**
+ * JMX view of {@link VectorizerMetrics}. Latencies are in milliseconds.
+ */
+public interface VectorizerMetricsMXBean {
+
+    long getRequestCount();
+
+    long getErrorCount();
+
+    long getTimeoutCount();
+
+    long getRejectedCount();
+
+    long getRequestBytes();
+
+    long getResponseBytes();
+
+    double getLatencyP50();
+
+    double getLatencyP95();
+
+    double getLatencyP99();
+
+    Map<String, Double> getLatencyP50ByLanguage();
+
+    Map<String, Double> getLatencyP95ByLanguage();
+
+    Map<String, Double> getLatencyP99ByLanguage();
+
+    Map<String, Long> getFallbackCounts();
+
+    Map<String, Long> getRouteCounts();
+
+    long getCacheHitCount();
+
+    long getCacheMissCount();
+
+    long getCacheEvictionCount();
+
+    int getCacheSize();
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2012-2022 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.webapp.vectorizer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * HTTP transport used by {@link RemoteVectorizer} to access a vectorizer server.
+ */
+public interface VectorizerTransport {
+
+    Response get(String url) throws IOException;
+
+    Response post(String url, byte[] body, int length) throws IOException;
+
+    Stats getStats();
+
+    void close();
+
+    /**
+     * A response of the vectorizer server. The content can be read only once.
+     */
+    interface Response extends Closeable {
+
+        int getStatusCode();
+
+        InputStream getContentAsStream() throws IOException;
+
+        String getContentAsString() throws IOException;
+    }
+
+    class Stats {
+        private final long requestCount;
+
+        private final long connectionCount;
+
+        public Stats(final long requestCount, final long connectionCount) {
+            this.requestCount = requestCount;
+            this.connectionCount = connectionCount;
+        }
+
+        public long getRequestCount() {
+            return requestCount;
+        }
+
+        /**
+         * @return the number of opened connections, or -1 if the transport does not track them.
+         */
+        public long getConnectionCount() {
+            return connectionCount;
+        }
+
+        public long getReusedCount() {
+            return connectionCount < 0 ? -1 : Math.max(requestCount - connectionCount, 0);
+        }
+
+        @Override
+        public String toString() {
+            return "Stats [requestCount=" + requestCount + ", connectionCount=" + connectionCount + ", reusedCount=" + getReusedCount()
+                    + "]";
+        }
+    }
+}
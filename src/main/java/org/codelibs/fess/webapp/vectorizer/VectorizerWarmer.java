@@ -0,0 +1,274 @@
+/*
+ * Copyright 2012-2022 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.webapp.vectorizer;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.codelibs.core.lang.StringUtil;
+
+/**
+ * Vectorizes popular queries in the background after startup, so that they are in the cache and the store
+ * before users search them. Calls are rate-limited and use at most a share of the vectorizer capacity.
+ * Popular queries are the top ones of each language, and queries of a file are added to them.
+ */
+public class VectorizerWarmer implements Runnable, AutoCloseable {
+
+    private static final Logger logger = LogManager.getLogger(VectorizerWarmer.class);
+
+    private static final long POLL_INTERVAL = 1000L;
+
+    private static final long CALL_TIMEOUT = 30000L;
+
+    protected final Vectorizer vectorizer;
+
+    protected final BiFunction<String, String, Map<String, Object>> inputFactory;
+
+    protected Path file;
+
+    protected Supplier<Map<String, List<String>>> popularQuerySupplier;
+
+    protected int size = 100;
+
+    protected String[] languages;
+
+    protected double rate = 20.0;
+
+    protected double maxShare = 0.25;
+
+    protected long delay = 30000L;
+
+    protected volatile boolean closed;
+
+    protected Thread thread;
+
+    protected volatile int totalCount;
+
+    protected volatile int warmedCount;
+
+    protected volatile int failedCount;
+
+    /**
+     * @param inputFactory creates the vectorizer input of a query from (lang, text)
+     */
+    public VectorizerWarmer(final Vectorizer vectorizer, final BiFunction<String, String, Map<String, Object>> inputFactory) {
+        this.vectorizer = vectorizer;
+        this.inputFactory = inputFactory;
+    }
+
+    public synchronized void start() {
+        if (thread != null) {
+            return;
+        }
+        thread = new Thread(this, "VectorizerWarmer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void run() {
+        try {
+            sleep(delay);
+            while (!vectorizer.isActive() || vectorizer.getLanguages().length == 0) {
+                sleep(POLL_INTERVAL);
+            }
+            final List<String[]> queries = loadQueries();
+            totalCount = queries.size();
+            final Map<String, Integer> counts = new TreeMap<>();
+            queries.forEach(query -> counts.merge(query[0], 1, Integer::sum));
+            logger.info("Warming up {} queries: {}", totalCount, counts);
+            final long startTime = System.currentTimeMillis();
+            warmUp(queries);
+            logger.info("Warmed up {} queries in {}ms: failed={}", warmedCount, System.currentTimeMillis() - startTime, failedCount);
+        } catch (final InterruptedException e) {
+            logger.info("Stopped warming up: warmed={}, failed={}, total={}", warmedCount, failedCount, totalCount);
+        } catch (final Exception e) {
+            logger.warn("Failed to warm up.", e);
+        }
+    }
+
+    protected void warmUp(final List<String[]> queries) throws InterruptedException {
+        final int capacity = getAvailableConcurrency();
+        final int chunkSize = capacity == Integer.MAX_VALUE ? 8 : Math.max(1, (int) (capacity * maxShare));
+        int pos = 0;
+        while (pos < queries.size()) {
+            // yield to user queries while they leave less than a chunk of the capacity
+            while (getAvailableConcurrency() < chunkSize) {
+                sleep(POLL_INTERVAL / 10);
+            }
+            final long startTime = System.nanoTime();
+            final List<String[]> chunk = queries.subList(pos, Math.min(pos + chunkSize, queries.size()));
+            final List<CompletableFuture<Map<String, float[]>>> futures = new ArrayList<>(chunk.size());
+            for (final String[] query : chunk) {
+                futures.add(vectorizer.vectorizeAsync(inputFactory.apply(query[0], query[1])));
+            }
+            for (final CompletableFuture<Map<String, float[]>> future : futures) {
+                checkClosed();
+                try {
+                    if (future.get(CALL_TIMEOUT, TimeUnit.MILLISECONDS).isEmpty()) {
+                        failedCount++;
+                    } else {
+                        warmedCount++;
+                    }
+                } catch (final ExecutionException | TimeoutException e) {
+                    failedCount++;
+                }
+            }
+            pos += chunk.size();
+            if (logger.isDebugEnabled()) {
+                logger.debug("Warming up: {}/{}", pos, queries.size());
+            }
+            sleep(TimeUnit.NANOSECONDS.toMillis(startTime + (long) (chunk.size() * 1_000_000_000L / rate) - System.nanoTime()));
+        }
+    }
+
+    protected List<String[]> loadQueries() throws IOException {
+        final String[] langs = languages != null && languages.length > 0 ? languages : vectorizer.getLanguages();
+        final Set<List<String>> queries = new LinkedHashSet<>();
+        if (file != null) {
+            for (final String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                final int pos = line.indexOf('\t');
+                if (pos >= 0) {
+                    addQuery(queries, line.substring(0, pos).trim(), line.substring(pos + 1));
+                } else {
+                    for (final String lang : langs) {
+                        addQuery(queries, lang, line);
+                    }
+                }
+            }
+        }
+        if (popularQuerySupplier != null && size > 0) {
+            final List<String> targetLangs = Arrays.asList(langs);
+            popularQuerySupplier.get().forEach((lang, texts) -> {
+                if (targetLangs.contains(lang)) {
+                    texts.stream().limit(size).forEach(text -> addQuery(queries, lang, text));
+                }
+            });
+        }
+        final List<String[]> list = new ArrayList<>(queries.size());
+        for (final List<String> query : queries) {
+            list.add(query.toArray(n -> new String[n]));
+        }
+        return list;
+    }
+
+    protected void addQuery(final Set<List<String>> queries, final String lang, final String text) {
+        final String value = text.trim();
+        if (StringUtil.isNotBlank(value) && vectorizer.isSupportedLanguage(lang)) {
+            queries.add(List.of(lang, value));
+        }
+    }
+
+    protected int getAvailableConcurrency() {
+        if (vectorizer instanceof final AbstractVectorizer abstractVectorizer) {
+            return abstractVectorizer.getAvailableConcurrency();
+        }
+        return Integer.MAX_VALUE;
+    }
+
+    protected void sleep(final long time) throws InterruptedException {
+        checkClosed();
+        if (time > 0) {
+            Thread.sleep(time);
+        }
+        checkClosed();
+    }
+
+    protected void checkClosed() throws InterruptedException {
+        if (closed || Thread.currentThread().isInterrupted()) {
+            throw new InterruptedException("Warmer is closed.");
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    public void setFile(final Path file) {
+        this.file = file;
+    }
+
+    /**
+     * @param popularQuerySupplier returns queries of each language in descending order of their frequency
+     */
+    public void setPopularQuerySupplier(final Supplier<Map<String, List<String>>> popularQuerySupplier) {
+        this.popularQuerySupplier = popularQuerySupplier;
+    }
+
+    public void setSize(final int size) {
+        this.size = size;
+    }
+
+    public void setLanguages(final String[] languages) {
+        this.languages = languages;
+    }
+
+    public void setRate(final double rate) {
+        if (rate <= 0) {
+            throw new IllegalArgumentException("rate must be positive: " + rate);
+        }
+        this.rate = rate;
+    }
+
+    public void setMaxShare(final double maxShare) {
+        if (maxShare <= 0 || maxShare > 1) {
+            throw new IllegalArgumentException("maxShare must be in (0, 1]: " + maxShare);
+        }
+        this.maxShare = maxShare;
+    }
+
+    public void setDelay(final long delay) {
+        this.delay = delay;
+    }
+
+    public int getTotalCount() {
+        return totalCount;
+    }
+
+    public int getWarmedCount() {
+        return warmedCount;
+    }
+
+    public int getFailedCount() {
+        return failedCount;
+    }
+
+    @Override
+    public String toString() {
+        return "VectorizerWarmer [total=" + totalCount + ", warmed=" + warmedCount + ", failed=" + failedCount + "]";
+    }
+}
@@ -0,0 +1,362 @@
+/*
+ * Copyright 2012-2022 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.webapp.vectorizer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.PreDestroy;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.codelibs.core.io.SerializeUtil;
+import org.codelibs.core.lang.StringUtil;
+import org.codelibs.fess.crawler.entity.ResponseData;
+import org.codelibs.fess.crawler.entity.ResultData;
+import org.codelibs.fess.entity.DataStoreParams;
+import org.codelibs.fess.ingest.Ingester;
+import org.codelibs.fess.util.ComponentUtil;
+import org.codelibs.fess.util.DocumentUtil;
+
+/**
+ * Fills the vector fields of documents before they are indexed.
+ * Documents of concurrent crawler threads are collected into batches through a bounded queue, and each worker keeps one
+ * batch request in flight. A crawler thread blocks while the queue is full. A document failing to be vectorized is
+ * indexed without the vector fields, and counted.
+ */
+public class VectorizingIngester extends Ingester {
+
+    private static final Logger logger = LogManager.getLogger(VectorizingIngester.class);
+
+    private static final String LANG_FIELD = "lang";
+
+    private static final String URL_FIELD = "url";
+
+    private static final String SYSTEM_PROPERTY_PREFIX = "semantic_search.vectorizer.";
+
+    protected volatile Vectorizer vectorizer;
+
+    protected String fieldSuffix = "_vector";
+
+    protected String modelField = "vector_model";
+
+    protected String modelVersion;
+
+    protected int batchSize = 32;
+
+    protected int queueSize = 1000;
+
+    protected int concurrency = 4;
+
+    protected long timeout = 60000L;
+
+    protected long initTimeout = 60000L;
+
+    protected BlockingQueue<Task> queue;
+
+    protected final List<Thread> workers = new ArrayList<>();
+
+    protected volatile boolean closed;
+
+    protected final LongAdder vectorizedCount = new LongAdder();
+
+    protected final LongAdder skippedCount = new LongAdder();
+
+    protected final LongAdder failedCount = new LongAdder();
+
+    @Override
+    public void register() {
+        if (!Boolean.parseBoolean(getSystemProperty("indexing.enabled", "false"))) {
+            return;
+        }
+        batchSize = Integer.parseInt(getSystemProperty("indexing.batch_size", Integer.toString(batchSize)));
+        queueSize = Integer.parseInt(getSystemProperty("indexing.queue_size", Integer.toString(queueSize)));
+        concurrency = Integer.parseInt(getSystemProperty("indexing.concurrency", Integer.toString(concurrency)));
+        timeout = Long.parseLong(getSystemProperty("indexing.timeout", Long.toString(timeout)));
+        initTimeout = Long.parseLong(getSystemProperty("indexing.init_timeout", Long.toString(initTimeout)));
+        modelField = getSystemProperty("model_field", modelField);
+        modelVersion = getSystemProperty("model_version", null);
+        super.register();
+    }
+
+    @PreDestroy
+    public void destroy() {
+        final Vectorizer current;
+        synchronized (this) {
+            closed = true;
+            workers.forEach(Thread::interrupt);
+            workers.clear();
+            current = vectorizer;
+        }
+        if (queue != null) {
+            final List<Task> tasks = new ArrayList<>();
+            queue.drainTo(tasks);
+            tasks.forEach(task -> task.future.completeExceptionally(new IllegalStateException("The ingester is closed.")));
+        }
+        if (current != null) {
+            current.close();
+        }
+    }
+
+    protected String getSystemProperty(final String key, final String defaultValue) {
+        return ComponentUtil.getFessConfig().getSystemProperty(SYSTEM_PROPERTY_PREFIX + key, defaultValue);
+    }
+
+    public synchronized void start(final Vectorizer newVectorizer) {
+        if (closed || vectorizer != null) {
+            return;
+        }
+        queue = new ArrayBlockingQueue<>(queueSize);
+        for (int i = 0; i < concurrency; i++) {
+            final Thread worker = new Thread(this::runWorker, "VectorizingIngester-" + i);
+            worker.setDaemon(true);
+            worker.start();
+            workers.add(worker);
+        }
+        vectorizer = newVectorizer;
+        logger.info("Vectorizing ingester is started: batchSize={}, queueSize={}, concurrency={}", batchSize, queueSize, concurrency);
+    }
+
+    /**
+     * Returns the vectorizer created on the first document, so that a process without crawling creates nothing.
+     */
+    protected Vectorizer getVectorizer() {
+        Vectorizer current = vectorizer;
+        if (current == null && !closed) {
+            synchronized (this) {
+                if (vectorizer == null && !closed) {
+                    start(createVectorizer());
+                }
+                current = vectorizer;
+            }
+        }
+        return current;
+    }
+
+    protected Vectorizer createVectorizer() {
+        return Vectorizer.create()//
+                .properties(this::getSystemProperty)//
+                // documents are batched by the queue, and vectorized only once
+                .batchSize(batchSize)//
+                .batchWindow(0L)//
+                .cacheSize(0)//
+                // the store file is owned by the search process
+                .storePath(null)//
+                // the supported languages are unknown until the metadata is loaded
+                .initTimeout(initTimeout)//
+                .build();
+    }
+
+    @Override
+    public ResultData process(final ResultData target, final ResponseData responseData) {
+        final byte[] data = target.getData();
+        if (data == null) {
+            return target;
+        }
+        final Object value;
+        try {
+            value = SerializeUtil.fromBinaryToObject(data);
+        } catch (final Exception e) {
+            logger.warn("Failed to read the data of {}", responseData.getUrl(), e);
+            return target;
+        }
+        if (value instanceof Map) {
+            @SuppressWarnings("unchecked")
+            final Map<String, Object> doc = (Map<String, Object>) value;
+            if (vectorize(doc)) {
+                target.setData(SerializeUtil.fromObjectToBinary(doc));
+            }
+        }
+        return target;
+    }
+
+    @Override
+    public Map<String, Object> process(final Map<String, Object> target, final DataStoreParams params) {
+        vectorize(target);
+        return target;
+    }
+
+    /**
+     * Adds the vector fields to the document, and returns true if they are added. This method blocks while the queue is full.
+     */
+    public boolean vectorize(final Map<String, Object> doc) {
+        final Vectorizer current = getVectorizer();
+        if (current == null) {
+            return false;
+        }
+        if (!current.isInitialized()) {
+            recordFailure(doc, "the vectorizer is not initialized");
+            return false;
+        }
+        final String lang = DocumentUtil.getValue(doc, LANG_FIELD, String.class);
+        if (!current.isSupportedLanguage(lang)) {
+            skippedCount.increment();
+            return false;
+        }
+        final Map<String, Object> input = new HashMap<>();
+        for (final String field : current.getFields()) {
+            if (doc.containsKey(field + "_" + lang + fieldSuffix)) {
+                continue;
+            }
+            final String text = DocumentUtil.getValue(doc, field, String.class);
+            if (StringUtil.isNotBlank(text)) {
+                input.put(field, text);
+            }
+        }
+        if (input.isEmpty()) {
+            skippedCount.increment();
+            return false;
+        }
+        input.put(LANG_FIELD, lang);
+
+        final Task task = new Task(input);
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        try {
+            if (!queue.offer(task, timeout, TimeUnit.MILLISECONDS)) {
+                recordFailure(doc, "the queue is full");
+                return false;
+            }
+            final Map<String, float[]> output = task.future.get(Math.max(deadline - System.nanoTime(), 0L), TimeUnit.NANOSECONDS);
+            if (output.isEmpty()) {
+                recordFailure(doc, "no vector is returned");
+                return false;
+            }
+            output.forEach((field, vector) -> doc.put(field + "_" + lang + fieldSuffix, vector));
+            if (StringUtil.isNotBlank(modelVersion)) {
+                doc.put(modelField, modelVersion);
+            }
+            vectorizedCount.increment();
+            return true;
+        } catch (final TimeoutException e) {
+            task.future.cancel(false);
+            recordFailure(doc, "timed out in " + timeout + "ms");
+        } catch (final ExecutionException e) {
+            recordFailure(doc, String.valueOf(e.getCause()));
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            task.future.cancel(false);
+            recordFailure(doc, "interrupted");
+        }
+        return false;
+    }
+
+    protected void recordFailure(final Map<String, Object> doc, final String reason) {
+        failedCount.increment();
+        logger.warn("Failed to vectorize {}: {}", DocumentUtil.getValue(doc, URL_FIELD, String.class), reason);
+    }
+
+    protected void runWorker() {
+        final List<Task> tasks = new ArrayList<>(batchSize);
+        while (!closed) {
+            try {
+                final Task task = queue.poll(1L, TimeUnit.SECONDS);
+                if (task == null) {
+                    continue;
+                }
+                tasks.add(task);
+                queue.drainTo(tasks, batchSize - 1);
+                // skip documents whose callers gave up
+                tasks.removeIf(t -> t.future.isDone());
+                if (!tasks.isEmpty()) {
+                    execute(tasks);
+                }
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } finally {
+                tasks.clear();
+            }
+        }
+    }
+
+    protected void execute(final List<Task> tasks) {
+        final List<Map<String, Object>> inputs = new ArrayList<>(tasks.size());
+        tasks.forEach(task -> inputs.add(task.input));
+        try {
+            final List<Map<String, float[]>> outputs = vectorizer.vectorizeBatch(inputs);
+            for (int i = 0; i < tasks.size(); i++) {
+                tasks.get(i).future.complete(i < outputs.size() ? outputs.get(i) : Collections.emptyMap());
+            }
+        } catch (final Exception e) {
+            tasks.forEach(task -> task.future.completeExceptionally(e));
+        }
+    }
+
+    public long getVectorizedCount() {
+        return vectorizedCount.sum();
+    }
+
+    public long getSkippedCount() {
+        return skippedCount.sum();
+    }
+
+    public long getFailedCount() {
+        return failedCount.sum();
+    }
+
+    public int getQueueSize() {
+        return queue != null ? queue.size() : 0;
+    }
+
+    public void setFieldSuffix(final String fieldSuffix) {
+        this.fieldSuffix = fieldSuffix;
+    }
+
+    public void setModelVersion(final String modelVersion) {
+        this.modelVersion = modelVersion;
+    }
+
+    public void setBatchSize(final int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public void setQueueSize(final int queueSize) {
+        this.queueSize = queueSize;
+    }
+
+    public void setConcurrency(final int concurrency) {
+        this.concurrency = concurrency;
+    }
+
+    public void setTimeout(final long timeout) {
+        this.timeout = timeout;
+    }
+
+    public void setInitTimeout(final long initTimeout) {
+        this.initTimeout = initTimeout;
+    }
+
+    protected static class Task {
+
+        protected final Map<String, Object> input;
+
+        protected final CompletableFuture<Map<String, float[]>> future = new CompletableFuture<>();
+
+        protected Task(final Map<String, Object> input) {
+            this.input = input;
+        }
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright 2012-2022 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.webapp.vectorizer;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * BERT WordPiece tokenizer for a vocab.txt file.
+ */
+public class WordPieceTokenizer {
+
+    protected static final int MAX_CHARS_PER_WORD = 100;
+
+    protected final Map<String, Integer> vocab;
+
+    protected final boolean doLowerCase;
+
+    protected final int unkId;
+
+    protected final int clsId;
+
+    protected final int sepId;
+
+    protected final int padId;
+
+    public WordPieceTokenizer(final Map<String, Integer> vocab, final boolean doLowerCase) {
+        this.vocab = vocab;
+        this.doLowerCase = doLowerCase;
+        unkId = getTokenId("[UNK]");
+        clsId = getTokenId("[CLS]");
+        sepId = getTokenId("[SEP]");
+        padId = vocab.getOrDefault("[PAD]", 0);
+    }
+
+    public static WordPieceTokenizer load(final Path vocabFile, final boolean doLowerCase) throws IOException {
+        final Map<String, Integer> vocab = new HashMap<>();
+        try (BufferedReader reader = Files.newBufferedReader(vocabFile, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                vocab.putIfAbsent(line.trim(), vocab.size());
+            }
+        }
+        return new WordPieceTokenizer(vocab, doLowerCase);
+    }
+
+    protected int getTokenId(final String token) {
+        final Integer id = vocab.get(token);
+        if (id == null) {
+            throw new IllegalArgumentException(token + " is not in the vocabulary.");
+        }
+        return id;
+    }
+
+    /**
+     * Returns token ids with [CLS] and [SEP], truncated to maxLength.
+     */
+    public int[] encode(final String text, final int maxLength) {
+        final List<Integer> ids = new ArrayList<>();
+        ids.add(clsId);
+        for (final String token : basicTokenize(text)) {
+            if (ids.size() >= maxLength - 1) {
+                break;
+            }
+            wordPiece(token, ids);
+        }
+        final int length = Math.min(ids.size(), maxLength - 1);
+        final int[] values = new int[length + 1];
+        for (int i = 0; i < length; i++) {
+            values[i] = ids.get(i);
+        }
+        values[length] = sepId;
+        return values;
+    }
+
+    protected List<String> basicTokenize(final String text) {
+        String value = text;
+        if (doLowerCase) {
+            value = Normalizer.normalize(value.toLowerCase(Locale.ROOT), Normalizer.Form.NFD);
+        }
+        final List<String> tokens = new ArrayList<>();
+        final StringBuilder buf = new StringBuilder();
+        for (int i = 0; i < value.length();) {
+            final int c = value.codePointAt(i);
+            i += Character.charCount(c);
+            if (doLowerCase && Character.getType(c) == Character.NON_SPACING_MARK || c == 0 || c == 0xfffd
+                    || Character.isISOControl(c) && !Character.isWhitespace(c)) {
+                continue;
+            }
+            if (Character.isWhitespace(c) || Character.isSpaceChar(c)) {
+                flush(buf, tokens);
+            } else if (isPunctuation(c) || isCjk(c)) {
+                flush(buf, tokens);
+                tokens.add(new String(Character.toChars(c)));
+            } else {
+                buf.appendCodePoint(c);
+            }
+        }
+        flush(buf, tokens);
+        return tokens;
+    }
+
+    protected void wordPiece(final String token, final List<Integer> ids) {
+        if (token.length() > MAX_CHARS_PER_WORD) {
+            ids.add(unkId);
+            return;
+        }
+        final List<Integer> subIds = new ArrayList<>();
+        int start = 0;
+        while (start < token.length()) {
+            int end = token.length();
+            Integer id = null;
+            while (start < end) {
+                final String piece = start > 0 ? "##" + token.substring(start, end) : token.substring(start, end);
+                id = vocab.get(piece);
+                if (id != null) {
+                    break;
+                }
+                end--;
+            }
+            if (id == null) {
+                ids.add(unkId);
+                return;
+            }
+            subIds.add(id);
+            start = end;
+        }
+        ids.addAll(subIds);
+    }
+
+    private static void flush(final StringBuilder buf, final List<String> tokens) {
+        if (buf.length() > 0) {
+            tokens.add(buf.toString());
+            buf.setLength(0);
+        }
+    }
+
+    protected static boolean isPunctuation(final int c) {
+        if (c >= 33 && c <= 47 || c >= 58 && c <= 64 || c >= 91 && c <= 96 || c >= 123 && c <= 126) {
+            return true;
+        }
+        switch (Character.getType(c)) {
+        case Character.CONNECTOR_PUNCTUATION:
+        case Character.DASH_PUNCTUATION:
+        case Character.START_PUNCTUATION:
+        case Character.END_PUNCTUATION:
+        case Character.INITIAL_QUOTE_PUNCTUATION:
+        case Character.FINAL_QUOTE_PUNCTUATION:
+        case Character.OTHER_PUNCTUATION:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    protected static boolean isCjk(final int c) {
+        return c >= 0x4E00 && c <= 0x9FFF || c >= 0x3400 && c <= 0x4DBF || c >= 0x20000 && c <= 0x2A6DF || c >= 0x2A700 && c <= 0x2B73F
+                || c >= 0x2B740 && c <= 0x2B81F || c >= 0x2B820 && c <= 0x2CEAF || c >= 0xF900 && c <= 0xFAFF
+                || c >= 0x2F800 && c <= 0x2FA1F;
+    }
+
+    public int getPadId() {
+        return padId;
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright 2012-2022 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.webapp.vectorizer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.codelibs.fess.webapp.vectorizer.PassageChunker.Pooling;
+import org.codelibs.fess.webapp.vectorizer.PassageChunker.Unit;
+import org.codelibs.fess.webapp.vectorizer.VectorizerCodec.VectorFormat;
+import org.dbflute.utflute.core.PlainTestCase;
+
+public class AbstractVectorizerTest extends PlainTestCase {
+
+    public void test_vectorizeBatch_pooling() {
+        final TestAbstractVectorizer vectorizer = new TestAbstractVectorizer();
+        vectorizer.chunker = new PassageChunker(Unit.CHARS, 4, 0, 10, Pooling.MEAN);
+
+        final List<Map<String, Object>> inputs =
+                List.of(Map.of("lang", "en", "content", "aaa bbb"), Map.of("lang", "en", "content", "aaa"));
+        assertEquals(2, vectorizer.vectorizePassages(inputs).get(0).get("content").size());
+
+        // not normalized
+        float[] vector = vectorizer.vectorizeBatch(inputs).get(0).get("content");
+        assertEquals(0.5f, vector[0], 0.0001f);
+        assertEquals(0.5f, vector[1], 0.0001f);
+
+        vectorizer.reducer = VectorReducer.truncate(2);
+        final List<Map<String, float[]>> outputs = vectorizer.vectorizeBatch(inputs);
+        vector = outputs.get(0).get("content");
+        assertEquals(0.7071f, vector[0], 0.0001f);
+        assertEquals(0.7071f, vector[1], 0.0001f);
+        vector = outputs.get(1).get("content");
+        assertEquals(1.0f, vector[0], 0.0001f);
+        assertEquals(0.0f, vector[1], 0.0001f);
+
+        vectorizer.chunker = new PassageChunker(Unit.CHARS, 4, 0, 10, Pooling.MAX);
+        vector = vectorizer.vectorizeBatch(inputs).get(0).get("content");
+        assertEquals(0.7071f, vector[0], 0.0001f);
+        assertEquals(0.7071f, vector[1], 0.0001f);
+    }
+
+    public void test_executeBatches_batchSize() {
+        final TestAbstractVectorizer vectorizer = new TestAbstractVectorizer();
+        vectorizer.batchSize = 2;
+        final List<Map<String, Object>> inputs = List.of(Map.of("lang", "en", "content", "a1"), Map.of("lang", "en", "content", "b2"),
+                Map.of("lang", "ja", "content", "a3"), Map.of("lang", "en", "content", "b4"), Map.of("lang", "en", "content", "a5"));
+
+        final List<Map<String, float[]>> outputs = vectorizer.vectorizeBatch(inputs);
+        assertEquals(3, vectorizer.batches.size());
+        assertEquals(List.of(inputs.get(0), inputs.get(1)), vectorizer.batches.get(0));
+        assertEquals(List.of(inputs.get(2), inputs.get(3)), vectorizer.batches.get(1));
+        assertEquals(List.of(inputs.get(4)), vectorizer.batches.get(2));
+        assertEquals(5, outputs.size());
+        assertEquals(1.0f, outputs.get(0).get("content")[0]);
+        assertEquals(0.0f, outputs.get(1).get("content")[0]);
+        assertEquals(1.0f, outputs.get(4).get("content")[0]);
+    }
+
+    public void test_executeBatches_maxBatchBytes() {
+        final TestAbstractVectorizer vectorizer = new TestAbstractVectorizer();
+        vectorizer.maxBatchBytes = 6;
+        // "\u3042" is 3 bytes in UTF-8
+        final List<Map<String, Object>> inputs = List.of(Map.of("lang", "en", "content", "aaa"), Map.of("lang", "ja", "content", "\u3042"),
+                Map.of("lang", "en", "content", "a"), Map.of("lang", "en", "content", "aaaaaaaa"));
+
+        final List<Map<String, float[]>> outputs = vectorizer.vectorizeBatch(inputs);
+        assertEquals(3, vectorizer.batches.size());
+        assertEquals(List.of(inputs.get(0), inputs.get(1)), vectorizer.batches.get(0));
+        assertEquals(List.of(inputs.get(2)), vectorizer.batches.get(1));
+        // a document larger than the limit is sent alone
+        assertEquals(List.of(inputs.get(3)), vectorizer.batches.get(2));
+        assertEquals(4, outputs.size());
+        assertEquals(4, outputs.stream().filter(output -> output.containsKey("content")).count());
+    }
+
+    public void test_executeBatches_unsupportedLanguage() {
+        final TestAbstractVectorizer vectorizer = new TestAbstractVectorizer();
+        final Map<String, Object> noLang = new HashMap<>();
+        noLang.put("content", "a2");
+        final List<Map<String, Object>> inputs = List.of(Map.of("lang", "fr", "content", "a1"), noLang,
+                Map.of("lang", "en", "content", "b3"), Map.of("lang", "ja", "content", "a4"));
+
+        final List<Map<String, float[]>> outputs = vectorizer.vectorizeBatch(inputs);
+        assertEquals(1, vectorizer.batches.size());
+        assertEquals(List.of(inputs.get(2), inputs.get(3)), vectorizer.batches.get(0));
+        assertEquals(4, outputs.size());
+        assertTrue(outputs.get(0).isEmpty());
+        assertTrue(outputs.get(1).isEmpty());
+        assertEquals(1.0f, outputs.get(2).get("content")[1]);
+        assertEquals(1.0f, outputs.get(3).get("content")[0]);
+    }
+
+    public void test_executeBatches_failed() {
+        final TestAbstractVectorizer vectorizer = new TestAbstractVectorizer();
+        vectorizer.batchSize = 1;
+        vectorizer.failed = true;
+        final List<Map<String, float[]>> outputs =
+                vectorizer.vectorizeBatch(List.of(Map.of("lang", "en", "content", "a1"), Map.of("lang", "en", "content", "b2")));
+        assertEquals(2, vectorizer.batches.size());
+        assertEquals(2, outputs.size());
+        assertTrue(outputs.get(0).isEmpty());
+        assertTrue(outputs.get(1).isEmpty());
+    }
+
+    public void test_submit_bulkhead() throws Exception {
+        final TestAbstractVectorizer vectorizer = new TestAbstractVectorizer();
+        vectorizer.executor = Executors.newSingleThreadExecutor();
+        vectorizer.bulkhead = new Semaphore(1);
+        vectorizer.maxConcurrentRequests = 1;
+        try {
+            final Map<String, Object> input = Map.of("lang", "en", "content", "aaa");
+            vectorizer.bulkhead.acquire();
+            assertRejected(vectorizer.vectorizeAsync(input), "Too many concurrent vectorize requests.");
+
+            vectorizer.bulkhead.release();
+            assertEquals(1.0f, vectorizer.vectorizeAsync(input).get(10, TimeUnit.SECONDS).get("content")[0]);
+            assertEquals(1, vectorizer.bulkhead.availablePermits());
+        } finally {
+            vectorizer.close();
+        }
+    }
+
+    public void test_submit_circuitBreaker() throws Exception {
+        final TestAbstractVectorizer vectorizer = new TestAbstractVectorizer();
+        vectorizer.executor = Executors.newSingleThreadExecutor();
+        vectorizer.bulkhead = new Semaphore(1);
+        vectorizer.circuitBreaker = new CircuitBreaker(1, 0L, 100L);
+        try {
+            final Map<String, Object> input = Map.of("lang", "en", "content", "aaa");
+            vectorizer.failed = true;
+            assertTrue(vectorizer.vectorizeAsync(input).get(10, TimeUnit.SECONDS).isEmpty());
+            assertEquals(CircuitBreaker.State.OPEN, vectorizer.circuitBreaker.getState());
+
+            assertRejected(vectorizer.vectorizeAsync(input), "Circuit breaker is open.");
+            assertEquals(1, vectorizer.bulkhead.availablePermits());
+
+            // a trial call rejected by the executor is not counted as a failure
+            Thread.sleep(150L);
+            vectorizer.executor.shutdown();
+            assertRejected(vectorizer.vectorizeAsync(input), null);
+            assertEquals(CircuitBreaker.State.OPEN, vectorizer.circuitBreaker.getState());
+            assertFalse(vectorizer.circuitBreaker.isOpen());
+            assertEquals(1, vectorizer.bulkhead.availablePermits());
+
+            vectorizer.executor = Executors.newSingleThreadExecutor();
+            vectorizer.failed = false;
+            assertEquals(1.0f, vectorizer.vectorizeAsync(input).get(10, TimeUnit.SECONDS).get("content")[0]);
+            assertEquals(CircuitBreaker.State.CLOSED, vectorizer.circuitBreaker.getState());
+        } finally {
+            vectorizer.close();
+        }
+    }
+
+    private void assertRejected(final CompletableFuture<Map<String, float[]>> future, final String message) throws Exception {
+        try {
+            future.get(10, TimeUnit.SECONDS);
+            fail();
+        } catch (final ExecutionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+            if (message != null) {
+                assertEquals(message, e.getCause().getMessage());
+            }
+        }
+    }
+
+    static class TestAbstractVectorizer extends AbstractVectorizer {
+        volatile boolean failed;
+
+        final List<List<Map<String, Object>>> batches = new ArrayList<>();
+
+        TestAbstractVectorizer() {
+            fields = new String[] { "content" };
+            dimension = 2;
+            batchSize = 10;
+            maxBatchBytes = 1000;
+            setMetadata(new Metadata(Set.of("en", "ja"), VectorFormat.JSON, 2));
+        }
+
+        @Override
+        protected void initialize() {
+        }
+
+        @Override
+        protected List<Map<String, float[]>> execute(final List<Map<String, Object>> inputs, final List<String> langs) {
+            batches.add(new ArrayList<>(inputs));
+            if (failed) {
+                return List.of();
+            }
+            final List<Map<String, float[]>> outputs = new ArrayList<>(inputs.size());
+            for (final Map<String, Object> input : inputs) {
+                final Map<String, float[]> output = new HashMap<>();
+                for (final String field : fields) {
+                    final String text = (String) input.get(field);
+                    if (text != null) {
+                        output.put(field, text.startsWith("a") ? new float[] { 1.0f, 0.0f } : new float[] { 0.0f, 1.0f });
+                    }
+                }
+                outputs.add(output);
+            }
+            return outputs;
+        }
+
+        @Override
+        public boolean isActive() {
+            return true;
+        }
+    }
+}
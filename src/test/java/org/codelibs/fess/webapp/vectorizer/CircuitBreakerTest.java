@@ -0,0 +1,94 @@
+/*
+ * Copyright 2012-2022 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.webapp.vectorizer;
+
+import java.util.concurrent.TimeUnit;
+
+import org.codelibs.fess.webapp.vectorizer.CircuitBreaker.State;
+import org.dbflute.utflute.core.PlainTestCase;
+
+public class CircuitBreakerTest extends PlainTestCase {
+
+    public void test_open() throws Exception {
+        final CircuitBreaker circuitBreaker = new CircuitBreaker(2, 0L, 100L);
+        assertEquals(State.CLOSED, circuitBreaker.getState());
+        assertTrue(circuitBreaker.tryAcquire());
+
+        circuitBreaker.onFailure();
+        assertEquals(State.CLOSED, circuitBreaker.getState());
+        circuitBreaker.onFailure();
+        assertEquals(State.OPEN, circuitBreaker.getState());
+        assertTrue(circuitBreaker.isOpen());
+        assertFalse(circuitBreaker.tryAcquire());
+
+        Thread.sleep(150L);
+        assertFalse(circuitBreaker.isOpen());
+        // only one trial call passes
+        assertTrue(circuitBreaker.tryAcquire());
+        assertEquals(State.HALF_OPEN, circuitBreaker.getState());
+        assertFalse(circuitBreaker.tryAcquire());
+
+        circuitBreaker.onSuccess(TimeUnit.MILLISECONDS.toNanos(1L));
+        assertEquals(State.CLOSED, circuitBreaker.getState());
+        assertTrue(circuitBreaker.tryAcquire());
+    }
+
+    public void test_halfOpen_failure() throws Exception {
+        final CircuitBreaker circuitBreaker = new CircuitBreaker(1, 0L, 100L);
+        circuitBreaker.onFailure();
+        Thread.sleep(150L);
+        assertTrue(circuitBreaker.tryAcquire());
+
+        circuitBreaker.onFailure();
+        assertEquals(State.OPEN, circuitBreaker.getState());
+        assertTrue(circuitBreaker.isOpen());
+        assertFalse(circuitBreaker.tryAcquire());
+    }
+
+    public void test_release() throws Exception {
+        final CircuitBreaker circuitBreaker = new CircuitBreaker(1, 0L, 100L);
+        circuitBreaker.release();
+        assertEquals(State.CLOSED, circuitBreaker.getState());
+
+        circuitBreaker.onFailure();
+        Thread.sleep(150L);
+        assertTrue(circuitBreaker.tryAcquire());
+        assertFalse(circuitBreaker.tryAcquire());
+
+        // the next call gets the trial permit
+        circuitBreaker.release();
+        assertEquals(State.OPEN, circuitBreaker.getState());
+        assertTrue(circuitBreaker.tryAcquire());
+        assertEquals(State.HALF_OPEN, circuitBreaker.getState());
+    }
+
+    public void test_slowCall() {
+        final CircuitBreaker circuitBreaker = new CircuitBreaker(2, 100L, 60000L);
+        circuitBreaker.onSuccess(TimeUnit.MILLISECONDS.toNanos(100L));
+        assertEquals(State.CLOSED, circuitBreaker.getState());
+        // a fast call resets the count
+        circuitBreaker.onSuccess(TimeUnit.MILLISECONDS.toNanos(10L));
+        circuitBreaker.onSuccess(TimeUnit.MILLISECONDS.toNanos(200L));
+        assertEquals(State.CLOSED, circuitBreaker.getState());
+        circuitBreaker.onFailure();
+        assertEquals(State.OPEN, circuitBreaker.getState());
+
+        // no slow call threshold
+        final CircuitBreaker noThreshold = new CircuitBreaker(1, 0L, 60000L);
+        noThreshold.onSuccess(TimeUnit.MINUTES.toNanos(10L));
+        assertEquals(State.CLOSED, noThreshold.getState());
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2012-2022 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.webapp.vectorizer;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Map;
+
+import org.dbflute.utflute.core.PlainTestCase;
+
+public class EmbeddingStoreTest extends PlainTestCase {
+
+    private static final String[] FIELDS = { "content", "title" };
+
+    private File file;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        file = File.createTempFile("embedding", ".bin");
+        file.delete();
+        file.deleteOnExit();
+    }
+
+    public void test_putAndGet() throws Exception {
+        try (EmbeddingStore store = EmbeddingStore.open(file.toPath(), FIELDS, 3, 100)) {
+            final VectorCache.Key key = createKey("en", "aaa");
+            assertNull(store.get(key));
+            store.put(key, Map.of("content", new float[] { 1.0f, 2.0f, 3.0f }));
+            final Map<String, float[]> output = store.get(key);
+            assertEquals(1, output.size());
+            assertEquals(2.0f, output.get("content")[1], 0.0f);
+            assertNull(store.get(createKey("ja", "aaa")));
+            assertNull(store.get(createKey("en", "bbb")));
+
+            store.put(key, Map.of("content", new float[] { 4.0f, 5.0f, 6.0f }, "title", new float[] { 7.0f, 8.0f, 9.0f }));
+            assertEquals(5.0f, store.get(key).get("content")[1], 0.0f);
+            assertEquals(9.0f, store.get(key).get("title")[2], 0.0f);
+
+            store.put(createKey("en", "ccc"), Map.of("content", new float[] { 1.0f }));
+            assertNull(store.get(createKey("en", "ccc")));
+            assertEquals(0L, store.getEvictionCount());
+        }
+    }
+
+    public void test_reopen() throws Exception {
+        try (EmbeddingStore store = EmbeddingStore.open(file.toPath(), FIELDS, 3, 100)) {
+            store.put(createKey("en", "aaa"), Map.of("content", new float[] { 1.0f, 2.0f, 3.0f }));
+        }
+        try (EmbeddingStore store = EmbeddingStore.open(file.toPath(), FIELDS, 3, 100)) {
+            assertEquals(3.0f, store.get(createKey("en", "aaa")).get("content")[2], 0.0f);
+        }
+        try (EmbeddingStore store = EmbeddingStore.open(file.toPath(), FIELDS, 4, 100)) {
+            assertNull(store.get(createKey("en", "aaa")));
+        }
+        try (EmbeddingStore store = EmbeddingStore.open(file.toPath(), new String[] { "content" }, 4, 100)) {
+            assertNull(store.get(createKey("en", "aaa")));
+        }
+    }
+
+    public void test_reopen_modelChanged() throws Exception {
+        try (EmbeddingStore store = EmbeddingStore.open(file.toPath(), FIELDS, 3, 100, "v1", 0L)) {
+            store.put(createKey("en", "aaa"), Map.of("content", new float[] { 1.0f, 2.0f, 3.0f }));
+        }
+        try (EmbeddingStore store = EmbeddingStore.open(file.toPath(), FIELDS, 3, 100, "v1", 0L)) {
+            assertNotNull(store.get(createKey("en", "aaa")));
+        }
+        // a model with the same dimension must not reuse the old vectors
+        try (EmbeddingStore store = EmbeddingStore.open(file.toPath(), FIELDS, 3, 100, "v2", 0L)) {
+            assertNull(store.get(createKey("en", "aaa")));
+        }
+        try (EmbeddingStore store = EmbeddingStore.open(file.toPath(), FIELDS, 3, 100, "v1", 0L)) {
+            assertNull(store.get(createKey("en", "aaa")));
+        }
+    }
+
+    public void test_get_expired() throws Exception {
+        try (EmbeddingStore store = EmbeddingStore.open(file.toPath(), FIELDS, 3, 100, "v1", 100L)) {
+            store.put(createKey("en", "aaa"), Map.of("content", new float[] { 1.0f, 2.0f, 3.0f }));
+            assertNotNull(store.get(createKey("en", "aaa")));
+            Thread.sleep(200L);
+            assertNull(store.get(createKey("en", "aaa")));
+            assertEquals(1L, store.getMissCount());
+
+            store.put(createKey("en", "aaa"), Map.of("content", new float[] { 1.0f, 2.0f, 3.0f }));
+            assertNotNull(store.get(createKey("en", "aaa")));
+        }
+    }
+
+    public void test_tornRecord() throws Exception {
+        try (EmbeddingStore store = EmbeddingStore.open(file.toPath(), FIELDS, 3, 1)) {
+            store.put(createKey("en", "aaa"), Map.of("content", new float[] { 1.0f, 2.0f, 3.0f }));
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            // the second float of the content vector
+            raf.seek(32 + 32 + 4);
+            raf.writeInt(0x12345678);
+        }
+        try (EmbeddingStore store = EmbeddingStore.open(file.toPath(), FIELDS, 3, 1)) {
+            assertNull(store.get(createKey("en", "aaa")));
+        }
+    }
+
+    public void test_eviction() throws Exception {
+        try (EmbeddingStore store = EmbeddingStore.open(file.toPath(), FIELDS, 2, 4)) {
+            for (int i = 0; i < 20; i++) {
+                store.put(createKey("en", "text" + i), Map.of("content", new float[] { i, i }));
+                Thread.sleep(2L);
+            }
+            assertEquals(16L, store.getEvictionCount());
+            assertEquals(19.0f, store.get(createKey("en", "text19")).get("content")[0], 0.0f);
+            assertNull(store.get(createKey("en", "text0")));
+            assertEquals(4L, file.length() / (32 + 2 * 2 * 4));
+        }
+    }
+
+    private VectorCache.Key createKey(final String lang, final String text) {
+        return new VectorCache.Key(lang, FIELDS, new String[] { text, text });
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2012-2022 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.webapp.vectorizer;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.codelibs.fess.webapp.vectorizer.EndpointPool.Endpoint;
+import org.dbflute.utflute.core.PlainTestCase;
+
+public class EndpointPoolTest extends PlainTestCase {
+
+    public void test_select_latency() {
+        final EndpointPool pool = new EndpointPool(new String[] { "http://a", "http://b" }, EndpointPool.Routing.LATENCY, 3);
+        final Endpoint a = pool.getEndpoints()[0];
+        final Endpoint b = pool.getEndpoints()[1];
+
+        a.acquire();
+        pool.onSuccess(a, 200L);
+        b.acquire();
+        pool.onSuccess(b, 100L);
+        assertSame(b, pool.select());
+
+        // 2 in-flight requests on b are expected to take longer than a new one on a
+        b.acquire();
+        b.acquire();
+        assertSame(a, pool.select());
+    }
+
+    public void test_select_spread() {
+        final EndpointPool pool = new EndpointPool(new String[] { "http://a", "http://b" }, EndpointPool.Routing.LATENCY, 3);
+        final Deque<Endpoint> inflight = new ArrayDeque<>();
+        final Map<String, Integer> counts = new HashMap<>();
+        // equally fast endpoints with 8 concurrent requests
+        for (int i = 0; i < 1000; i++) {
+            if (inflight.size() >= 8) {
+                pool.onSuccess(inflight.poll(), 1_000_000L + ThreadLocalRandom.current().nextLong(1000L));
+            }
+            final Endpoint endpoint = pool.select();
+            counts.merge(endpoint.acquire(), 1, Integer::sum);
+            inflight.add(endpoint);
+        }
+        assertTrue(counts.toString(), counts.get("http://a") > 300);
+        assertTrue(counts.toString(), counts.get("http://b") > 300);
+    }
+
+    public void test_select_probe() throws Exception {
+        final EndpointPool pool = new EndpointPool(new String[] { "http://a", "http://b" }, EndpointPool.Routing.LATENCY, 3);
+        pool.setProbeInterval(50L);
+        final Endpoint a = pool.getEndpoints()[0];
+        final Endpoint b = pool.getEndpoints()[1];
+        b.acquire();
+        pool.onSuccess(b, 10_000_000L);
+        a.acquire();
+        pool.onSuccess(a, 100_000L);
+        assertSame(a, pool.select());
+
+        Thread.sleep(100L);
+        a.acquire();
+        pool.onSuccess(a, 100_000L);
+        // the latency of b is outdated, so b gets a probe request
+        assertSame(b, pool.select());
+        assertEquals("http://b", b.acquire());
+        assertSame(a, pool.select());
+    }
+
+    public void test_select_inflight() {
+        final EndpointPool pool = new EndpointPool(new String[] { "http://a", "http://b" }, EndpointPool.Routing.INFLIGHT, 3);
+        final Endpoint a = pool.getEndpoints()[0];
+        final Endpoint b = pool.getEndpoints()[1];
+
+        a.acquire();
+        pool.onSuccess(a, 200L);
+        b.acquire();
+        pool.onSuccess(b, 100L);
+        assertSame(b, pool.select());
+
+        assertEquals("http://b", b.acquire());
+        assertSame(a, pool.select());
+    }
+
+    public void test_ejectAndReadmit() {
+        final EndpointPool pool = new EndpointPool(new String[] { "http://a", "http://b" }, EndpointPool.Routing.LATENCY, 2);
+        final Endpoint a = pool.getEndpoints()[0];
+        final Endpoint b = pool.getEndpoints()[1];
+        b.acquire();
+        pool.onSuccess(b, 100L);
+
+        assertSame(a, pool.select());
+        a.acquire();
+        pool.onFailure(a);
+        assertTrue(a.isHealthy());
+        a.acquire();
+        pool.onFailure(a);
+        assertFalse(a.isHealthy());
+        assertSame(b, pool.select());
+
+        pool.checkHealth(url -> true);
+        assertTrue(a.isHealthy());
+        assertSame(a, pool.select());
+
+        pool.checkHealth(url -> false);
+        assertFalse(a.isHealthy());
+        assertFalse(b.isHealthy());
+        assertNotNull(pool.select());
+    }
+
+    public void test_singleEndpoint() {
+        final EndpointPool pool = new EndpointPool(new String[] { "http://a" }, EndpointPool.Routing.LATENCY, 1);
+        final Endpoint a = pool.getEndpoints()[0];
+        a.acquire();
+        pool.onFailure(a);
+        assertTrue(a.isHealthy());
+        assertSame(a, pool.select());
+    }
+}
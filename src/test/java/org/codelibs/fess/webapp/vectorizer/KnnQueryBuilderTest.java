@@ -0,0 +1,69 @@
+/*
+ * Copyright 2012-2022 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.webapp.vectorizer;
+
+import java.nio.charset.StandardCharsets;
+
+import org.dbflute.utflute.core.PlainTestCase;
+import org.opensearch.index.query.BoolQueryBuilder;
+import org.opensearch.index.query.QueryBuilder;
+import org.opensearch.index.query.QueryBuilders;
+import org.opensearch.index.query.WrapperQueryBuilder;
+
+public class KnnQueryBuilderTest extends PlainTestCase {
+
+    public void test_toXContent() throws Exception {
+        final KnnQueryBuilder builder = new KnnQueryBuilder("content_en_vector", new float[] { 0.5f, 1.0f }, 10);
+        assertEquals("{\"knn\":{\"content_en_vector\":{\"vector\":[0.5,1.0],\"k\":10}}}", builder.toString());
+    }
+
+    public void test_toXContent_filter() throws Exception {
+        final KnnQueryBuilder builder =
+                new KnnQueryBuilder("content_en_vector", new float[] { 0.5f }, 5).filter(QueryBuilders.termQuery("site", "aaa"));
+        assertEquals(
+                "{\"knn\":{\"content_en_vector\":{\"vector\":[0.5],\"k\":5,"
+                        + "\"filter\":{\"term\":{\"site\":{\"value\":\"aaa\",\"boost\":1.0}}}}}}",
+                builder.toString());
+    }
+
+    public void test_toQueryBuilder() throws Exception {
+        final KnnQueryBuilder builder = new KnnQueryBuilder("content_en_vector", new float[] { 0.5f }, 5);
+        assertEquals(builder.toString(), getSource(builder.toQueryBuilder()));
+    }
+
+    public void test_buildKnnQuery() throws Exception {
+        final VectorisingQueryFilter filter = new VectorisingQueryFilter();
+        final KnnQueryBuilder knnQuery = new KnnQueryBuilder("content_en_vector", new float[] { 0.5f }, 5);
+
+        final QueryBuilder unfiltered = filter.buildKnnQuery(QueryBuilders.matchAllQuery(), new KnnQueryBuilder[] { knnQuery });
+        assertEquals(knnQuery.toString(), getSource(unfiltered));
+
+        final BoolQueryBuilder postFiltered = (BoolQueryBuilder) filter.buildKnnQuery(QueryBuilders.termQuery("site", "aaa"),
+                new KnnQueryBuilder[] { knnQuery });
+        assertEquals(knnQuery.toString(), getSource(postFiltered.must().get(0)));
+        assertEquals(QueryBuilders.termQuery("site", "aaa"), postFiltered.filter().get(0));
+
+        filter.setEfficientKnnFilter(true);
+        final QueryBuilder filtered = filter.buildKnnQuery(QueryBuilders.termQuery("site", "aaa"), new KnnQueryBuilder[] { knnQuery });
+        assertNotNull(knnQuery.filter());
+        assertEquals(knnQuery.toString(), getSource(filtered));
+        assertTrue(getSource(filtered).contains("\"filter\":{\"term\""));
+    }
+
+    private static String getSource(final QueryBuilder queryBuilder) {
+        return new String(((WrapperQueryBuilder) queryBuilder).source(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2012-2022 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.webapp.vectorizer;
+
+import org.dbflute.utflute.core.PlainTestCase;
+
+public class LatencyHistogramTest extends PlainTestCase {
+
+    public void test_bucket() {
+        for (long micros = 0; micros < 10_000_000L; micros = micros * 3 / 2 + 1) {
+            final long upperBound = LatencyHistogram.getUpperBound(LatencyHistogram.getIndex(micros));
+            assertTrue(micros + " -> " + upperBound, upperBound >= micros);
+            assertTrue(micros + " -> " + upperBound, upperBound <= micros * 1.125);
+        }
+        assertEquals(LatencyHistogram.getIndex(Long.MAX_VALUE), LatencyHistogram.getIndex(Long.MAX_VALUE / 2));
+    }
+
+    public void test_percentile() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0.0, histogram.getPercentile(50));
+
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i * 1_000_000L);
+        }
+        assertEquals(100L, histogram.getCount());
+        assertPercentile(50.0, histogram.getPercentile(50));
+        assertPercentile(95.0, histogram.getPercentile(95));
+        assertPercentile(99.0, histogram.getPercentile(99));
+        assertPercentile(100.0, histogram.getPercentile(100));
+        assertPercentile(1.0, histogram.getPercentile(0));
+
+        final LatencyHistogram small = new LatencyHistogram();
+        small.record(3_000L);
+        assertEquals(0.003, small.getPercentile(99));
+    }
+
+    private void assertPercentile(final double expected, final double actual) {
+        assertTrue(expected + " <= " + actual, expected <= actual);
+        assertTrue(actual + " <= " + expected * 1.125, actual <= expected * 1.125);
+    }
+}
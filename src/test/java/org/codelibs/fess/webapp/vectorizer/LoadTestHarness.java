@@ -0,0 +1,126 @@
+/*
+ * Copyright 2012-2022 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.webapp.vectorizer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs a task from many threads at once and reports throughput and latency percentiles.
+ */
+public class LoadTestHarness {
+
+    protected final int threads;
+
+    protected final int requestsPerThread;
+
+    public LoadTestHarness(final int threads, final int requestsPerThread) {
+        this.threads = threads;
+        this.requestsPerThread = requestsPerThread;
+    }
+
+    public Report run(final Callable<?> task) throws Exception {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final LongAdder errorCount = new LongAdder();
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final List<Future<?>> futures = new ArrayList<>(threads);
+            for (int i = 0; i < threads; i++) {
+                futures.add(executor.submit(() -> {
+                    startLatch.await();
+                    for (int j = 0; j < requestsPerThread; j++) {
+                        final long startTime = System.nanoTime();
+                        try {
+                            task.call();
+                        } catch (final Exception e) {
+                            errorCount.increment();
+                        }
+                        histogram.record(System.nanoTime() - startTime);
+                    }
+                    return null;
+                }));
+            }
+            final long startTime = System.nanoTime();
+            startLatch.countDown();
+            for (final Future<?> future : futures) {
+                future.get();
+            }
+            return new Report(histogram, errorCount.sum(), System.nanoTime() - startTime);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    public static class Report {
+        private final long requestCount;
+
+        private final long errorCount;
+
+        private final long elapsedNanos;
+
+        private final double p50;
+
+        private final double p95;
+
+        private final double p99;
+
+        protected Report(final LatencyHistogram histogram, final long errorCount, final long elapsedNanos) {
+            requestCount = histogram.getCount();
+            this.errorCount = errorCount;
+            this.elapsedNanos = elapsedNanos;
+            p50 = histogram.getPercentile(50);
+            p95 = histogram.getPercentile(95);
+            p99 = histogram.getPercentile(99);
+        }
+
+        public long getRequestCount() {
+            return requestCount;
+        }
+
+        public long getErrorCount() {
+            return errorCount;
+        }
+
+        public double getQps() {
+            return elapsedNanos > 0 ? requestCount * 1_000_000_000.0 / elapsedNanos : 0;
+        }
+
+        public double getLatencyP50() {
+            return p50;
+        }
+
+        public double getLatencyP95() {
+            return p95;
+        }
+
+        public double getLatencyP99() {
+            return p99;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("requests=%d, errors=%d, qps=%.1f, p50=%.3fms, p95=%.3fms, p99=%.3fms", requestCount, errorCount, getQps(),
+                    p50, p95, p99);
+        }
+    }
+}
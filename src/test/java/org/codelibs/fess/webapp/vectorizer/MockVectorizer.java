@@ -0,0 +1,138 @@
+/*
+ * Copyright 2012-2022 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.webapp.vectorizer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * A fake vectorizer returning the configured vector for each field of an input.
+ * A field is not vectorized if it is missing or its text is {@link #failText}.
+ */
+public class MockVectorizer implements Vectorizer {
+
+    /** sizes of vectorizeBatch calls */
+    final Queue<Integer> batchSizes = new ConcurrentLinkedQueue<>();
+
+    /** inputs in the form of lang:content */
+    final Queue<String> inputs = new ConcurrentLinkedQueue<>();
+
+    volatile boolean recording = true;
+
+    volatile String[] languages = { "en", "ja" };
+
+    volatile String[] fields = { "content" };
+
+    volatile float[] vector = { 1.0f };
+
+    volatile String failText = "fail";
+
+    volatile long latency;
+
+    volatile CountDownLatch blocker;
+
+    volatile double load;
+
+    volatile boolean closed;
+
+    public MockVectorizer() {
+    }
+
+    public MockVectorizer(final float[] vector) {
+        this.vector = vector;
+    }
+
+    @Override
+    public Map<String, float[]> vectorize(final Map<String, Object> input) {
+        return vectorizeBatch(List.of(input)).get(0);
+    }
+
+    @Override
+    public CompletableFuture<Map<String, float[]>> vectorizeAsync(final Map<String, Object> input) {
+        return CompletableFuture.completedFuture(vectorize(input));
+    }
+
+    @Override
+    public List<Map<String, float[]>> vectorizeBatch(final List<Map<String, Object>> inputs) {
+        if (recording) {
+            batchSizes.add(inputs.size());
+            inputs.forEach(input -> this.inputs.add(input.get("lang") + ":" + input.get("content")));
+        }
+        try {
+            if (blocker != null) {
+                blocker.await();
+            }
+            if (latency > 0) {
+                Thread.sleep(latency);
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        final List<Map<String, float[]>> outputs = new ArrayList<>(inputs.size());
+        for (final Map<String, Object> input : inputs) {
+            final Map<String, float[]> output = new HashMap<>(fields.length);
+            for (final String field : fields) {
+                final Object text = input.get(field);
+                if (text != null && !failText.equals(text)) {
+                    output.put(field, vector);
+                }
+            }
+            outputs.add(output);
+        }
+        return outputs;
+    }
+
+    @Override
+    public boolean isSupportedLanguage(final String lang) {
+        for (final String language : languages) {
+            if (language.equals(lang)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String[] getLanguages() {
+        return languages;
+    }
+
+    @Override
+    public String[] getFields() {
+        return fields;
+    }
+
+    @Override
+    public boolean isActive() {
+        return true;
+    }
+
+    @Override
+    public double getLoad() {
+        return load;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+    }
+}
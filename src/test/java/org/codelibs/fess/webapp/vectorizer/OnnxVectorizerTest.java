@@ -0,0 +1,128 @@
+/*
+ * Copyright 2012-2022 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.webapp.vectorizer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.dbflute.utflute.core.PlainTestCase;
+
+public class OnnxVectorizerTest extends PlainTestCase {
+
+    public void test_meanPooling() {
+        final float[][][] hiddenStates = { //
+                { { 1.0f, 2.0f }, { 3.0f, 4.0f }, { 100.0f, 100.0f } }, //
+                { { 2.0f, 0.0f }, { 4.0f, 2.0f }, { 6.0f, 4.0f } } };
+        final long[][] attentionMask = { { 1, 1, 0 }, { 1, 1, 1 } };
+
+        final float[][] embeddings = OnnxVectorizer.meanPooling(hiddenStates, attentionMask);
+        assertEquals(2, embeddings.length);
+        assertEquals(2.0f, embeddings[0][0], 0.0001f);
+        assertEquals(3.0f, embeddings[0][1], 0.0001f);
+        assertEquals(4.0f, embeddings[1][0], 0.0001f);
+        assertEquals(2.0f, embeddings[1][1], 0.0001f);
+    }
+
+    public void test_meanPooling_noToken() {
+        final float[][] embeddings = OnnxVectorizer.meanPooling(new float[][][] { { { 1.0f, 2.0f } } }, new long[][] { { 0 } });
+        assertEquals(0.0f, embeddings[0][0]);
+        assertEquals(0.0f, embeddings[0][1]);
+    }
+
+    public void test_getDimension() {
+        // last_hidden_state and pooled outputs
+        assertEquals(384, OnnxVectorizer.getDimension(new long[] { -1, -1, 384 }, 768));
+        assertEquals(384, OnnxVectorizer.getDimension(new long[] { -1, 384 }, 768));
+        // dynamic
+        assertEquals(768, OnnxVectorizer.getDimension(new long[] { -1, -1 }, 768));
+        assertEquals(768, OnnxVectorizer.getDimension(new long[] { 384 }, 768));
+    }
+
+    public void test_close() throws Exception {
+        final TestOnnxVectorizer vectorizer = new TestOnnxVectorizer();
+        final Thread thread = new Thread(vectorizer::close);
+        vectorizer.sessionLock.readLock().lock();
+        try {
+            thread.start();
+            // close() waits for a running inference
+            thread.join(200L);
+            assertTrue(thread.isAlive());
+        } finally {
+            vectorizer.sessionLock.readLock().unlock();
+        }
+        thread.join(5000L);
+        assertFalse(thread.isAlive());
+    }
+
+    public void test_execute_blankFields() {
+        final TestOnnxVectorizer vectorizer = new TestOnnxVectorizer();
+        final Map<String, Object> input1 = new HashMap<>();
+        input1.put("title", "t1");
+        input1.put("content", " ");
+        final Map<String, Object> input2 = new HashMap<>();
+        input2.put("content", "c2");
+        final Map<String, Object> input3 = new HashMap<>();
+        input3.put("title", "t3");
+        input3.put("content", "c3");
+
+        final List<Map<String, float[]>> outputs =
+                vectorizer.execute(List.of(input1, input2, input3), List.of("en", "en", "en"));
+        assertEquals(List.of("t1", "c2", "t3", "c3"), vectorizer.texts);
+        assertEquals(3, outputs.size());
+        assertEquals(1, outputs.get(0).size());
+        assertEquals(0.0f, outputs.get(0).get("title")[0]);
+        assertEquals(1, outputs.get(1).size());
+        assertEquals(1.0f, outputs.get(1).get("content")[0]);
+        assertEquals(2, outputs.get(2).size());
+        assertEquals(2.0f, outputs.get(2).get("title")[0]);
+        assertEquals(3.0f, outputs.get(2).get("content")[0]);
+    }
+
+    public void test_execute_notLoaded() {
+        final TestOnnxVectorizer vectorizer = new TestOnnxVectorizer();
+        vectorizer.active = false;
+        assertTrue(vectorizer.execute(List.of(Map.of("content", "c1")), List.of("en")).isEmpty());
+        assertTrue(vectorizer.texts.isEmpty());
+    }
+
+    static class TestOnnxVectorizer extends OnnxVectorizer {
+        final List<String> texts = new ArrayList<>();
+
+        boolean active = true;
+
+        TestOnnxVectorizer() {
+            fields = new String[] { "title", "content" };
+            dimension = 1;
+        }
+
+        @Override
+        protected float[][] embed(final List<String> texts) {
+            this.texts.addAll(texts);
+            final float[][] embeddings = new float[texts.size()][];
+            for (int i = 0; i < embeddings.length; i++) {
+                embeddings[i] = new float[] { i };
+            }
+            return embeddings;
+        }
+
+        @Override
+        public boolean isActive() {
+            return active;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2012-2022 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.webapp.vectorizer;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.codelibs.fess.webapp.vectorizer.PassageChunker.Passage;
+import org.codelibs.fess.webapp.vectorizer.PassageChunker.Pooling;
+import org.codelibs.fess.webapp.vectorizer.PassageChunker.Unit;
+import org.dbflute.utflute.core.PlainTestCase;
+
+public class PassageChunkerTest extends PlainTestCase {
+
+    public void test_splitByChars() {
+        final PassageChunker chunker = new PassageChunker(Unit.CHARS, 12, 4, 10, Pooling.MEAN);
+        assertEquals(List.of("aaa"), texts(chunker.split(" aaa ")));
+        assertEquals(List.of("aaa bbb ccc", "ccc ddd eee", "eee fff"), texts(chunker.split("aaa bbb ccc ddd eee fff")));
+
+        final List<Passage> passages = chunker.split("aaa bbb ccc ddd eee fff");
+        assertEquals(8, passages.get(1).getStart());
+        assertEquals(19, passages.get(1).getEnd());
+
+        // a word longer than the size is split
+        assertEquals(List.of("abcdefghijkl", "ijklmnop"), texts(chunker.split("abcdefghijklmnop")));
+
+        assertTrue(chunker.split(null).isEmpty());
+        assertTrue(chunker.split("  ").isEmpty());
+    }
+
+    public void test_splitByTokens() {
+        final PassageChunker chunker = new PassageChunker(Unit.TOKENS, 3, 1, 10, Pooling.MEAN);
+        assertEquals(List.of("aaa bbb ccc", "ccc ddd eee", "eee fff"), texts(chunker.split("aaa bbb ccc ddd eee fff")));
+        assertEquals(List.of("aaa, bbb", "bbb ccc."), texts(chunker.split("aaa, bbb ccc.")));
+        assertEquals(List.of("日本語", "語の文"), texts(chunker.split("日本語の文")));
+    }
+
+    public void test_maxChunks() {
+        final PassageChunker chunker = new PassageChunker(Unit.TOKENS, 2, 0, 2, Pooling.MEAN);
+        assertEquals(List.of("a b", "c d"), texts(chunker.split("a b c d e f g h")));
+
+        final PassageChunker charChunker = new PassageChunker(Unit.CHARS, 4, 0, 2, Pooling.MEAN);
+        assertEquals(List.of("a b", "c d"), texts(charChunker.split("a b c d e f g h")));
+    }
+
+    public void test_tokenize() {
+        assertEquals("[0, 3, 3, 4, 5, 8]", Arrays.toString(PassageChunker.tokenize("aaa, bbb", 10)));
+        assertEquals("[0, 3]", Arrays.toString(PassageChunker.tokenize("aaa, bbb", 1)));
+        assertEquals("[]", Arrays.toString(PassageChunker.tokenize(" ", 10)));
+    }
+
+    public void test_pool() {
+        final List<float[]> vectors = List.of(new float[] { 1.0f, 0.0f }, new float[] { 0.0f, 3.0f });
+        assertEquals("[0.5, 1.5]", Arrays.toString(new PassageChunker(Unit.CHARS, 10, 0, 1, Pooling.MEAN).pool(vectors)));
+        assertEquals("[1.0, 3.0]", Arrays.toString(new PassageChunker(Unit.CHARS, 10, 0, 1, Pooling.MAX).pool(vectors)));
+
+        final float[] vector = { 1.0f };
+        assertSame(vector, new PassageChunker(Unit.CHARS, 10, 0, 1, Pooling.MEAN).pool(List.of(vector)));
+
+        try {
+            new PassageChunker(Unit.CHARS, 10, 0, 1, Pooling.MEAN).pool(List.of(new float[1], new float[2]));
+            fail();
+        } catch (final IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void test_invalid() {
+        try {
+            new PassageChunker(Unit.CHARS, 10, 10, 1, Pooling.MEAN);
+            fail();
+        } catch (final IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            new PassageChunker(Unit.CHARS, 0, 0, 1, Pooling.MEAN);
+            fail();
+        } catch (final IllegalArgumentException e) {
+            // expected
+        }
+        assertEquals(Unit.TOKENS, Unit.of(" tokens "));
+        assertEquals(Pooling.MAX, Pooling.of("max"));
+    }
+
+    private static List<String> texts(final List<Passage> passages) {
+        return passages.stream().map(Passage::getText).toList();
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2012-2022 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.webapp.vectorizer;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.dbflute.utflute.core.PlainTestCase;
+
+public class RemoteVectorizerTest extends PlainTestCase {
+
+    private final List<StubVectorizerServer> servers = new ArrayList<>();
+
+    private Vectorizer vectorizer;
+
+    @Override
+    public void tearDown() throws Exception {
+        if (vectorizer != null) {
+            vectorizer.close();
+        }
+        for (final StubVectorizerServer server : servers) {
+            server.close();
+        }
+        super.tearDown();
+    }
+
+    private StubVectorizerServer startServer() throws Exception {
+        final StubVectorizerServer server = new StubVectorizerServer(8);
+        server.start();
+        servers.add(server);
+        return server;
+    }
+
+    private Vectorizer.Builder createBuilder(final String... urls) {
+        return Vectorizer.create()//
+                .urls(urls)//
+                .dimension(8)//
+                .transport("http2")//
+                .cacheSize(0)//
+                .batchWindow(0L)//
+                .initTimeout(10000L);
+    }
+
+    public void test_vectorize_spread() throws Exception {
+        final StubVectorizerServer server1 = startServer();
+        final StubVectorizerServer server2 = startServer();
+        server1.setLatency(5L);
+        server2.setLatency(5L);
+        vectorizer = createBuilder(server1.getUrl(), server2.getUrl()).build();
+
+        final AtomicInteger counter = new AtomicInteger();
+        final List<Thread> threads = new ArrayList<>();
+        final List<Throwable> errors = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            threads.add(new Thread(() -> {
+                for (int j = 0; j < 25; j++) {
+                    final Map<String, float[]> output =
+                            vectorizer.vectorize(Map.of("content", "aaa" + counter.incrementAndGet(), "lang", "en"));
+                    if (output.isEmpty()) {
+                        synchronized (errors) {
+                            errors.add(new AssertionError("no vector"));
+                        }
+                    }
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+
+        assertTrue(errors.toString(), errors.isEmpty());
+        assertEquals(200L, server1.getRequestCount() + server2.getRequestCount());
+        // equally fast servers share the load
+        assertTrue(server1.getRequestCount() + " : " + server2.getRequestCount(), server1.getRequestCount() >= 50L);
+        assertTrue(server1.getRequestCount() + " : " + server2.getRequestCount(), server2.getRequestCount() >= 50L);
+    }
+
+    public void test_vectorize_vectorFormat() throws Exception {
+        final StubVectorizerServer server = startServer();
+        final String expected = Arrays.toString(StubVectorizerServer.createVector("aaa", 8));
+        // JSON by default
+        vectorizer = createBuilder(server.getUrl()).build();
+        assertEquals(expected, Arrays.toString(vectorizer.vectorize(Map.of("content", "aaa", "lang", "en")).get("content")));
+        vectorizer.close();
+
+        // base64 if the server lists the preferred format
+        vectorizer = createBuilder(server.getUrl()).vectorFormat("base64_float32").build();
+        assertEquals(expected, Arrays.toString(vectorizer.vectorize(Map.of("content", "aaa", "lang", "en")).get("content")));
+    }
+
+    public void test_refresh_backoff() {
+        final List<Long> delays = new ArrayList<>();
+        final Queue<Boolean> results = new ArrayDeque<>(List.of(false, false, false, false, true, false, true));
+        final RemoteVectorizer remote = new RemoteVectorizer() {
+            @Override
+            protected boolean loadMetadata() {
+                return results.remove();
+            }
+        };
+        remote.scheduler = new ScheduledThreadPoolExecutor(1) {
+            @Override
+            public ScheduledFuture<?> schedule(final Runnable command, final long delay, final TimeUnit unit) {
+                delays.add(unit.toMillis(delay));
+                return null;
+            }
+        };
+        remote.refreshInterval = 60000L;
+        remote.maxBackoff = 4000L;
+        remote.backoff = RemoteVectorizer.INITIAL_BACKOFF;
+        try {
+            for (int i = 0; i < 6; i++) {
+                remote.refresh();
+            }
+            // doubled up to the max and reset by a success
+            assertEquals(List.of(1000L, 2000L, 4000L, 4000L, 60000L, 1000L), delays);
+
+            // no refresh after a success without an interval
+            remote.refreshInterval = 0L;
+            remote.refresh();
+            assertEquals(6, delays.size());
+
+            remote.scheduler.shutdown();
+            results.add(false);
+            remote.refresh();
+            assertEquals(6, delays.size());
+        } finally {
+            remote.scheduler.shutdownNow();
+        }
+    }
+}
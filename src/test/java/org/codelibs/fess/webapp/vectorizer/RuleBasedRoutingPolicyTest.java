@@ -0,0 +1,110 @@
+/*
+ * Copyright 2012-2022 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.webapp.vectorizer;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+
+import org.codelibs.fess.webapp.vectorizer.SemanticRoutingPolicy.Route;
+import org.dbflute.utflute.core.PlainTestCase;
+
+public class RuleBasedRoutingPolicyTest extends PlainTestCase {
+
+    private final MockVectorizer vectorizer = new MockVectorizer();
+
+    public void test_route() {
+        final RuleBasedRoutingPolicy policy = new RuleBasedRoutingPolicy();
+        assertEquals(Route.SEMANTIC, policy.route("running shoes", vectorizer));
+        assertEquals(Route.SEMANTIC, policy.route("how to reset a password?", vectorizer));
+        assertEquals(Route.SEMANTIC, policy.route("東京の天気", vectorizer));
+        assertEquals(Route.SEMANTIC, policy.route("iphone 15 pro", vectorizer));
+
+        assertEquals(Route.SHORT_QUERY, policy.route("shoes", vectorizer));
+        assertEquals(Route.SHORT_QUERY, policy.route(" ", vectorizer));
+        assertEquals(Route.SHORT_QUERY, policy.route("o'reilly", vectorizer));
+        assertEquals(Route.SHORT_QUERY, policy.route("iPhone15", vectorizer));
+        assertEquals(Route.SHORT_QUERY, policy.route("天", vectorizer));
+
+        assertEquals(Route.NON_TEXT, policy.route("12345", vectorizer));
+        assertEquals(Route.NON_TEXT, policy.route("3.14", vectorizer));
+        assertEquals(Route.NON_TEXT, policy.route("AB-1234-567", vectorizer));
+        assertEquals(Route.NON_TEXT, policy.route("2022-10-01 12:00", vectorizer));
+
+        assertEquals(Route.DENIED, policy.route("https://fess.codelibs.org/ja/", vectorizer));
+        assertEquals(Route.DENIED, policy.route(" ftp://example.com ", vectorizer));
+        assertEquals(Route.DENIED, policy.route("info@example.com", vectorizer));
+    }
+
+    public void test_route_settings() {
+        final RuleBasedRoutingPolicy policy = new RuleBasedRoutingPolicy();
+        policy.setMinWords(1);
+        policy.setMinLetterRatio(0.0);
+        policy.setDenyPattern("(?i)error \\d+|");
+        assertEquals(Route.SEMANTIC, policy.route("shoes", vectorizer));
+        assertEquals(Route.SEMANTIC, policy.route("AB-1234", vectorizer));
+        assertEquals(Route.SHORT_QUERY, policy.route("12345", vectorizer));
+        assertEquals(Route.SEMANTIC, policy.route("https://fess.codelibs.org/", vectorizer));
+        assertEquals(Route.DENIED, policy.route("Error 404", vectorizer));
+
+        policy.setDenyPattern(null);
+        assertEquals(Route.SEMANTIC, policy.route("Error 404", vectorizer));
+    }
+
+    public void test_route_overload() {
+        final RuleBasedRoutingPolicy policy = new RuleBasedRoutingPolicy();
+        vectorizer.load = 0.9;
+        assertEquals(Route.SEMANTIC, policy.route("running shoes", vectorizer));
+        vectorizer.load = 1.0;
+        assertEquals(Route.OVERLOAD, policy.route("running shoes", vectorizer));
+        // text rules are checked first
+        assertEquals(Route.SHORT_QUERY, policy.route("shoes", vectorizer));
+
+        policy.setMaxLoad(0.8);
+        vectorizer.load = 0.8;
+        assertEquals(Route.OVERLOAD, policy.route("running shoes", vectorizer));
+        vectorizer.load = 0.5;
+        assertEquals(Route.SEMANTIC, policy.route("running shoes", vectorizer));
+    }
+
+    public void test_getLoad() throws Exception {
+        final AbstractVectorizer abstractVectorizer = new AbstractVectorizer() {
+            @Override
+            protected void initialize() {
+            }
+
+            @Override
+            protected List<Map<String, float[]>> execute(final List<Map<String, Object>> inputs, final List<String> langs) {
+                return List.of();
+            }
+
+            @Override
+            public boolean isActive() {
+                return true;
+            }
+        };
+        assertEquals(0.0, abstractVectorizer.getLoad());
+
+        abstractVectorizer.bulkhead = new Semaphore(4);
+        abstractVectorizer.maxConcurrentRequests = 4;
+        abstractVectorizer.bulkhead.acquire(3);
+        assertEquals(0.75, abstractVectorizer.getLoad());
+
+        abstractVectorizer.circuitBreaker = new CircuitBreaker(1, 0L, 60000L);
+        abstractVectorizer.circuitBreaker.onFailure();
+        assertEquals(1.0, abstractVectorizer.getLoad());
+    }
+}
@@ -0,0 +1,303 @@
+/*
+ * Copyright 2012-2022 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.webapp.vectorizer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.codelibs.core.lang.StringUtil;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * In-JVM vectorizer server implementing {@code /}, {@code /ping} and {@code /vectorize}.
+ * A vector is derived from the hash of its text, so the same text always gets the same vector.
+ * Latency, jitter and error rate of {@code /vectorize} are configurable to simulate a degraded server.
+ */
+public class StubVectorizerServer implements AutoCloseable {
+
+    protected final int dimension;
+
+    protected final VectorizerCodec codec;
+
+    protected String[] languages = { "en", "ja" };
+
+    protected volatile long latency;
+
+    protected volatile long metadataLatency;
+
+    protected volatile long bodyLatency;
+
+    protected volatile long jitter;
+
+    protected final Map<String, Long> languageLatencies = new ConcurrentHashMap<>();
+
+    protected volatile double errorRate;
+
+    protected final LongAdder requestCount = new LongAdder();
+
+    protected final LongAdder errorCount = new LongAdder();
+
+    protected HttpServer server;
+
+    protected ExecutorService executor;
+
+    public StubVectorizerServer(final int dimension) {
+        this.dimension = dimension;
+        codec = new VectorizerCodec(new String[0], dimension);
+    }
+
+    public String start() throws IOException {
+        // avoid the delay of Nagle's algorithm on small responses
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        executor = Executors.newCachedThreadPool(r -> {
+            final Thread thread = new Thread(r, "StubVectorizerServer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+        server.start();
+        return getUrl();
+    }
+
+    public String getUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    protected void handle(final HttpExchange exchange) throws IOException {
+        try (exchange) {
+            final byte[] request;
+            try (InputStream in = exchange.getRequestBody()) {
+                request = in.readAllBytes();
+            }
+            final String path = exchange.getRequestURI().getPath();
+            final byte[] response;
+            if ("/".equals(path)) {
+                sleep(metadataLatency);
+                response = createRootResponse();
+            } else if ("/ping".equals(path)) {
+                response = "{\"status\":\"ok\"}".getBytes(StandardCharsets.UTF_8);
+            } else if ("/vectorize".equals(path)) {
+                requestCount.increment();
+                delay(request);
+                if (errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate) {
+                    errorCount.increment();
+                    sendResponse(exchange, 500, "{\"error\":\"stub error\"}".getBytes(StandardCharsets.UTF_8));
+                    return;
+                }
+                response = createResponse(request);
+            } else {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            sendResponse(exchange, 200, response);
+        }
+    }
+
+    protected void sendResponse(final HttpExchange exchange, final int status, final byte[] response) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, response.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            if (bodyLatency > 0 && response.length > 1) {
+                out.write(response, 0, 1);
+                out.flush();
+                sleep(bodyLatency);
+                out.write(response, 1, response.length - 1);
+            } else {
+                out.write(response);
+            }
+        }
+    }
+
+    protected void delay(final byte[] request) throws IOException {
+        long time = latency + (jitter > 0 ? ThreadLocalRandom.current().nextLong(jitter + 1) : 0L);
+        if (!languageLatencies.isEmpty()) {
+            @SuppressWarnings("unchecked")
+            final List<Map<String, Object>> data = (List<Map<String, Object>>) codec.readMap(new ByteArrayInputStream(request)).get("data");
+            long languageLatency = 0L;
+            for (final Map<String, Object> item : data) {
+                languageLatency = Math.max(languageLatency, languageLatencies.getOrDefault(item.get("lang"), 0L));
+            }
+            time += languageLatency;
+        }
+        sleep(time);
+    }
+
+    protected void sleep(final long time) {
+        if (time > 0) {
+            try {
+                Thread.sleep(time);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    protected byte[] createRootResponse() {
+        final StringBuilder buf = new StringBuilder();
+        buf.append("{\"languages\":[");
+        for (int i = 0; i < languages.length; i++) {
+            if (i > 0) {
+                buf.append(',');
+            }
+            buf.append('"').append(languages[i]).append('"');
+        }
+        buf.append("],\"vector_formats\":[\"json\",\"base64_float32\"],\"dimension\":").append(dimension).append('}');
+        return buf.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns a vectorize response with a vector of each non-blank text field of the request body.
+     */
+    public byte[] createResponse(final byte[] request) throws IOException {
+        final Map<String, Object> requestMap = codec.readMap(new ByteArrayInputStream(request));
+        final boolean base64 = "base64_float32".equals(requestMap.get("vector_format"));
+        @SuppressWarnings("unchecked")
+        final List<Map<String, Object>> data = (List<Map<String, Object>>) requestMap.get("data");
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes("{\"results\":[".getBytes(StandardCharsets.UTF_8));
+        for (int i = 0; i < data.size(); i++) {
+            if (i > 0) {
+                out.write(',');
+            }
+            out.write('{');
+            boolean first = true;
+            for (final Map.Entry<String, Object> entry : data.get(i).entrySet()) {
+                if (!"lang".equals(entry.getKey()) && entry.getValue() instanceof final String text && StringUtil.isNotBlank(text)) {
+                    if (!first) {
+                        out.write(',');
+                    }
+                    first = false;
+                    out.writeBytes(('"' + entry.getKey() + "\":").getBytes(StandardCharsets.UTF_8));
+                    writeVector(out, createVector(text, dimension), base64);
+                }
+            }
+            out.write('}');
+        }
+        out.writeBytes("]}".getBytes(StandardCharsets.UTF_8));
+        return out.toByteArray();
+    }
+
+    protected static void writeVector(final ByteArrayOutputStream out, final float[] vector, final boolean base64) {
+        final String value;
+        if (base64) {
+            final ByteBuffer buffer = ByteBuffer.allocate(vector.length * 4).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.asFloatBuffer().put(vector);
+            value = '"' + Base64.getEncoder().encodeToString(buffer.array()) + '"';
+        } else {
+            final StringBuilder buf = new StringBuilder(vector.length * 12);
+            buf.append('[');
+            for (int i = 0; i < vector.length; i++) {
+                if (i > 0) {
+                    buf.append(',');
+                }
+                buf.append(vector[i]);
+            }
+            buf.append(']');
+            value = buf.toString();
+        }
+        out.writeBytes(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Returns the unit vector derived from the hash of the text.
+     */
+    public static float[] createVector(final String text, final int dimension) {
+        final SplittableRandom random = new SplittableRandom(text.hashCode());
+        final float[] vector = new float[dimension];
+        for (int i = 0; i < dimension; i++) {
+            vector[i] = (float) (random.nextDouble() * 2.0 - 1.0);
+        }
+        VectorReducer.normalize(vector);
+        return vector;
+    }
+
+    public void setLanguages(final String... languages) {
+        this.languages = languages;
+    }
+
+    public void setLatency(final long latency) {
+        this.latency = latency;
+    }
+
+    /**
+     * Adds the latency to requests containing the language.
+     */
+    public void setLatency(final String lang, final long latency) {
+        languageLatencies.put(lang, latency);
+    }
+
+    /**
+     * Adds the latency to requests of the metadata.
+     */
+    public void setMetadataLatency(final long metadataLatency) {
+        this.metadataLatency = metadataLatency;
+    }
+
+    /**
+     * Stalls a response after its headers and first byte are sent.
+     */
+    public void setBodyLatency(final long bodyLatency) {
+        this.bodyLatency = bodyLatency;
+    }
+
+    public void setJitter(final long jitter) {
+        this.jitter = jitter;
+    }
+
+    public void setErrorRate(final double errorRate) {
+        this.errorRate = errorRate;
+    }
+
+    public long getRequestCount() {
+        return requestCount.sum();
+    }
+
+    public long getErrorCount() {
+        return errorCount.sum();
+    }
+
+    @Override
+    public void close() {
+        if (server != null) {
+            server.stop(0);
+        }
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,285 @@
+/*
+ * Copyright 2012-2022 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.webapp.vectorizer;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.dbflute.utflute.core.PlainTestCase;
+
+public class VectorBackfillJobTest extends PlainTestCase {
+
+    private Path checkpointFile;
+
+    private TestJob job;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        checkpointFile = Files.createTempFile("backfill", ".properties");
+        Files.delete(checkpointFile);
+        job = new TestJob();
+        job.setVectorizer(new MockVectorizer());
+        job.setBatchSize(2);
+        job.setRate(10000);
+        job.setModelVersion("v2");
+        job.setCheckpointFile(checkpointFile);
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        Files.deleteIfExists(checkpointFile);
+        super.tearDown();
+    }
+
+    public void test_execute() throws Exception {
+        for (int i = 1; i <= 5; i++) {
+            job.addDoc("en", i, "aaa" + i);
+        }
+        job.addDoc("ja", 6, "bbb");
+        job.addDoc("ja", 7, " ");
+        final Map<String, Object> current = job.addDoc("en", 8, "ccc");
+        current.put("content_en_vector", new float[] { 2.0f });
+        current.put("vector_model", "v2");
+        final Map<String, Object> stale = job.addDoc("en", 9, "ddd");
+        stale.put("content_en_vector", new float[] { 2.0f });
+        stale.put("vector_model", "v1");
+
+        final String result = job.execute();
+
+        assertTrue(result, result.startsWith("Backfill: processed=8, updated=7, skipped=1, failed=0"));
+        for (final String id : new String[] { "doc1", "doc5", "doc6", "doc9" }) {
+            final Map<String, Object> doc = job.index.get(id);
+            assertEquals(id, 1.0f, ((float[]) doc.get("content_" + doc.get("lang") + "_vector"))[0]);
+            assertEquals(id, "v2", doc.get("vector_model"));
+        }
+        assertEquals(2.0f, ((float[]) current.get("content_en_vector"))[0]);
+        assertFalse(job.index.get("doc7").containsKey("content_ja_vector"));
+        assertEquals("v2", job.index.get("doc7").get("vector_model"));
+        // en is read by 2 documents after each doc_id
+        assertEquals("[en:null, en:doc2, en:doc4, en:doc9, ja:null, ja:doc7]", job.searches.toString());
+
+        final Properties checkpoint = loadCheckpoint();
+        assertNull(checkpoint.getProperty("en"));
+        assertNull(checkpoint.getProperty("ja"));
+        assertEquals("v2", checkpoint.getProperty("model_version"));
+
+        // processed documents do not match again, and the injected vectorizer is not closed
+        assertFalse(((MockVectorizer) job.vectorizer).closed);
+        job.execute();
+        assertEquals(8L, job.getProcessedCount());
+    }
+
+    public void test_execute_noModelVersion() throws Exception {
+        final MockVectorizer vectorizer = new MockVectorizer();
+        vectorizer.fields = new String[] { "title", "content" };
+        job.setVectorizer(vectorizer);
+        job.setModelVersion(null);
+        job.setLanguages(new String[] { "en" });
+        job.addDoc("en", 1, "aaa");
+        job.addDoc("en", 2, "bbb").put("title", "ccc");
+
+        job.execute();
+        assertEquals(2L, job.getUpdatedCount());
+        assertFalse(job.index.get("doc1").containsKey("title_en_vector"));
+        assertTrue(job.index.get("doc2").containsKey("title_en_vector"));
+
+        // a document without a title is not read again
+        job.execute();
+        assertEquals(2L, job.getProcessedCount());
+    }
+
+    public void test_execute_resume() throws Exception {
+        for (int i = 1; i <= 5; i++) {
+            job.addDoc("en", i, "aaa" + i);
+        }
+        saveCheckpoint("v2", "doc3");
+
+        job.setLanguages(new String[] { "en" });
+        job.execute();
+
+        assertEquals(2L, job.getProcessedCount());
+        assertFalse(job.index.get("doc3").containsKey("content_en_vector"));
+        assertTrue(job.index.get("doc4").containsKey("content_en_vector"));
+        assertEquals("[en:doc3, en:doc5]", job.searches.toString());
+    }
+
+    public void test_execute_modelChanged() throws Exception {
+        for (int i = 1; i <= 5; i++) {
+            job.addDoc("en", i, "aaa" + i);
+        }
+        saveCheckpoint("v1", "doc3");
+
+        job.setLanguages(new String[] { "en" });
+        job.execute();
+
+        // the checkpoint of the old model is discarded
+        assertEquals(5L, job.getProcessedCount());
+        assertEquals("en:null", job.searches.get(0));
+    }
+
+    public void test_execute_failed() throws Exception {
+        job.addDoc("en", 1, "aaa");
+        job.addDoc("en", 2, "fail");
+        job.addDoc("en", 3, "bbb");
+        job.addDoc("en", 4, "ccc");
+        job.failedIds.add("doc3");
+
+        job.setLanguages(new String[] { "en" });
+        job.execute();
+
+        assertEquals(4L, job.getProcessedCount());
+        assertEquals(2L, job.getUpdatedCount());
+        assertEquals(2L, job.getFailedCount());
+        assertFalse(job.index.get("doc2").containsKey("content_en_vector"));
+        assertFalse(job.index.get("doc3").containsKey("content_en_vector"));
+    }
+
+    public void test_execute_vectorizerDown() throws Exception {
+        job.addDoc("en", 1, "aaa");
+        job.addDoc("en", 2, "bbb");
+        job.addDoc("en", 3, "fail");
+        job.addDoc("en", 4, "fail");
+
+        job.execute();
+
+        // stops at the batch without vectors, and retries it at the next run
+        assertEquals(2L, job.getProcessedCount());
+        assertEquals("[en:null, en:doc2]", job.searches.toString());
+        assertEquals("doc2", loadCheckpoint().getProperty("en"));
+    }
+
+    public void test_getDefaultCheckpointFile() throws Exception {
+        final String varPath = System.getProperty("fess.var.path");
+        try {
+            System.setProperty("fess.var.path", "/var/lib/fess");
+            assertEquals(Paths.get("/var/lib/fess", "vectorizer", "backfill.properties"), job.getDefaultCheckpointFile());
+        } finally {
+            if (varPath != null) {
+                System.setProperty("fess.var.path", varPath);
+            } else {
+                System.clearProperty("fess.var.path");
+            }
+        }
+    }
+
+    public void test_saveCheckpoint_createDirectory() throws Exception {
+        final Path dir = Files.createTempDirectory("backfill");
+        try {
+            job.setCheckpointFile(dir.resolve("vectorizer").resolve("backfill.properties"));
+            job.checkpoint.setProperty("en", "doc1");
+            job.saveCheckpoint();
+            assertTrue(Files.exists(dir.resolve("vectorizer").resolve("backfill.properties")));
+        } finally {
+            Files.deleteIfExists(dir.resolve("vectorizer").resolve("backfill.properties"));
+            Files.deleteIfExists(dir.resolve("vectorizer"));
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    private Properties loadCheckpoint() throws Exception {
+        final Properties checkpoint = new Properties();
+        try (InputStream in = Files.newInputStream(checkpointFile)) {
+            checkpoint.load(in);
+        }
+        return checkpoint;
+    }
+
+    private void saveCheckpoint(final String modelVersion, final String docId) throws Exception {
+        final Properties checkpoint = new Properties();
+        checkpoint.setProperty("model_version", modelVersion);
+        checkpoint.setProperty("en", docId);
+        try (OutputStream out = Files.newOutputStream(checkpointFile)) {
+            checkpoint.store(out, null);
+        }
+    }
+
+    static class TestJob extends VectorBackfillJob {
+        final Map<String, Map<String, Object>> index = new TreeMap<>();
+
+        final List<String> searches = new ArrayList<>();
+
+        final Set<String> failedIds = new HashSet<>();
+
+        Map<String, Object> addDoc(final String lang, final int id, final String content) {
+            final Map<String, Object> doc = new HashMap<>();
+            doc.put("doc_id", "doc" + id);
+            doc.put("lang", lang);
+            doc.put("content", content);
+            index.put("doc" + id, doc);
+            return doc;
+        }
+
+        @Override
+        protected List<Map<String, Object>> search(final String lang, final String searchAfter, final int size) {
+            searches.add(lang + ":" + searchAfter);
+            return index.values()
+                    .stream()
+                    .filter(doc -> lang.equals(doc.get("lang")))
+                    .filter(doc -> isStale(doc, lang))
+                    .filter(doc -> searchAfter == null || ((String) doc.get("doc_id")).compareTo(searchAfter) > 0)
+                    .limit(size)
+                    .map(doc -> {
+                        final Map<String, Object> hit = new HashMap<>(doc);
+                        hit.put("_id", doc.get("doc_id"));
+                        return hit;
+                    })
+                    .toList();
+        }
+
+        // the same as createStaleQuery
+        private boolean isStale(final Map<String, Object> doc, final String lang) {
+            if (modelVersion != null) {
+                return !modelVersion.equals(doc.get("vector_model"));
+            }
+            for (final String field : vectorizer.getFields()) {
+                if (doc.containsKey(field) && !doc.containsKey(field + "_" + lang + "_vector")) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        protected int update(final List<Map<String, Object>> docs) {
+            int failures = 0;
+            for (final Map<String, Object> doc : docs) {
+                final String id = (String) doc.get("_id");
+                if (failedIds.contains(id)) {
+                    failures++;
+                    continue;
+                }
+                doc.forEach((key, value) -> {
+                    if (!"_id".equals(key)) {
+                        index.get(id).put(key, value);
+                    }
+                });
+            }
+            return failures;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2012-2022 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.webapp.vectorizer;
+
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.dbflute.utflute.core.PlainTestCase;
+
+public class VectorCacheTest extends PlainTestCase {
+
+    private static final String[] FIELDS = { "content" };
+
+    public void test_hitAndMiss() throws Exception {
+        final VectorCache cache = new VectorCache(10, 0L);
+        final AtomicInteger counter = new AtomicInteger();
+        final VectorCache.Key key = new VectorCache.Key("en", FIELDS, new String[] { "aaa" });
+
+        final Map<String, float[]> value1 = cache.get(key, () -> {
+            counter.incrementAndGet();
+            return Map.of("content", new float[] { 1.0f });
+        });
+        final Map<String, float[]> value2 = cache.get(new VectorCache.Key("en", FIELDS, new String[] { "aaa" }), () -> {
+            counter.incrementAndGet();
+            return Map.of("content", new float[] { 2.0f });
+        });
+
+        assertEquals(1, counter.get());
+        assertSame(value1, value2);
+        assertEquals(1L, cache.getHitCount());
+        assertEquals(1L, cache.getMissCount());
+        assertEquals(1L, cache.getLoadCount());
+    }
+
+    public void test_emptyValue() throws Exception {
+        final VectorCache cache = new VectorCache(10, 0L);
+        final VectorCache.Key key = new VectorCache.Key("en", FIELDS, new String[] { "aaa" });
+
+        assertTrue(cache.get(key, Map::of).isEmpty());
+        assertEquals(0, cache.size());
+    }
+
+    public void test_eviction() throws Exception {
+        final VectorCache cache = new VectorCache(2, 0L);
+        for (int i = 0; i < 5; i++) {
+            cache.put(new VectorCache.Key("en", FIELDS, new String[] { "q" + i }), Map.of("content", new float[] { i }));
+        }
+
+        assertEquals(2, cache.size());
+        assertEquals(3L, cache.getEvictionCount());
+        assertNull(cache.getIfPresent(new VectorCache.Key("en", FIELDS, new String[] { "q0" })));
+        assertNotNull(cache.getIfPresent(new VectorCache.Key("en", FIELDS, new String[] { "q4" })));
+    }
+
+    public void test_expired() throws Exception {
+        final VectorCache cache = new VectorCache(10, 1L);
+        final VectorCache.Key key = new VectorCache.Key("en", FIELDS, new String[] { "aaa" });
+        cache.put(key, Map.of("content", new float[] { 1.0f }));
+        Thread.sleep(10L);
+
+        assertNull(cache.getIfPresent(key));
+        assertEquals(1L, cache.getEvictionCount());
+    }
+
+    public void test_singleFlight() throws Exception {
+        final VectorCache cache = new VectorCache(10, 0L);
+        final VectorCache.Key key = new VectorCache.Key("en", FIELDS, new String[] { "aaa" });
+        final AtomicInteger counter = new AtomicInteger();
+        final CountDownLatch latch = new CountDownLatch(1);
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final Future<?>[] futures = new Future<?>[4];
+            for (int i = 0; i < futures.length; i++) {
+                futures[i] = executor.submit(() -> cache.get(key, () -> {
+                    counter.incrementAndGet();
+                    try {
+                        latch.await(5, TimeUnit.SECONDS);
+                    } catch (final InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return Map.of("content", new float[] { 1.0f });
+                }));
+            }
+            Thread.sleep(100L);
+            latch.countDown();
+            for (final Future<?> future : futures) {
+                assertNotNull(future.get(5, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(1, counter.get());
+        assertEquals(1L, cache.getLoadCount());
+    }
+}
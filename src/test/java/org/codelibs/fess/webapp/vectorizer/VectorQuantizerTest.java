@@ -0,0 +1,59 @@
+/*
+ * Copyright 2012-2022 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.webapp.vectorizer;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.dbflute.utflute.core.PlainTestCase;
+
+public class VectorQuantizerTest extends PlainTestCase {
+
+    public void test_quantize() {
+        final VectorQuantizer quantizer = new VectorQuantizer(-1.0f, 1.0f);
+        assertEquals(1, quantizer.getDimension());
+        assertEquals("[-128.0, -64.0, 0.0, 63.0, 127.0]",
+                Arrays.toString(quantizer.quantize(new float[] { -1.0f, -0.5f, 0.003f, 0.5f, 1.0f })));
+        assertEquals("[-128.0, 127.0]", Arrays.toString(quantizer.quantize(new float[] { -2.0f, 2.0f })));
+    }
+
+    public void test_quantize_perDimension() throws Exception {
+        final File file = File.createTempFile("quantization", ".txt");
+        file.deleteOnExit();
+        Files.writeString(file.toPath(), "0.0,-2.0\n1.0,2.0\n", StandardCharsets.UTF_8);
+        final VectorQuantizer quantizer = VectorQuantizer.load(file.toPath());
+        assertEquals(2, quantizer.getDimension());
+        assertEquals("[-128.0, 127.0]", Arrays.toString(quantizer.quantize(new float[] { 0.0f, 2.0f })));
+
+        try {
+            quantizer.quantize(new float[] { 0.0f });
+            fail();
+        } catch (final IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void test_invalidRange() {
+        try {
+            new VectorQuantizer(1.0f, 1.0f);
+            fail();
+        } catch (final IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2012-2022 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.webapp.vectorizer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.dbflute.utflute.core.PlainTestCase;
+
+public class VectorReducerTest extends PlainTestCase {
+
+    public void test_truncate() {
+        final VectorReducer reducer = VectorReducer.truncate(2);
+        assertEquals("[0.6, 0.8]", Arrays.toString(reducer.reduce(new float[] { 3.0f, 4.0f, 5.0f })));
+
+        final float[] vector = { 0.6f, 0.8f };
+        assertSame(vector, reducer.reduce(vector));
+
+        try {
+            reducer.reduce(new float[] { 1.0f });
+            fail();
+        } catch (final IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void test_pca() throws Exception {
+        final File file = File.createTempFile("pca", ".txt");
+        file.deleteOnExit();
+        Files.writeString(file.toPath(), "1.0,1.0,1.0\n0.0,0.0,1.0\n1.0,0.0,0.0\n0.0,1.0,0.0\n", StandardCharsets.UTF_8);
+        final VectorReducer reducer = VectorReducer.load(file.toPath(), 2);
+        assertEquals(2, reducer.getDimension());
+        assertEquals("[0.8, 0.6]", Arrays.toString(reducer.reduce(new float[] { 4.0f, 9.0f, 5.0f })));
+
+        try {
+            reducer.reduce(new float[] { 1.0f, 2.0f });
+            fail();
+        } catch (final IllegalArgumentException e) {
+            // expected
+        }
+
+        try {
+            VectorReducer.load(file.toPath(), 4);
+            fail();
+        } catch (final IOException e) {
+            // expected
+        }
+    }
+}
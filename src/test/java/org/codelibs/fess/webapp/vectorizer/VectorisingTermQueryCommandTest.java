@@ -15,11 +15,19 @@
  */
 package org.codelibs.fess.webapp.vectorizer;
 
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.index.Term;
 import org.apache.lucene.queryparser.classic.QueryParser.Operator;
 import org.apache.lucene.queryparser.ext.ExtendableQueryParser;
 import org.apache.lucene.search.TermQuery;
@@ -29,29 +37,29 @@ import org.codelibs.fess.exception.InvalidQueryException;
 import org.codelibs.fess.mylasta.direction.FessConfig;
 import org.codelibs.fess.query.QueryFieldConfig;
 import org.codelibs.fess.util.ComponentUtil;
+import org.codelibs.fess.webapp.vectorizer.SemanticRoutingPolicy.Route;
+import org.codelibs.fess.webapp.vectorizer.VectorisingTermQueryCommand.CombineMode;
+import org.codelibs.fess.webapp.vectorizer.VectorizerMetrics.FallbackReason;
 import org.dbflute.optional.OptionalThing;
 import org.dbflute.utflute.lastadi.LastaDiTestCase;
+import org.opensearch.common.lucene.search.function.FunctionScoreQuery.ScoreMode;
 import org.opensearch.index.query.BoolQueryBuilder;
 import org.opensearch.index.query.MatchAllQueryBuilder;
 import org.opensearch.index.query.MatchPhraseQueryBuilder;
 import org.opensearch.index.query.PrefixQueryBuilder;
 import org.opensearch.index.query.QueryBuilder;
+import org.opensearch.index.query.QueryBuilders;
 import org.opensearch.index.query.TermQueryBuilder;
 import org.opensearch.index.query.WildcardQueryBuilder;
+import org.opensearch.script.Script;
 import org.opensearch.search.sort.SortBuilder;
-import org.testcontainers.containers.GenericContainer;
-import org.testcontainers.utility.DockerImageName;
 
 public class VectorisingTermQueryCommandTest extends LastaDiTestCase {
     private static final Logger logger = LogManager.getLogger(VectorisingTermQueryCommandTest.class);
 
-    private static final String VERSION = "snapshot";
-
-    private static final String IMAGE_TAG = "ghcr.io/codelibs/fess-text-vectorizer:" + VERSION;
-
     private VectorisingTermQueryCommand queryCommand;
 
-    GenericContainer vectorizingServer;
+    StubVectorizerServer vectorizingServer;
 
     ThreadLocal<String[]> currentLangs = new ThreadLocal<>();
 
@@ -63,8 +71,7 @@ public class VectorisingTermQueryCommandTest extends LastaDiTestCase {
     @Override
     public void setUp() throws Exception {
         super.setUp();
-        vectorizingServer = new GenericContainer<>(DockerImageName.parse(IMAGE_TAG))//
-                .withExposedPorts(8900);
+        vectorizingServer = new StubVectorizerServer(768);
         vectorizingServer.start();
 
         final QueryFieldConfig queryFieldConfig = new QueryFieldConfig();
@@ -88,16 +95,19 @@ public class VectorisingTermQueryCommandTest extends LastaDiTestCase {
         };
         queryCommand.vectorizer = Vectorizer.create()//
                 .url(getServerUrl())//
+                .initTimeout(30000L)//
                 .build();
+        queryCommand.setQueryTimeout(30000L);
     }
 
     private String getServerUrl() {
-        return "http://" + vectorizingServer.getHost() + ":" + vectorizingServer.getFirstMappedPort();
+        return vectorizingServer.getUrl();
     }
 
     @Override
     public void tearDown() throws Exception {
-        vectorizingServer.stop();
+        queryCommand.destroy();
+        vectorizingServer.close();
         ComponentUtil.setFessConfig(null);
         super.tearDown();
     }
@@ -124,6 +134,227 @@ public class VectorisingTermQueryCommandTest extends LastaDiTestCase {
         }
     }
 
+    public void test_getScripts_multiField() throws Exception {
+        queryCommand.vectorizer.close();
+        queryCommand.vectorizer = Vectorizer.create()//
+                .url(getServerUrl())//
+                .fields("title,content")//
+                .initTimeout(30000L)//
+                .build();
+        queryCommand.setFieldWeights(Map.of("title", 2.0f));
+
+        Script[] scripts = queryCommand.getScripts("en", queryCommand.getVectorFields(), "aaa");
+        assertEquals(1, scripts.length);
+        assertEquals("painless", scripts[0].getLang());
+        assertEquals(List.of(List.of("title_en_vector", "content_en_vector")), scripts[0].getParams().get("fields"));
+        assertEquals(List.of(2.0f, 1.0f), scripts[0].getParams().get("weights"));
+        final List<?> queryValues = (List<?>) scripts[0].getParams().get("query_values");
+        assertEquals(1, queryValues.size());
+        assertTrue(Arrays.equals(StubVectorizerServer.createVector("aaa", 768), (float[]) queryValues.get(0)));
+
+        queryCommand.setScriptSpaceType("innerproduct");
+        scripts = queryCommand.getScripts("en", queryCommand.getVectorFields(), "aaa");
+        assertEquals(2, scripts.length);
+        assertEquals("knn_score", scripts[0].getIdOrCode());
+        assertEquals("title_en_vector", scripts[0].getParams().get("field"));
+        assertEquals("content_en_vector", scripts[1].getParams().get("field"));
+    }
+
+    public void test_getScripts_multiLanguage() throws Exception {
+        Script[] scripts = queryCommand.getScripts(new String[] { "ja", "en" }, queryCommand.getVectorFields(), "aaa");
+        assertEquals(1, scripts.length);
+        assertEquals("painless", scripts[0].getLang());
+        assertEquals(List.of(List.of("content_ja_vector"), List.of("content_en_vector")), scripts[0].getParams().get("fields"));
+        assertEquals(2, ((List<?>) scripts[0].getParams().get("query_values")).size());
+
+        queryCommand.setScriptSpaceType("innerproduct");
+        scripts = queryCommand.getScripts(new String[] { "ja", "en" }, queryCommand.getVectorFields(), "aaa");
+        assertEquals(2, scripts.length);
+        assertEquals("content_ja_vector", scripts[0].getParams().get("field"));
+        assertEquals("content_en_vector", scripts[1].getParams().get("field"));
+    }
+
+    public void test_convertTermQueryWithSemanticMultiLanguage() throws Exception {
+        currentLangs.set(new String[] { "ja", "fr", "en" });
+        try {
+            VectorisingQueryContext context =
+                    assertQueryBuilder(MatchAllQueryBuilder.class, "{\"match_all\":{\"boost\":1.0}}", "semantic:aaa");
+            // a single language and field is scored by knn_score
+            assertEquals(1, context.getScripts().length);
+            assertEquals("knn_score", context.getScripts()[0].getIdOrCode());
+            assertEquals("content_ja_vector", context.getScripts()[0].getParams().get("field"));
+
+            queryCommand.setMultiLanguage(true);
+            context = assertQueryBuilder(MatchAllQueryBuilder.class, "{\"match_all\":{\"boost\":1.0}}", "semantic:aaa");
+            assertEquals(List.of(List.of("content_ja_vector"), List.of("content_en_vector")),
+                    context.getScripts()[0].getParams().get("fields"));
+
+            // knn_score scripts are weighted and combined by function_score
+            queryCommand.setScriptSpaceType("innerproduct");
+            queryCommand.setCombineMode(CombineMode.MAX);
+            queryCommand.setFieldWeights(Map.of("content", 2.0f));
+            context = assertQueryBuilder(MatchAllQueryBuilder.class, "{\"match_all\":{\"boost\":1.0}}", "semantic:aaa");
+            assertEquals(2, context.getScripts().length);
+            assertTrue(Arrays.equals(new float[] { 2.0f, 2.0f }, context.getScriptWeights()));
+            assertEquals(ScoreMode.MAX, context.getScoreMode());
+            final String scoreQuery = VectorisingQueryFilter.createScoreQuery(QueryBuilders.matchAllQuery(), context.getScripts(),
+                    context.getScriptWeights(), context.getScoreMode()).toString();
+            assertTrue(scoreQuery, scoreQuery.contains("\"weight\" : 2.0"));
+            assertTrue(scoreQuery, scoreQuery.contains("\"score_mode\" : \"max\""));
+            assertTrue(scoreQuery, scoreQuery.contains("\"boost_mode\" : \"replace\""));
+        } finally {
+            currentLangs.set(null);
+        }
+    }
+
+    public void test_convertTermQueryWithSemanticRouting() throws Exception {
+        currentLangs.set(new String[] { "en" });
+        try {
+            final RuleBasedRoutingPolicy policy = new RuleBasedRoutingPolicy();
+            queryCommand.setRoutingPolicy(policy);
+            assertQueryBuilder(BoolQueryBuilder.class,
+                    "{\"bool\":{\"should\":[{\"match_phrase\":{\"title\":{\"query\":\"aaa\",\"slop\":0,\"zero_terms_query\":\"NONE\",\"boost\":0.5}}},{\"match_phrase\":{\"content\":{\"query\":\"aaa\",\"slop\":0,\"zero_terms_query\":\"NONE\",\"boost\":0.05}}}],\"adjust_pure_negative\":true,\"boost\":1.0}}",
+                    "semantic:aaa");
+            final VectorizerMetrics metrics = queryCommand.getMetrics();
+            assertEquals(1L, metrics.getRouteCount(Route.SHORT_QUERY));
+            assertEquals(0L, vectorizingServer.getRequestCount());
+
+            policy.setMinWords(1);
+            final VectorisingQueryContext context =
+                    assertQueryBuilder(MatchAllQueryBuilder.class, "{\"match_all\":{\"boost\":1.0}}", "semantic:aaa");
+            assertEquals(1, context.getScripts().length);
+            assertEquals(1L, metrics.getRouteCount(Route.SEMANTIC));
+        } finally {
+            currentLangs.set(null);
+        }
+    }
+
+    public void test_convertTermQueryWithSemanticInvalidVector() throws Exception {
+        currentLangs.set(new String[] { "en" });
+        try {
+            queryCommand.setQuantizer(new VectorQuantizer(new float[] { -1.0f, -1.0f }, new float[] { 1.0f, 1.0f }));
+            assertQueryBuilder(BoolQueryBuilder.class,
+                    "{\"bool\":{\"should\":[{\"match_phrase\":{\"title\":{\"query\":\"aaa\",\"slop\":0,\"zero_terms_query\":\"NONE\",\"boost\":0.5}}},{\"match_phrase\":{\"content\":{\"query\":\"aaa\",\"slop\":0,\"zero_terms_query\":\"NONE\",\"boost\":0.05}}}],\"adjust_pure_negative\":true,\"boost\":1.0}}",
+                    "semantic:aaa");
+            assertEquals(1L, queryCommand.getMetrics().getFallbackCount(FallbackReason.INVALID_VECTOR));
+        } finally {
+            currentLangs.set(null);
+        }
+    }
+
+    public void test_loadQuantizer() throws Exception {
+        final File file = File.createTempFile("quantization", ".txt");
+        file.deleteOnExit();
+        Files.writeString(file.toPath(), "0.0,-2.0\n1.0,2.0\n", StandardCharsets.UTF_8);
+        assertEquals(2, queryCommand.loadQuantizer(file.getAbsolutePath(), 2).getDimension());
+        try {
+            queryCommand.loadQuantizer(file.getAbsolutePath(), 768);
+            fail();
+        } catch (final IllegalArgumentException e) {
+            assertEquals(file.getAbsolutePath() + " has 2 dimensions, but the dimension is 768.", e.getMessage());
+        }
+        try {
+            queryCommand.loadQuantizer(file.getAbsolutePath() + ".none", 2);
+            fail();
+        } catch (final IllegalArgumentException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+
+    public void test_getVectors_languageDeadline() throws Exception {
+        queryCommand.vectorizer.close();
+        queryCommand.vectorizer = Vectorizer.create()//
+                .url(getServerUrl())//
+                .batchWindow(0)//
+                .cacheSize(0)//
+                .initTimeout(30000L)//
+                .build();
+        vectorizingServer.setLatency(200L);
+        queryCommand.setLanguageTimeout(1000L);
+
+        // languages are vectorized concurrently
+        long startTime = System.nanoTime();
+        Map<String, float[]> vectors = queryCommand.getVectors(new String[] { "ja", "en" }, queryCommand.getVectorFields(), "aaa");
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+        assertEquals(List.of("ja", "en"), List.copyOf(vectors.keySet()));
+        assertTrue("elapsed: " + elapsed, elapsed < 400L);
+
+        // a slow language is dropped at the deadline
+        vectorizingServer.setLatency("ja", 5000L);
+        startTime = System.nanoTime();
+        vectors = queryCommand.getVectors(new String[] { "ja", "en" }, queryCommand.getVectorFields(), "bbb");
+        elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+        assertEquals(List.of("en"), List.copyOf(vectors.keySet()));
+        assertTrue("elapsed: " + elapsed, elapsed < 2000L);
+        assertEquals(1L, queryCommand.getMetrics().getTimeoutCount());
+    }
+
+    public void test_createMultiFieldScriptSource() {
+        final String sum = VectorisingTermQueryCommand.createMultiFieldScriptSource("cosinesimil", CombineMode.SUM);
+        assertTrue(sum.contains("1.0 + cosineSimilarity(query, doc[field])"));
+        assertTrue(sum.contains("score += value;"));
+        assertTrue(sum.endsWith("return score;"));
+        final String max = VectorisingTermQueryCommand.createMultiFieldScriptSource("l2", CombineMode.MAX);
+        assertTrue(max.contains("l2Squared"));
+        assertTrue(max.contains("Math.max(score, value)"));
+        final String avg = VectorisingTermQueryCommand.createMultiFieldScriptSource("l1", CombineMode.AVG);
+        assertTrue(avg.contains("l1Norm"));
+        assertTrue(avg.endsWith("return weightSum > 0.0 ? score / weightSum : 0.0;"));
+        assertNull(VectorisingTermQueryCommand.createMultiFieldScriptSource("innerproduct", CombineMode.SUM));
+
+        assertEquals(Map.of("title", 2.0f, "content", 0.5f), VectorisingTermQueryCommand.parseFieldWeights("title:2, content:0.5"));
+        assertTrue(VectorisingTermQueryCommand.parseFieldWeights(null).isEmpty());
+    }
+
+    public void test_load() throws Exception {
+        vectorizingServer.setLatency(Long.getLong("loadtest.latency", 5L));
+        vectorizingServer.setJitter(Long.getLong("loadtest.jitter", 5L));
+        vectorizingServer.setErrorRate(Double.parseDouble(System.getProperty("loadtest.error_rate", "0.0")));
+        final LoadTestHarness harness =
+                new LoadTestHarness(Integer.getInteger("loadtest.threads", 8), Integer.getInteger("loadtest.requests", 50));
+        final LoadTestHarness.Report report = runLoad(harness);
+        logger.info("load: {}, server requests: {}, {}", report, vectorizingServer.getRequestCount(), queryCommand.getMetrics());
+        assertEquals(0L, report.getErrorCount());
+    }
+
+    public void test_load_timeout() throws Exception {
+        vectorizingServer.setLatency(200L);
+        queryCommand.setQueryTimeout(20L);
+        final LoadTestHarness.Report report = runLoad(new LoadTestHarness(4, 5));
+        logger.info("load: {}, {}", report, queryCommand.getMetrics());
+        assertEquals(0L, report.getErrorCount());
+        final VectorizerMetrics metrics = queryCommand.getMetrics();
+        assertEquals(20L, metrics.getFallbackCount(FallbackReason.EMPTY_VECTOR));
+        assertEquals(20L, metrics.getTimeoutCount() + metrics.getRejectedCount());
+    }
+
+    public void test_load_error() throws Exception {
+        vectorizingServer.setErrorRate(1.0);
+        final LoadTestHarness.Report report = runLoad(new LoadTestHarness(4, 5));
+        logger.info("load: {}, {}", report, queryCommand.getMetrics());
+        assertEquals(0L, report.getErrorCount());
+        assertEquals(20L, queryCommand.getMetrics().getFallbackCount(FallbackReason.EMPTY_VECTOR));
+    }
+
+    private LoadTestHarness.Report runLoad(final LoadTestHarness harness) throws Exception {
+        final FessConfig fessConfig = ComponentUtil.getFessConfig();
+        final AtomicInteger counter = new AtomicInteger();
+        return harness.run(() -> {
+            currentLangs.set(new String[] { "en" });
+            try {
+                // a distinct text for each request to bypass the query vector cache
+                final String text = "query" + counter.incrementAndGet();
+                final VectorisingQueryContext queryContext = new VectorisingQueryContext(new QueryContext("semantic:" + text, false));
+                final QueryBuilder builder = queryCommand.convertTermQuery(fessConfig, queryContext,
+                        new TermQuery(new Term("semantic", text)), 1.0f, "semantic", text);
+                assertNotNull(builder);
+                return builder;
+            } finally {
+                currentLangs.set(null);
+            }
+        });
+    }
+
     public void test_convertTermQuery() throws Exception {
         assertQueryBuilder(BoolQueryBuilder.class,
                 "{\"bool\":{\"should\":[{\"match_phrase\":{\"title\":{\"query\":\"aaa\",\"slop\":0,\"zero_terms_query\":\"NONE\",\"boost\":0.5}}},{\"match_phrase\":{\"content\":{\"query\":\"aaa\",\"slop\":0,\"zero_terms_query\":\"NONE\",\"boost\":0.05}}}],\"adjust_pure_negative\":true,\"boost\":1.0}}",
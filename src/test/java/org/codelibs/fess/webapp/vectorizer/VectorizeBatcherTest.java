@@ -0,0 +1,191 @@
+/*
+ * Copyright 2012-2022 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.webapp.vectorizer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import org.dbflute.utflute.core.PlainTestCase;
+
+public class VectorizeBatcherTest extends PlainTestCase {
+
+    private final List<List<String>> batches = Collections.synchronizedList(new ArrayList<>());
+
+    private final CountDownLatch released = new CountDownLatch(1);
+
+    private ExecutorService executorService;
+
+    private VectorizeBatcher batcher;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        executorService = Executors.newCachedThreadPool();
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        released.countDown();
+        if (batcher != null) {
+            batcher.close();
+        }
+        executorService.shutdownNow();
+        super.tearDown();
+    }
+
+    public void test_submit_idle() throws Exception {
+        batcher = new VectorizeBatcher(this::vectorize, executorService, 10, 10000L, 10);
+
+        // no batch is in flight, so the request does not wait for the window
+        final long startTime = System.currentTimeMillis();
+        assertEquals(0.0f, batcher.submit(Map.of("content", "a")).get(5, TimeUnit.SECONDS).get("content")[0]);
+        assertTrue(System.currentTimeMillis() - startTime < 5000L);
+        assertEquals(List.of(List.of("a")), batches);
+    }
+
+    public void test_submit_window() throws Exception {
+        batcher = new VectorizeBatcher(this::vectorize, executorService, 10, 500L, 10);
+
+        final CompletableFuture<Map<String, float[]>> blocked = batcher.submit(Map.of("content", "block"));
+        waitFor(() -> batches.size() == 1);
+        final List<CompletableFuture<Map<String, float[]>>> futures = new ArrayList<>();
+        for (final String content : List.of("a", "b", "c")) {
+            futures.add(batcher.submit(Map.of("content", content)));
+        }
+
+        // fanned out to each request by its position in the batch
+        for (int i = 0; i < futures.size(); i++) {
+            assertEquals((float) i, futures.get(i).get(5, TimeUnit.SECONDS).get("content")[0]);
+        }
+        assertFalse(blocked.isDone());
+        released.countDown();
+        assertEquals(0.0f, blocked.get(5, TimeUnit.SECONDS).get("content")[0]);
+        assertEquals(List.of(List.of("block"), List.of("a", "b", "c")), batches);
+    }
+
+    public void test_submit_maxBatchSize() throws Exception {
+        batcher = new VectorizeBatcher(this::vectorize, executorService, 2, 500L, 10);
+
+        batcher.submit(Map.of("content", "block"));
+        waitFor(() -> batches.size() == 1);
+        final List<CompletableFuture<Map<String, float[]>>> futures = new ArrayList<>();
+        for (final String content : List.of("a", "b", "c")) {
+            futures.add(batcher.submit(Map.of("content", content)));
+        }
+        for (final CompletableFuture<Map<String, float[]>> future : futures) {
+            future.get(5, TimeUnit.SECONDS);
+        }
+        assertEquals(List.of(List.of("block"), List.of("a", "b"), List.of("c")), batches);
+    }
+
+    public void test_submit_failed() throws Exception {
+        batcher = new VectorizeBatcher(inputs -> List.of(), executorService, 10, 0L, 10);
+        try {
+            batcher.submit(Map.of("content", "a")).get(5, TimeUnit.SECONDS);
+            fail();
+        } catch (final ExecutionException e) {
+            assertTrue(e.getCause() instanceof IndexOutOfBoundsException);
+        }
+    }
+
+    public void test_submit_full() throws Exception {
+        final CountDownLatch entered = new CountDownLatch(1);
+        batcher = new VectorizeBatcher(this::vectorize, command -> {
+            // blocks the dispatcher
+            entered.countDown();
+            await(released);
+            executorService.execute(command);
+        }, 10, 0L, 1);
+
+        final CompletableFuture<Map<String, float[]>> future1 = batcher.submit(Map.of("content", "a"));
+        assertTrue(entered.await(5, TimeUnit.SECONDS));
+        final CompletableFuture<Map<String, float[]>> future2 = batcher.submit(Map.of("content", "b"));
+        assertRejected(batcher.submit(Map.of("content", "c")), "Vectorize queue is full.");
+        assertEquals(1, batcher.getQueueSize());
+
+        released.countDown();
+        assertEquals(0.0f, future1.get(5, TimeUnit.SECONDS).get("content")[0]);
+        assertEquals(0.0f, future2.get(5, TimeUnit.SECONDS).get("content")[0]);
+    }
+
+    public void test_close() throws Exception {
+        final CountDownLatch entered = new CountDownLatch(1);
+        batcher = new VectorizeBatcher(this::vectorize, command -> {
+            entered.countDown();
+            await(released);
+            executorService.execute(command);
+        }, 10, 0L, 10);
+
+        final CompletableFuture<Map<String, float[]>> future1 = batcher.submit(Map.of("content", "a"));
+        assertTrue(entered.await(5, TimeUnit.SECONDS));
+        final CompletableFuture<Map<String, float[]>> future2 = batcher.submit(Map.of("content", "b"));
+        batcher.close();
+        assertRejected(batcher.submit(Map.of("content", "c")), "Vectorize batcher is closed.");
+
+        // the dispatched batch completes and the queued request is rejected
+        released.countDown();
+        assertEquals(0.0f, future1.get(5, TimeUnit.SECONDS).get("content")[0]);
+        assertRejected(future2, "Vectorize batcher is closed.");
+    }
+
+    private List<Map<String, float[]>> vectorize(final List<Map<String, Object>> inputs) {
+        final List<String> contents = inputs.stream().map(input -> (String) input.get("content")).toList();
+        batches.add(contents);
+        if (contents.contains("block")) {
+            await(released);
+        }
+        final List<Map<String, float[]>> outputs = new ArrayList<>(inputs.size());
+        for (int i = 0; i < inputs.size(); i++) {
+            outputs.add(Map.of("content", new float[] { i }));
+        }
+        return outputs;
+    }
+
+    private static void await(final CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void waitFor(final BooleanSupplier condition) throws InterruptedException {
+        for (int i = 0; i < 500 && !condition.getAsBoolean(); i++) {
+            Thread.sleep(10L);
+        }
+        assertTrue(condition.getAsBoolean());
+    }
+
+    private static void assertRejected(final CompletableFuture<Map<String, float[]>> future, final String message) throws Exception {
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail();
+        } catch (final ExecutionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+            assertEquals(message, e.getCause().getMessage());
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2012-2022 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.webapp.vectorizer;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+
+import org.dbflute.utflute.core.PlainTestCase;
+
+public class VectorizerCodecTest extends PlainTestCase {
+
+    public void test_writeRequest() throws Exception {
+        final VectorizerCodec codec = new VectorizerCodec(new String[] { "content" }, 3);
+        final String body = codec.writeRequest(List.of(Map.of("content", "a\"b"), Map.of()), List.of("en", "ja")).toString();
+
+        assertEquals("{\"data\":[{\"content\":\"a\\\"b\",\"lang\":\"en\"},{\"lang\":\"ja\"}]}", body);
+    }
+
+    public void test_writeRequest_fields() throws Exception {
+        final VectorizerCodec codec = new VectorizerCodec(new String[] { "title", "content" }, 3);
+        // only the fields of an input are vectorized
+        final List<Map<String, Object>> inputs = List.of(Map.of("content", "aaa"), Map.of("title", "bbb", "content", "ccc"));
+        final String body = codec.writeRequest(inputs, List.of("en", "en")).toString();
+
+        assertEquals("{\"data\":[{\"content\":\"aaa\",\"lang\":\"en\"},{\"title\":\"bbb\",\"content\":\"ccc\",\"lang\":\"en\"}]}",
+                body);
+        assertEquals(16 + 7 + 6 + 3, codec.estimateSize(Map.of("content", "aaa")));
+    }
+
+    public void test_readResponse() throws Exception {
+        final VectorizerCodec codec = new VectorizerCodec(new String[] { "content" }, 3);
+        final String json = "{\"took\":1,\"results\":[{\"content\":[0.1,0.2,0.3],\"extra\":{\"a\":[1]}},{\"content\":[1,2,3,4,5]}]}";
+        final List<Map<String, float[]>> outputs = codec.readResponse(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+
+        assertEquals(2, outputs.size());
+        assertEquals(1, outputs.get(0).size());
+        final float[] vector1 = outputs.get(0).get("content");
+        assertEquals(3, vector1.length);
+        assertEquals(0.2f, vector1[1]);
+        final float[] vector2 = outputs.get(1).get("content");
+        assertEquals(5, vector2.length);
+        assertEquals(5.0f, vector2[4]);
+    }
+
+    public void test_readResponse_empty() throws Exception {
+        final VectorizerCodec codec = new VectorizerCodec(new String[] { "content" }, 3);
+        final String json = "{\"results\":[]}";
+
+        assertTrue(codec.readResponse(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8))).isEmpty());
+    }
+
+    public void test_readResponse_base64Float32() throws Exception {
+        final VectorizerCodec codec = new VectorizerCodec(new String[] { "content" }, 3);
+        codec.setVectorFormat(VectorizerCodec.VectorFormat.BASE64_FLOAT32);
+        final ByteBuffer buffer = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putFloat(0.5f).putFloat(-1.0f).putFloat(2.0f);
+        final String json = "{\"results\":[{\"content\":\"" + Base64.getEncoder().encodeToString(buffer.array()) + "\"}]}";
+        final float[] vector =
+                codec.readResponse(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8))).get(0).get("content");
+
+        assertEquals(3, vector.length);
+        assertEquals(0.5f, vector[0]);
+        assertEquals(-1.0f, vector[1]);
+        assertEquals(2.0f, vector[2]);
+    }
+
+    public void test_readResponse_base64Float16() throws Exception {
+        final VectorizerCodec codec = new VectorizerCodec(new String[] { "content" }, 2);
+        codec.setVectorFormat(VectorizerCodec.VectorFormat.BASE64_FLOAT16);
+        final ByteBuffer buffer = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putShort((short) 0x3c00).putShort((short) 0xc000);
+        final String json = "{\"results\":[{\"content\":\"" + Base64.getEncoder().encodeToString(buffer.array()) + "\"}]}";
+        final float[] vector =
+                codec.readResponse(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8))).get(0).get("content");
+
+        assertEquals(2, vector.length);
+        assertEquals(1.0f, vector[0]);
+        assertEquals(-2.0f, vector[1]);
+    }
+
+    public void test_writeRequest_vectorFormat() throws Exception {
+        final VectorizerCodec codec = new VectorizerCodec(new String[] { "content" }, 3);
+        codec.setVectorFormat(VectorizerCodec.VectorFormat.BASE64_FLOAT16);
+        final String body = codec.writeRequest(List.of(Map.of("content", "aaa")), List.of("en")).toString();
+
+        assertEquals("{\"data\":[{\"content\":\"aaa\",\"lang\":\"en\"}],\"vector_format\":\"base64_float16\"}", body);
+    }
+
+    public void test_readResponse_capturedFormat() throws Exception {
+        final VectorizerCodec codec = new VectorizerCodec(new String[] { "content" }, 2);
+        codec.setVectorFormat(VectorizerCodec.VectorFormat.BASE64_FLOAT32);
+        final VectorizerCodec.VectorFormat format = codec.getVectorFormat();
+        final String body = codec.writeRequest(List.of(Map.of("content", "aaa")), List.of("en"), format).toString();
+        assertEquals("{\"data\":[{\"content\":\"aaa\",\"lang\":\"en\"}],\"vector_format\":\"base64_float32\"}", body);
+
+        // a metadata refresh changes the format before the response arrives
+        codec.setVectorFormat(VectorizerCodec.VectorFormat.BASE64_FLOAT16);
+        final ByteBuffer buffer = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putFloat(0.5f).putFloat(-1.0f);
+        final String json = "{\"results\":[{\"content\":\"" + Base64.getEncoder().encodeToString(buffer.array()) + "\"}]}";
+        final float[] vector =
+                codec.readResponse(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), format).get(0).get("content");
+
+        assertEquals(2, vector.length);
+        assertEquals(0.5f, vector[0]);
+        assertEquals(-1.0f, vector[1]);
+    }
+}
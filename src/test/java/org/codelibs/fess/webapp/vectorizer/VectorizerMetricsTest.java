@@ -0,0 +1,93 @@
+/*
+ * Copyright 2012-2022 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.webapp.vectorizer;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.codelibs.fess.webapp.vectorizer.SemanticRoutingPolicy.Route;
+import org.codelibs.fess.webapp.vectorizer.VectorizerMetrics.FallbackReason;
+import org.dbflute.utflute.core.PlainTestCase;
+
+public class VectorizerMetricsTest extends PlainTestCase {
+
+    public void test_record() {
+        final VectorizerMetrics metrics = new VectorizerMetrics();
+        metrics.recordExecution("en", 10_000_000L, true);
+        metrics.recordExecution("en", 20_000_000L, true);
+        metrics.recordExecution("ja", 30_000_000L, true);
+        metrics.recordExecution("ja", 1_000_000_000L, false);
+        metrics.recordBytes(100, 2000);
+        metrics.recordTimeout();
+        metrics.recordRejected();
+        metrics.recordRejected();
+        metrics.recordFallback(FallbackReason.EMPTY_VECTOR);
+        metrics.recordFallback(FallbackReason.UNSUPPORTED_LANGUAGE);
+        metrics.recordFallback(FallbackReason.UNSUPPORTED_LANGUAGE);
+        metrics.recordRoute(Route.SEMANTIC);
+        metrics.recordRoute(Route.SEMANTIC);
+        metrics.recordRoute(Route.SHORT_QUERY);
+
+        assertEquals(4L, metrics.getRequestCount());
+        assertEquals(1L, metrics.getErrorCount());
+        assertEquals(1L, metrics.getTimeoutCount());
+        assertEquals(2L, metrics.getRejectedCount());
+        assertEquals(100L, metrics.getRequestBytes());
+        assertEquals(2000L, metrics.getResponseBytes());
+        assertTrue(metrics.getLatencyP99() >= 30.0 && metrics.getLatencyP99() < 40.0);
+        assertEquals("[en, ja]", metrics.getLatencyP50ByLanguage().keySet().toString());
+        assertTrue(metrics.getLatencyP50ByLanguage().get("en") < 30.0);
+        assertTrue(metrics.getLatencyP50ByLanguage().get("ja") >= 30.0);
+        assertEquals("{empty_vector=1, invalid_context=0, invalid_vector=0, no_vectorizer=0, unsupported_language=2}",
+                metrics.getFallbackCounts().toString());
+        assertEquals(2L, metrics.getFallbackCount(FallbackReason.UNSUPPORTED_LANGUAGE));
+        assertEquals("{denied=0, non_text=0, overload=0, semantic=2, short_query=1}", metrics.getRouteCounts().toString());
+        assertEquals(1L, metrics.getRouteCount(Route.SHORT_QUERY));
+    }
+
+    public void test_cache() {
+        final VectorizerMetrics metrics = new VectorizerMetrics();
+        assertEquals(0L, metrics.getCacheHitCount());
+        assertEquals(0, metrics.getCacheSize());
+
+        final VectorCache cache = new VectorCache(10, 60000L);
+        metrics.setCache(cache);
+        final VectorCache.Key key = new VectorCache.Key("en", new String[] { "content" }, new String[] { "aaa" });
+        cache.get(key, () -> Map.of("content", new float[] { 1.0f }));
+        cache.get(key, () -> Map.of("content", new float[] { 2.0f }));
+        assertEquals(1L, metrics.getCacheHitCount());
+        assertEquals(1L, metrics.getCacheMissCount());
+        assertEquals(1, metrics.getCacheSize());
+    }
+
+    public void test_register() throws Exception {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName name = new ObjectName(VectorizerMetrics.OBJECT_NAME);
+        final VectorizerMetrics metrics = new VectorizerMetrics();
+        metrics.register();
+        try {
+            metrics.recordTimeout();
+            assertEquals(1L, server.getAttribute(name, "TimeoutCount"));
+            assertNotNull(server.getAttribute(name, "FallbackCounts"));
+        } finally {
+            metrics.unregister();
+        }
+        assertFalse(server.isRegistered(name));
+    }
+}
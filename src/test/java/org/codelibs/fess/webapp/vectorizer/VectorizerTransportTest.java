@@ -0,0 +1,121 @@
+/*
+ * Copyright 2012-2022 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.webapp.vectorizer;
+
+import java.io.IOException;
+import java.net.http.HttpTimeoutException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.codelibs.fess.webapp.vectorizer.VectorizerCodec.BytesOutputStream;
+import org.dbflute.utflute.core.PlainTestCase;
+
+public class VectorizerTransportTest extends PlainTestCase {
+
+    private StubVectorizerServer server;
+
+    private VectorizerTransport transport;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        server = new StubVectorizerServer(8);
+        server.start();
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        if (transport != null) {
+            transport.close();
+        }
+        server.close();
+        super.tearDown();
+    }
+
+    public void test_http2() throws Exception {
+        transport = new Http2Transport(3000, 10000);
+        assertVectorize(transport);
+        assertEquals(3L, transport.getStats().getRequestCount());
+    }
+
+    public void test_http2_timeout() throws Exception {
+        transport = new Http2Transport(3000, 200);
+        server.setLatency(2000L);
+        final long startTime = System.nanoTime();
+        try {
+            post(transport);
+            fail();
+        } catch (final HttpTimeoutException e) {
+            // expected
+        }
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime) < 1500L);
+    }
+
+    public void test_http2_timeout_body() throws Exception {
+        transport = new Http2Transport(3000, 300);
+        server.setBodyLatency(2000L);
+        final long startTime = System.nanoTime();
+        try {
+            post(transport);
+            fail();
+        } catch (final HttpTimeoutException e) {
+            // expected
+        }
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime) < 1500L);
+
+        // the aborted exchange does not block the next one
+        server.setBodyLatency(0L);
+        assertVectorize(transport);
+    }
+
+    public void test_pooled() throws Exception {
+        transport = new PooledHttpTransport(10, 10, 30000L, 3000, 10000);
+        assertVectorize(transport);
+        assertEquals(3L, transport.getStats().getRequestCount());
+        // the connection is kept alive
+        assertEquals(1L, transport.getStats().getConnectionCount());
+        assertEquals(2L, transport.getStats().getReusedCount());
+    }
+
+    public void test_curl() throws Exception {
+        transport = new CurlTransport(3000, 10000);
+        assertVectorize(transport);
+        assertEquals(3L, transport.getStats().getRequestCount());
+    }
+
+    private void assertVectorize(final VectorizerTransport transport) throws Exception {
+        try (VectorizerTransport.Response response = transport.get(server.getUrl() + "/ping")) {
+            assertEquals(200, response.getStatusCode());
+            assertEquals("{\"status\":\"ok\"}", response.getContentAsString());
+        }
+        for (int i = 0; i < 2; i++) {
+            try (VectorizerTransport.Response response = post(transport)) {
+                assertEquals(200, response.getStatusCode());
+                final List<Map<String, float[]>> outputs =
+                        new VectorizerCodec(new String[] { "content" }, 8).readResponse(response.getContentAsStream());
+                assertEquals(1, outputs.size());
+                assertEquals(8, outputs.get(0).get("content").length);
+            }
+        }
+    }
+
+    private VectorizerTransport.Response post(final VectorizerTransport transport) throws IOException {
+        final BytesOutputStream body =
+                new VectorizerCodec(new String[] { "content" }, 8).writeRequest(List.of(Map.of("content", "aaa")), List.of("en"));
+        return transport.post(server.getUrl() + "/vectorize", body.getBuffer(), body.size());
+    }
+}
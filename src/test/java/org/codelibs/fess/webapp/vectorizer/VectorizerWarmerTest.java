@@ -0,0 +1,79 @@
+/*
+ * Copyright 2012-2022 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.webapp.vectorizer;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.dbflute.utflute.core.PlainTestCase;
+
+public class VectorizerWarmerTest extends PlainTestCase {
+
+    public void test_warmUp() throws Exception {
+        final File file = File.createTempFile("warmup", ".txt");
+        file.deleteOnExit();
+        Files.writeString(file.toPath(), "aaa\nja\tfail\nfr\tccc\n\n", StandardCharsets.UTF_8);
+        final MockVectorizer vectorizer = new MockVectorizer();
+        final VectorizerWarmer warmer = new VectorizerWarmer(vectorizer, (lang, text) -> Map.of("lang", lang, "content", text));
+        warmer.setFile(file.toPath());
+        final Map<String, List<String>> popularQueries = new LinkedHashMap<>();
+        popularQueries.put("en", List.of("aaa", "ddd", "eee"));
+        popularQueries.put("ja", List.of("fff"));
+        popularQueries.put("fr", List.of("ggg"));
+        warmer.setPopularQuerySupplier(() -> popularQueries);
+        warmer.setSize(2);
+        warmer.setDelay(0L);
+        warmer.setRate(1000.0);
+        warmer.run();
+
+        // the top queries of each language
+        assertEquals("[en:aaa, ja:aaa, ja:fail, en:ddd, ja:fff]", vectorizer.inputs.toString());
+        assertEquals(5, warmer.getTotalCount());
+        assertEquals(4, warmer.getWarmedCount());
+        assertEquals(1, warmer.getFailedCount());
+    }
+
+    public void test_rate() throws Exception {
+        final MockVectorizer vectorizer = new MockVectorizer();
+        final VectorizerWarmer warmer = new VectorizerWarmer(vectorizer, (lang, text) -> Map.of("lang", lang, "content", text));
+        warmer.setPopularQuerySupplier(
+                () -> Map.of("en", List.of("a1", "a2", "a3", "a4", "a5", "a6", "a7", "a8", "a9", "a10"), "ja", List.of("b1", "b2")));
+        warmer.setLanguages(new String[] { "en" });
+        warmer.setDelay(0L);
+        warmer.setRate(50.0);
+        final long startTime = System.currentTimeMillis();
+        warmer.run();
+        assertEquals(10, warmer.getWarmedCount());
+        assertFalse(vectorizer.inputs.toString(), vectorizer.inputs.stream().anyMatch(input -> input.startsWith("ja:")));
+        assertTrue(System.currentTimeMillis() - startTime >= 150L);
+    }
+
+    public void test_close() throws Exception {
+        final MockVectorizer vectorizer = new MockVectorizer();
+        final VectorizerWarmer warmer = new VectorizerWarmer(vectorizer, (lang, text) -> Map.of("lang", lang, "content", text));
+        warmer.setPopularQuerySupplier(() -> Map.of("en", List.of("aaa")));
+        warmer.setDelay(60000L);
+        warmer.start();
+        warmer.close();
+        warmer.thread.join(1000L);
+        assertFalse(warmer.thread.isAlive());
+        assertEquals(0, vectorizer.inputs.size());
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2012-2022 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.webapp.vectorizer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import org.codelibs.core.io.SerializeUtil;
+import org.codelibs.fess.crawler.entity.ResponseData;
+import org.codelibs.fess.crawler.entity.ResultData;
+import org.dbflute.utflute.core.PlainTestCase;
+
+public class VectorizingIngesterTest extends PlainTestCase {
+
+    private VectorizingIngester ingester;
+
+    @Override
+    public void tearDown() throws Exception {
+        if (ingester != null) {
+            ingester.destroy();
+        }
+        super.tearDown();
+    }
+
+    public void test_vectorize() throws Exception {
+        final MockVectorizer vectorizer = new MockVectorizer();
+        vectorizer.latency = 20L;
+        ingester = new VectorizingIngester();
+        ingester.setBatchSize(8);
+        ingester.setConcurrency(2);
+        ingester.start(vectorizer);
+
+        final List<Map<String, Object>> docs = new ArrayList<>();
+        final List<Thread> threads = new ArrayList<>();
+        final Queue<Boolean> results = new ConcurrentLinkedQueue<>();
+        for (int i = 0; i < 8; i++) {
+            final Map<String, Object> doc = createDoc("en", "aaa" + i);
+            docs.add(doc);
+            threads.add(new Thread(() -> {
+                for (int j = 0; j < 5; j++) {
+                    results.add(ingester.vectorize(new HashMap<>(doc)));
+                }
+                results.add(ingester.vectorize(doc));
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(48, results.size());
+        assertTrue(results.toString(), results.stream().allMatch(Boolean::booleanValue));
+        assertEquals(48L, ingester.getVectorizedCount());
+        assertEquals(0L, ingester.getFailedCount());
+        for (final Map<String, Object> doc : docs) {
+            assertEquals(1.0f, ((float[]) doc.get("content_en_vector"))[0]);
+        }
+        // concurrent documents are sent together
+        assertTrue(vectorizer.batchSizes.toString(), vectorizer.batchSizes.size() < 48);
+        assertTrue(vectorizer.batchSizes.stream().allMatch(size -> size <= 8));
+    }
+
+    public void test_vectorize_skippedAndFailed() throws Exception {
+        ingester = new VectorizingIngester();
+        ingester.start(new MockVectorizer());
+
+        assertFalse(ingester.vectorize(createDoc("fr", "aaa")));
+        assertFalse(ingester.vectorize(createDoc("en", " ")));
+        assertEquals(2L, ingester.getSkippedCount());
+
+        final Map<String, Object> doc = createDoc("en", "fail");
+        assertFalse(ingester.vectorize(doc));
+        assertFalse(doc.containsKey("content_en_vector"));
+        assertEquals(1L, ingester.getFailedCount());
+
+        final Map<String, Object> vectorized = createDoc("ja", "aaa");
+        vectorized.put("content_ja_vector", new float[] { 2.0f });
+        assertFalse(ingester.vectorize(vectorized));
+        assertEquals(2.0f, ((float[]) vectorized.get("content_ja_vector"))[0]);
+    }
+
+    public void test_vectorize_initTimeout() throws Exception {
+        try (StubVectorizerServer server = new StubVectorizerServer(8)) {
+            server.start();
+            server.setMetadataLatency(500L);
+            ingester = createIngester(server);
+            ingester.setInitTimeout(10000L);
+
+            // the first document waits for the supported languages
+            final Map<String, Object> doc = createDoc("en", "aaa");
+            assertTrue(ingester.vectorize(doc));
+            assertEquals(8, ((float[]) doc.get("content_en_vector")).length);
+            assertEquals(1L, ingester.getVectorizedCount());
+            assertEquals(0L, ingester.getSkippedCount());
+        }
+    }
+
+    public void test_vectorize_notInitialized() throws Exception {
+        try (StubVectorizerServer server = new StubVectorizerServer(8)) {
+            server.start();
+            server.setMetadataLatency(1000L);
+            ingester = createIngester(server);
+            ingester.setInitTimeout(100L);
+
+            // not counted as an unsupported language
+            final Map<String, Object> doc = createDoc("en", "aaa");
+            assertFalse(ingester.vectorize(doc));
+            assertFalse(doc.containsKey("content_en_vector"));
+            assertEquals(1L, ingester.getFailedCount());
+            assertEquals(0L, ingester.getSkippedCount());
+
+            assertTrue(waitFor(() -> ingester.vectorizer.isInitialized()));
+            assertTrue(ingester.vectorize(doc));
+            assertEquals(8, ((float[]) doc.get("content_en_vector")).length);
+        }
+    }
+
+    public void test_backpressure() throws Exception {
+        final MockVectorizer vectorizer = new MockVectorizer();
+        vectorizer.blocker = new CountDownLatch(1);
+        ingester = new VectorizingIngester();
+        ingester.setQueueSize(1);
+        ingester.setConcurrency(1);
+        ingester.setTimeout(200L);
+        ingester.start(vectorizer);
+
+        // the worker is blocked by the first document, and the second one fills the queue
+        final Thread first = new Thread(() -> ingester.vectorize(createDoc("en", "aaa")));
+        first.start();
+        assertTrue(waitFor(() -> vectorizer.batchSizes.size() == 1));
+        final Thread second = new Thread(() -> ingester.vectorize(createDoc("en", "bbb")));
+        second.start();
+        assertTrue(waitFor(() -> ingester.getQueueSize() == 1));
+
+        final long startTime = System.nanoTime();
+        assertFalse(ingester.vectorize(createDoc("en", "ccc")));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime) >= 150L);
+        vectorizer.blocker.countDown();
+        first.join();
+        second.join();
+        assertEquals(3L, ingester.getFailedCount());
+    }
+
+    public void test_vectorize_modelVersion() throws Exception {
+        ingester = new VectorizingIngester();
+        ingester.start(new MockVectorizer());
+        Map<String, Object> doc = createDoc("en", "aaa");
+        assertTrue(ingester.vectorize(doc));
+        assertFalse(doc.containsKey("vector_model"));
+
+        ingester.setModelVersion("v2");
+        doc = createDoc("en", "aaa");
+        assertTrue(ingester.vectorize(doc));
+        // the backfill job does not vectorize this document again
+        assertEquals("v2", doc.get("vector_model"));
+        doc = createDoc("en", "fail");
+        assertFalse(ingester.vectorize(doc));
+        assertFalse(doc.containsKey("vector_model"));
+    }
+
+    public void test_processResultData() throws Exception {
+        ingester = new VectorizingIngester();
+        ingester.start(new MockVectorizer());
+
+        final ResultData resultData = new ResultData();
+        resultData.setData(SerializeUtil.fromObjectToBinary(new HashMap<>(createDoc("en", "aaa"))));
+        ingester.process(resultData, new ResponseData());
+        @SuppressWarnings("unchecked")
+        final Map<String, Object> doc = (Map<String, Object>) SerializeUtil.fromBinaryToObject(resultData.getData());
+        assertEquals("aaa", doc.get("content"));
+        assertEquals(1.0f, ((float[]) doc.get("content_en_vector"))[0]);
+    }
+
+    private static VectorizingIngester createIngester(final StubVectorizerServer server) {
+        final Map<String, String> properties =
+                Map.of("url", server.getUrl(), "fields", "content", "dimension", "8", "transport", "http2", "vector_format", "json");
+        return new VectorizingIngester() {
+            @Override
+            protected String getSystemProperty(final String key, final String defaultValue) {
+                return properties.getOrDefault(key, defaultValue);
+            }
+        };
+    }
+
+    private static Map<String, Object> createDoc(final String lang, final String content) {
+        final Map<String, Object> doc = new HashMap<>();
+        doc.put("url", "http://localhost/" + content);
+        doc.put("lang", lang);
+        doc.put("content", content);
+        return doc;
+    }
+
+    private static boolean waitFor(final BooleanSupplier condition) throws InterruptedException {
+        for (int i = 0; i < 100; i++) {
+            if (condition.getAsBoolean()) {
+                return true;
+            }
+            Thread.sleep(20L);
+        }
+        return false;
+    }
+}
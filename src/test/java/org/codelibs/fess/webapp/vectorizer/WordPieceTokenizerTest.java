@@ -0,0 +1,55 @@
+/*
+ * Copyright 2012-2022 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.webapp.vectorizer;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.dbflute.utflute.core.PlainTestCase;
+
+public class WordPieceTokenizerTest extends PlainTestCase {
+
+    private static final String[] VOCAB =
+            { "[PAD]", "[UNK]", "[CLS]", "[SEP]", "hello", "world", "!", "un", "##aff", "##able", "cafe", "日" };
+
+    private WordPieceTokenizer createTokenizer() {
+        final Map<String, Integer> vocab = new HashMap<>();
+        for (int i = 0; i < VOCAB.length; i++) {
+            vocab.put(VOCAB[i], i);
+        }
+        return new WordPieceTokenizer(vocab, true);
+    }
+
+    public void test_encode() {
+        final WordPieceTokenizer tokenizer = createTokenizer();
+        assertArrayEquals(new int[] { 2, 4, 5, 6, 3 }, tokenizer.encode("Hello  World!", 16));
+        assertArrayEquals(new int[] { 2, 7, 8, 9, 3 }, tokenizer.encode("unaffable", 16));
+        assertArrayEquals(new int[] { 2, 1, 3 }, tokenizer.encode("unknown", 16));
+        assertArrayEquals(new int[] { 2, 10, 11, 1, 3 }, tokenizer.encode("Café 日本", 16));
+        assertArrayEquals(new int[] { 2, 3 }, tokenizer.encode("", 16));
+    }
+
+    public void test_encode_truncate() {
+        final WordPieceTokenizer tokenizer = createTokenizer();
+        assertArrayEquals(new int[] { 2, 4, 5, 3 }, tokenizer.encode("hello world hello world", 4));
+        assertArrayEquals(new int[] { 2, 7, 8, 3 }, tokenizer.encode("unaffable", 4));
+    }
+
+    private static void assertArrayEquals(final int[] expected, final int[] actual) {
+        assertEquals(Arrays.toString(expected), Arrays.toString(actual));
+    }
+}